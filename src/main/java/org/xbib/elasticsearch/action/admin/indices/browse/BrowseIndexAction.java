@@ -0,0 +1,27 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.action.admin.indices.IndicesAction;
+import org.elasticsearch.client.IndicesAdminClient;
+
+/**
+ * Browse index action
+ */
+public class BrowseIndexAction extends IndicesAction<BrowseIndexRequest, BrowseIndexResponse, BrowseIndexRequestBuilder> {
+
+    public static final BrowseIndexAction INSTANCE = new BrowseIndexAction();
+    public static final String NAME = "indices/browse";
+
+    private BrowseIndexAction() {
+        super(NAME);
+    }
+
+    @Override
+    public BrowseIndexResponse newResponse() {
+        return new BrowseIndexResponse();
+    }
+
+    @Override
+    public BrowseIndexRequestBuilder newRequestBuilder(IndicesAdminClient client) {
+        return new BrowseIndexRequestBuilder(client);
+    }
+}
@@ -0,0 +1,197 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.action.ActionRequestValidationException;
+import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.io.IOException;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
+
+/**
+ * A request to run a Lucene query string against each shard and browse the hits,
+ * without the search pipeline.
+ */
+public class BrowseIndexRequest extends BroadcastOperationRequest<BrowseIndexRequest> {
+
+    /**
+     * The default number of top hits per shard
+     */
+    public static final int DEFAULT_SIZE = 10;
+
+    private String query;
+
+    private String defaultField = "_all";
+
+    private int size = DEFAULT_SIZE;
+
+    private int limit = -1;
+
+    private boolean score = true;
+
+    private TimeValue timeout;
+
+    // the end of the time budget on the coordinating node, not serialized
+    private long deadline = -1L;
+
+    BrowseIndexRequest() {
+    }
+
+    public BrowseIndexRequest(String... indices) {
+        super(indices);
+    }
+
+    /**
+     * The query in the Lucene query syntax, parsed by the classic query parser
+     *
+     * @param query the query string
+     * @return this request
+     */
+    public BrowseIndexRequest query(String query) {
+        this.query = query;
+        return this;
+    }
+
+    public String query() {
+        return query;
+    }
+
+    /**
+     * The field for query terms without a field
+     *
+     * @param defaultField the default field
+     * @return this request
+     */
+    public BrowseIndexRequest defaultField(String defaultField) {
+        this.defaultField = defaultField;
+        return this;
+    }
+
+    public String defaultField() {
+        return defaultField;
+    }
+
+    /**
+     * The number of top hits returned per shard
+     *
+     * @param size the number of hits
+     * @return this request
+     */
+    public BrowseIndexRequest size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The maximum number of hits collected per shard. If set, the hits are collected
+     * by a count limited collector, which stops at the limit.
+     *
+     * @param limit the maximum number of hits, or -1 for all hits
+     * @return this request
+     */
+    public BrowseIndexRequest limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Whether the hits are scored. Unscored hits all have a score of 1 and are
+     * ranked by doc id.
+     *
+     * @param score true to score the hits
+     * @return this request
+     */
+    public BrowseIndexRequest score(boolean score) {
+        this.score = score;
+        return this;
+    }
+
+    public boolean score() {
+        return score;
+    }
+
+    /**
+     * The time budget of the request. The budget starts on the coordinating node
+     * and is shared by all shards; a shard that runs out of time returns the hits
+     * collected so far.
+     *
+     * @param timeout the time budget, or null for the node default
+     * @return this request
+     */
+    public BrowseIndexRequest timeout(TimeValue timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * The end of the time budget. The end is fixed when it is first asked for,
+     * on the coordinating node, so all shard requests share the same budget. The shard
+     * requests carry the time remaining when they are sent.
+     *
+     * @return the end in milliseconds since the epoch, or -1 without a time budget
+     */
+    long deadline() {
+        if (timeout != null && deadline < 0) {
+            deadline = System.currentTimeMillis() + timeout.millis();
+        }
+        return deadline;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (query == null) {
+            validationException = addValidationError("query is missing", validationException);
+        }
+        if (size < 0) {
+            validationException = addValidationError("size must not be negative", validationException);
+        }
+        if (limit == 0 || limit < -1) {
+            validationException = addValidationError("limit must be positive", validationException);
+        }
+        return validationException;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        query = in.readString();
+        defaultField = in.readString();
+        size = in.readVInt();
+        limit = in.readInt();
+        score = in.readBoolean();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(query);
+        out.writeString(defaultField);
+        out.writeVInt(size);
+        out.writeInt(limit);
+        out.writeBoolean(score);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
+    }
+}
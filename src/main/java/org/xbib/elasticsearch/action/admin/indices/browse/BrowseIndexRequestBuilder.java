@@ -0,0 +1,66 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * A request builder for browsing the hits of a Lucene query.
+ */
+public class BrowseIndexRequestBuilder extends ActionRequestBuilder<BrowseIndexRequest, BrowseIndexResponse, BrowseIndexRequestBuilder, IndicesAdminClient> {
+
+    /**
+     * Constructor
+     *
+     * @param client
+     */
+    public BrowseIndexRequestBuilder(IndicesAdminClient client) {
+        super(client, new BrowseIndexRequest());
+    }
+
+    public BrowseIndexRequestBuilder setIndices(String... indices) {
+        request.indices(indices);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setQuery(String query) {
+        request.query(query);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setDefaultField(String defaultField) {
+        request.defaultField(defaultField);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setSize(int size) {
+        request.size(size);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setLimit(int limit) {
+        request.limit(limit);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setScore(boolean score) {
+        request.score(score);
+        return this;
+    }
+
+    public BrowseIndexRequestBuilder setTimeout(TimeValue timeout) {
+        request.timeout(timeout);
+        return this;
+    }
+
+    /**
+     * Execute action.
+     *
+     * @param listener a response listener
+     */
+    @Override
+    protected void doExecute(ActionListener<BrowseIndexResponse> listener) {
+        client.execute(BrowseIndexAction.INSTANCE, request, listener);
+    }
+}
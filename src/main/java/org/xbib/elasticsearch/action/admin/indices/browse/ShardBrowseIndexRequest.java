@@ -0,0 +1,91 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+import java.io.IOException;
+
+/**
+ * Shard browse request
+ */
+public class ShardBrowseIndexRequest extends BroadcastShardOperationRequest {
+
+    private String query;
+
+    private String defaultField;
+
+    private int size;
+
+    private int limit;
+
+    private boolean score;
+
+    private long deadline;
+
+    ShardBrowseIndexRequest() {
+    }
+
+    public ShardBrowseIndexRequest(String index, int shardId, BrowseIndexRequest request) {
+        super(index, shardId, request);
+        this.query = request.query();
+        this.defaultField = request.defaultField();
+        this.size = request.size();
+        this.limit = request.limit();
+        this.score = request.score();
+        this.deadline = request.deadline();
+    }
+
+    public String query() {
+        return query;
+    }
+
+    public String defaultField() {
+        return defaultField;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public boolean score() {
+        return score;
+    }
+
+    /**
+     * The end of the time budget on the clock of this node. The budget travels as the
+     * remaining time, so the clocks of the nodes need not agree.
+     *
+     * @return the end of the time budget in milliseconds since the epoch, or -1
+     */
+    public long deadline() {
+        return deadline;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        query = in.readString();
+        defaultField = in.readString();
+        size = in.readVInt();
+        limit = in.readInt();
+        score = in.readBoolean();
+        long remaining = in.readLong();
+        deadline = remaining >= 0 ? System.currentTimeMillis() + remaining : -1L;
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeString(query);
+        out.writeString(defaultField);
+        out.writeVInt(size);
+        out.writeInt(limit);
+        out.writeBoolean(score);
+        out.writeLong(deadline >= 0 ? Math.max(0L, deadline - System.currentTimeMillis()) : -1L);
+    }
+}
@@ -0,0 +1,212 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * The hits of a shard, with the segment of each hit and the number of hits per segment.
+ * The hits travel as doc id, score and segment ord arrays.
+ */
+public class ShardBrowseIndexResponse extends BroadcastShardOperationResponse implements ToXContent {
+
+    private int totalHits;
+
+    private boolean limited;
+
+    private boolean timedOut;
+
+    private long tookInMillis;
+
+    private int[] docs;
+
+    private float[] scores;
+
+    private int[] segmentOrds;
+
+    private String[] segmentNames;
+
+    private int[] segmentMaxDocs;
+
+    private int[] segmentDocBases;
+
+    private int[] segmentHits;
+
+    ShardBrowseIndexResponse() {
+    }
+
+    ShardBrowseIndexResponse(String index, int shardId) {
+        super(index, shardId);
+    }
+
+    ShardBrowseIndexResponse hits(int totalHits, boolean limited, boolean timedOut, long tookInMillis) {
+        this.totalHits = totalHits;
+        this.limited = limited;
+        this.timedOut = timedOut;
+        this.tookInMillis = tookInMillis;
+        return this;
+    }
+
+    /**
+     * @param docs the shard doc ids of the top hits
+     * @param scores the scores of the top hits, or null if the hits are not scored
+     * @param segmentOrds the segment ord of each top hit
+     * @return this
+     */
+    ShardBrowseIndexResponse topHits(int[] docs, float[] scores, int[] segmentOrds) {
+        this.docs = docs;
+        this.scores = scores;
+        this.segmentOrds = segmentOrds;
+        return this;
+    }
+
+    /**
+     * @param names the segment names, by segment ord
+     * @param maxDocs the number of documents of each segment
+     * @param docBases the first shard doc id of each segment
+     * @param hits the number of collected hits in each segment
+     * @return this
+     */
+    ShardBrowseIndexResponse segments(String[] names, int[] maxDocs, int[] docBases, int[] hits) {
+        this.segmentNames = names;
+        this.segmentMaxDocs = maxDocs;
+        this.segmentDocBases = docBases;
+        this.segmentHits = hits;
+        return this;
+    }
+
+    /**
+     * @return the number of collected hits
+     */
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * @return true if the collection stopped at the hit limit
+     */
+    public boolean isLimited() {
+        return limited;
+    }
+
+    /**
+     * @return true if the collection stopped at the deadline
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public int[] getDocs() {
+        return docs;
+    }
+
+    public float[] getScores() {
+        return scores;
+    }
+
+    public String getSegment(int hit) {
+        return segmentNames[segmentOrds[hit]];
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("index", getIndex())
+                .field("shardId", getShardId())
+                .field("totalHits", totalHits)
+                .field("limited", limited)
+                .field("timedOut", timedOut)
+                .field("tookInMillis", tookInMillis);
+        builder.startArray("hits");
+        for (int i = 0; i < docs.length; i++) {
+            int ord = segmentOrds[i];
+            builder.startObject()
+                    .field("doc", docs[i]);
+            if (scores != null) {
+                builder.field("score", scores[i]);
+            }
+            builder.field("segment", segmentNames[ord])
+                    .field("segmentDoc", docs[i] - segmentDocBases[ord])
+                    .endObject();
+        }
+        builder.endArray();
+        builder.startArray("segments");
+        for (int i = 0; i < segmentNames.length; i++) {
+            builder.startObject()
+                    .field("segment", segmentNames[i])
+                    .field("docBase", segmentDocBases[i])
+                    .field("maxDoc", segmentMaxDocs[i])
+                    .field("hits", segmentHits[i])
+                    .endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+        return builder;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        totalHits = in.readVInt();
+        limited = in.readBoolean();
+        timedOut = in.readBoolean();
+        tookInMillis = in.readVLong();
+        int n = in.readVInt();
+        docs = new int[n];
+        segmentOrds = new int[n];
+        for (int i = 0; i < n; i++) {
+            docs[i] = in.readVInt();
+            segmentOrds[i] = in.readVInt();
+        }
+        if (in.readBoolean()) {
+            scores = new float[n];
+            for (int i = 0; i < n; i++) {
+                scores[i] = in.readFloat();
+            }
+        }
+        int segments = in.readVInt();
+        segmentNames = new String[segments];
+        segmentMaxDocs = new int[segments];
+        segmentDocBases = new int[segments];
+        segmentHits = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            segmentNames[i] = in.readString();
+            segmentMaxDocs[i] = in.readVInt();
+            segmentDocBases[i] = in.readVInt();
+            segmentHits[i] = in.readVInt();
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(totalHits);
+        out.writeBoolean(limited);
+        out.writeBoolean(timedOut);
+        out.writeVLong(tookInMillis);
+        out.writeVInt(docs.length);
+        for (int i = 0; i < docs.length; i++) {
+            out.writeVInt(docs[i]);
+            out.writeVInt(segmentOrds[i]);
+        }
+        if (scores == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            for (float score : scores) {
+                out.writeFloat(score);
+            }
+        }
+        out.writeVInt(segmentNames.length);
+        for (int i = 0; i < segmentNames.length; i++) {
+            out.writeString(segmentNames[i]);
+            out.writeVInt(segmentMaxDocs[i]);
+            out.writeVInt(segmentDocBases[i]);
+            out.writeVInt(segmentHits[i]);
+        }
+    }
+}
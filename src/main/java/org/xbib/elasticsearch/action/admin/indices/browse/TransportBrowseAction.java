@@ -0,0 +1,185 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ShardOperationFailedException;
+import org.elasticsearch.action.support.DefaultShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
+import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.action.support.broadcast.TransportBroadcastOperationAction;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.block.ClusterBlockException;
+import org.elasticsearch.cluster.block.ClusterBlockLevel;
+import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.lucene.SegmentReaderUtils;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.service.InternalIndexShard;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.SkywalkerService;
+import org.xbib.elasticsearch.skywalker.collectors.AccessibleHitCollector;
+import org.xbib.elasticsearch.skywalker.collectors.AccessibleTopHitCollector;
+import org.xbib.elasticsearch.skywalker.collectors.CountLimitedHitCollector;
+import org.xbib.elasticsearch.skywalker.collectors.LimitedHitScan;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
+
+/**
+ *  Transport browse index action
+ */
+public class TransportBrowseAction extends TransportBroadcastOperationAction<BrowseIndexRequest, BrowseIndexResponse, ShardBrowseIndexRequest, BroadcastShardOperationResponse> {
+
+    private final IndicesService indicesService;
+
+    private final SkywalkerService skywalkerService;
+
+    @Inject
+    public TransportBrowseAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
+                                 TransportService transportService, IndicesService indicesService,
+                                 SkywalkerService skywalkerService) {
+        super(settings, BrowseIndexAction.NAME, threadPool, clusterService, transportService);
+        this.indicesService = indicesService;
+        this.skywalkerService = skywalkerService;
+    }
+
+    @Override
+    protected String executor() {
+        return ThreadPool.Names.SEARCH;
+    }
+
+    @Override
+    protected BrowseIndexRequest newRequest() {
+        return new BrowseIndexRequest();
+    }
+
+    @Override
+    protected BrowseIndexResponse newResponse(BrowseIndexRequest request, AtomicReferenceArray shardsResponses, ClusterState clusterState) {
+        int successfulShards = 0;
+        int failedShards = 0;
+        List<ShardOperationFailedException> shardFailures = null;
+        final List<ShardBrowseIndexResponse> shards = newArrayList();
+        for (int i = 0; i < shardsResponses.length(); i++) {
+            Object shardResponse = shardsResponses.get(i);
+            if (shardResponse == null) {
+                // a non active shard, ignore...
+            } else if (shardResponse instanceof BroadcastShardOperationFailedException) {
+                failedShards++;
+                if (shardFailures == null) {
+                    shardFailures = newArrayList();
+                }
+                shardFailures.add(new DefaultShardOperationFailedException((BroadcastShardOperationFailedException) shardResponse));
+            } else {
+                shards.add((ShardBrowseIndexResponse) shardResponse);
+                successfulShards++;
+            }
+        }
+        return new BrowseIndexResponse(shards, shardsResponses.length(), successfulShards, failedShards, shardFailures);
+    }
+
+    @Override
+    protected ShardBrowseIndexRequest newShardRequest() {
+        return new ShardBrowseIndexRequest();
+    }
+
+    @Override
+    protected ShardBrowseIndexRequest newShardRequest(int numShards, ShardRouting shard, BrowseIndexRequest request) {
+        return new ShardBrowseIndexRequest(shard.index(), shard.id(), request);
+    }
+
+    @Override
+    protected BroadcastShardOperationResponse newShardResponse() {
+        return new ShardBrowseIndexResponse();
+    }
+
+    @Override
+    protected ShardBrowseIndexResponse shardOperation(ShardBrowseIndexRequest request) throws ElasticsearchException {
+        long start = System.currentTimeMillis();
+        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        InternalIndexShard indexShard = (InternalIndexShard) indexService.shardSafe(request.shardId());
+        Query query;
+        try {
+            QueryParser parser = new QueryParser(Lucene.QUERYPARSER_VERSION, request.defaultField(),
+                    indexService.mapperService().searchAnalyzer());
+            query = parser.parse(request.query());
+        } catch (ParseException e) {
+            throw new ElasticsearchIllegalArgumentException("failed to parse query [" + request.query() + "]", e);
+        }
+        TimeValue timeout = request.deadline() >= 0 ?
+                TimeValue.timeValueMillis(Math.max(0L, request.deadline() - start)) : null;
+        Deadline deadline = skywalkerService.deadline(timeout);
+        Engine.Searcher searcher = indexShard.engine().acquireSearcher("transport_browse");
+        try {
+            AccessibleHitCollector collector = request.limit() > 0 ?
+                    new CountLimitedHitCollector(request.limit(), false, request.score()) :
+                    new AccessibleTopHitCollector(Math.max(request.size(), 1), false, request.score());
+            LimitedHitScan scan = new LimitedHitScan(searcher.searcher(), query).deadline(deadline)
+                    .scan(collector);
+            List<AtomicReaderContext> leaves = searcher.reader().leaves();
+            int n = Math.min(Math.min(collector.getTotalHits(), scan.hits()), request.size());
+            int[] docs = new int[n];
+            float[] scores = request.score() ? new float[n] : null;
+            int[] ords = new int[n];
+            for (int i = 0; i < n; i++) {
+                docs[i] = collector.getDocId(i);
+                if (scores != null) {
+                    scores[i] = collector.getScore(i);
+                }
+                ords[i] = ReaderUtil.subIndex(docs[i], leaves);
+            }
+            String[] names = new String[leaves.size()];
+            int[] maxDocs = new int[leaves.size()];
+            int[] docBases = new int[leaves.size()];
+            for (AtomicReaderContext leaf : leaves) {
+                SegmentReader segmentReader = SegmentReaderUtils.segmentReaderOrNull(leaf.reader());
+                names[leaf.ord] = segmentReader != null ? segmentReader.getSegmentName() : leaf.reader().toString();
+                maxDocs[leaf.ord] = leaf.reader().maxDoc();
+                docBases[leaf.ord] = leaf.docBase;
+            }
+            return new ShardBrowseIndexResponse(request.index(), request.shardId())
+                    .hits(scan.hits(), scan.limited(), scan.expired(), System.currentTimeMillis() - start)
+                    .topHits(docs, scores, ords)
+                    .segments(names, maxDocs, docBases, scan.leafHits());
+        } catch (IOException e) {
+            throw new ElasticsearchException("failed to browse index", e);
+        } finally {
+            skywalkerService.release(deadline);
+            searcher.close();
+        }
+    }
+
+    @Override
+    protected GroupShardsIterator shards(ClusterState clusterState, BrowseIndexRequest request, String[] concreteIndices) {
+        // one copy per shard
+        return clusterService.operationRouting().searchShards(clusterState, request.indices(), concreteIndices,
+                null, null);
+    }
+
+    @Override
+    protected ClusterBlockException checkGlobalBlock(ClusterState state, BrowseIndexRequest request) {
+        return state.blocks().globalBlockedException(ClusterBlockLevel.READ);
+    }
+
+    @Override
+    protected ClusterBlockException checkRequestBlock(ClusterState state, BrowseIndexRequest request, String[] concreteIndices) {
+        return state.blocks().indicesBlockedException(ClusterBlockLevel.READ, concreteIndices);
+    }
+}
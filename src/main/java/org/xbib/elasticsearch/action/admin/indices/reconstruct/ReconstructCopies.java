@@ -0,0 +1,51 @@
+package org.xbib.elasticsearch.action.admin.indices.reconstruct;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+
+/**
+ * Which copies of a shard take part in a reconstruction
+ */
+public enum ReconstructCopies {
+
+    /**
+     * Every active copy reconstructs the whole shard
+     */
+    ALL("all"),
+
+    /**
+     * One active copy reconstructs the whole shard, the others are only used on failure
+     */
+    ONE("one"),
+
+    /**
+     * The documents of a shard are split by the hash of their UID over all active copies,
+     * each copy reconstructs its part. Deleted documents of a shard with deletions can not be
+     * split, because each copy keeps its deleted documents until its own merges.
+     */
+    SPLIT("split");
+
+    private final String fieldName;
+
+    ReconstructCopies(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * The name of the mode in requests
+     *
+     * @return the name
+     */
+    public String fieldName() {
+        return fieldName;
+    }
+
+    public static ReconstructCopies fromString(String copies) {
+        for (ReconstructCopies c : values()) {
+            if (c.fieldName.equals(copies)) {
+                return c;
+            }
+        }
+        throw new ElasticsearchIllegalArgumentException("unknown copies [" + copies
+                + "], expected [all], [one] or [split]");
+    }
+}
@@ -0,0 +1,86 @@
+package org.xbib.elasticsearch.action.admin.indices.reconstruct;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+
+import java.io.IOException;
+
+/**
+ * The cursor of a paged reconstruction. It names the shard, the pinned reconstruct
+ * context on the node holding the shard, the remaining document range, and the page size.
+ * Cursors are opaque URL-safe strings for clients.
+ */
+public class ReconstructCursor {
+
+    private final String index;
+
+    private final int shardId;
+
+    private final long contextId;
+
+    private final int nextDoc;
+
+    private final int to;
+
+    private final int size;
+
+    public ReconstructCursor(String index, int shardId, long contextId, int nextDoc, int to, int size) {
+        this.index = index;
+        this.shardId = shardId;
+        this.contextId = contextId;
+        this.nextDoc = nextDoc;
+        this.to = to;
+        this.size = size;
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public int shardId() {
+        return shardId;
+    }
+
+    public long contextId() {
+        return contextId;
+    }
+
+    public int nextDoc() {
+        return nextDoc;
+    }
+
+    public int to() {
+        return to;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String encode() {
+        try {
+            BytesStreamOutput out = new BytesStreamOutput();
+            out.writeString(index);
+            out.writeVInt(shardId);
+            out.writeVLong(contextId);
+            out.writeVInt(nextDoc);
+            out.writeVInt(to);
+            out.writeVInt(size);
+            return Base64.encodeBytes(out.bytes().toBytes(), Base64.URL_SAFE);
+        } catch (IOException e) {
+            throw new ElasticsearchIllegalArgumentException("failed to encode cursor", e);
+        }
+    }
+
+    public static ReconstructCursor decode(String cursor) {
+        try {
+            BytesStreamInput in = new BytesStreamInput(new BytesArray(Base64.decode(cursor, Base64.URL_SAFE)));
+            return new ReconstructCursor(in.readString(), in.readVInt(), in.readVLong(), in.readVInt(), in.readVInt(), in.readVInt());
+        } catch (Exception e) {
+            throw new ElasticsearchIllegalArgumentException("malformed cursor [" + cursor + "]", e);
+        }
+    }
+}
@@ -1,20 +1,76 @@
 
 package org.xbib.elasticsearch.action.admin.indices.reconstruct;
 
+import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentReconstructor;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentSelection;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
 
 public class ReconstructIndexRequest extends BroadcastOperationRequest<ReconstructIndexRequest> {
 
+    /**
+     * The default maximum number of matching documents of a query
+     */
+    public static final int DEFAULT_LIMIT = 10;
+
     private String index;
 
+    private TimeValue timeout;
+
+    private int window = DocumentReconstructor.DEFAULT_WINDOW;
+
+    private int shardId = -1;
+
+    private int from = 0;
+
+    private int to = -1;
+
+    private int size = 0;
+
+    private String cursor;
+
+    private TimeValue keepAlive;
+
+    private BytesReference querySource;
+
+    private String[] ids;
+
+    private int limit = DEFAULT_LIMIT;
+
+    private TimeValue timeLimit;
+
+    private int after = -1;
+
+    // the end of the query time budget on the coordinating node, not serialized
+    private long queryDeadline = -1L;
+
+    private ReconstructCopies copies = ReconstructCopies.ALL;
+
+    // the parts of the copies of split shards on the coordinating node, not serialized
+    private final Map<String, int[]> splitParts = new HashMap<String, int[]>();
+
+    private DocumentSelection selection = DocumentSelection.LIVE;
+
+    private boolean export;
+
+    private boolean compress;
+
     ReconstructIndexRequest() {
     }
 
     public ReconstructIndexRequest(String index) {
+        super(new String[]{index});
         this.index = index;
     }
 
@@ -22,15 +78,428 @@ public class ReconstructIndexRequest extends BroadcastOperationRequest<Reconstru
         return index;
     }
 
+    /**
+     * The time budget of each shard reconstruction
+     *
+     * @param timeout the time budget, or null for the node default
+     * @return this request
+     */
+    public ReconstructIndexRequest timeout(TimeValue timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * The number of documents whose terms are collected in one pass over the postings
+     *
+     * @param window the number of documents
+     * @return this request
+     */
+    public ReconstructIndexRequest window(int window) {
+        this.window = window;
+        return this;
+    }
+
+    public int window() {
+        return window;
+    }
+
+    /**
+     * The shard to reconstruct. Paged reconstructions need a shard.
+     *
+     * @param shardId the shard id, or -1 for all shards
+     * @return this request
+     */
+    public ReconstructIndexRequest shardId(int shardId) {
+        this.shardId = shardId;
+        return this;
+    }
+
+    public int shardId() {
+        return shardId;
+    }
+
+    /**
+     * The range of document numbers to reconstruct
+     *
+     * @param from the first document number
+     * @param to the document number after the range, or -1 for all documents
+     * @return this request
+     */
+    public ReconstructIndexRequest range(int from, int to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public int from() {
+        return from;
+    }
+
+    public int to() {
+        return to;
+    }
+
+    /**
+     * The page size. If set, the reconstruction is paged, the searcher of the shard is
+     * pinned, and the response carries a cursor for the next page.
+     *
+     * @param size the number of documents per page, or 0 for no paging
+     * @return this request
+     */
+    public ReconstructIndexRequest size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The cursor of the previous page. The shard and the range are taken from the cursor,
+     * and the page size, unless it is set.
+     *
+     * @param cursor the cursor
+     * @return this request
+     */
+    public ReconstructIndexRequest cursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    public String cursor() {
+        return cursor;
+    }
+
+    /**
+     * How long the pinned searcher is kept until the next page is requested
+     *
+     * @param keepAlive the keep-alive, or null for the node default
+     * @return this request
+     */
+    public ReconstructIndexRequest keepAlive(TimeValue keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public TimeValue keepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Reconstruct only the documents matching a query
+     *
+     * @param querySource the query source, with the query in a "query" field
+     * @return this request
+     */
+    public ReconstructIndexRequest query(BytesReference querySource) {
+        this.querySource = querySource;
+        return this;
+    }
+
+    public BytesReference querySource() {
+        return querySource;
+    }
+
+    /**
+     * Reconstruct only the documents with the given IDs
+     *
+     * @param ids the document IDs
+     * @return this request
+     */
+    public ReconstructIndexRequest ids(String... ids) {
+        this.ids = ids;
+        return this;
+    }
+
+    public String[] ids() {
+        return ids;
+    }
+
+    /**
+     * The maximum number of matching documents per shard. If more documents match,
+     * the query stops and the response is flagged as limited.
+     *
+     * @param limit the maximum number of matching documents
+     * @return this request
+     */
+    public ReconstructIndexRequest limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * The time the query may take. If set, the query is limited by time instead of
+     * by the number of matching documents, and the limit only caps the number of
+     * reconstructed documents. The time budget starts on the coordinating node and
+     * is shared by all shards of the request.
+     *
+     * @param timeLimit the time limit, or null for a count limit
+     * @return this request
+     */
+    public ReconstructIndexRequest timeLimit(TimeValue timeLimit) {
+        this.timeLimit = timeLimit;
+        return this;
+    }
+
+    public TimeValue timeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * The end of the query time budget. The end is fixed when it is first asked for,
+     * on the coordinating node, so all shard requests share the same budget. The shard
+     * requests carry the time remaining when they are sent.
+     *
+     * @return the end in milliseconds since the epoch, or -1 without a time limit
+     */
+    long queryDeadline() {
+        if (timeLimit != null && queryDeadline < 0) {
+            queryDeadline = System.currentTimeMillis() + timeLimit.millis();
+        }
+        return queryDeadline;
+    }
+
+    /**
+     * Resume a limited query after a document. A limited query reports the
+     * document to resume after, so the matching documents can be paged through
+     * without running the query from the start again.
+     *
+     * @param after the shard document number, or -1 to start from the beginning
+     * @return this request
+     */
+    public ReconstructIndexRequest after(int after) {
+        this.after = after;
+        return this;
+    }
+
+    public int after() {
+        return after;
+    }
+
+    /**
+     * Which copies of a shard take part in the reconstruction. This also applies if
+     * a single shard is reconstructed. Paged reconstructions are always served by the primary.
+     *
+     * @param copies the copies
+     * @return this request
+     */
+    public ReconstructIndexRequest copies(ReconstructCopies copies) {
+        this.copies = copies;
+        return this;
+    }
+
+    public ReconstructCopies copies() {
+        return copies;
+    }
+
+    /**
+     * Assign the part of a copy of a split shard
+     *
+     * @param copy the copy
+     * @param part the part of the copy
+     * @param parts the number of parts of the shard
+     */
+    void splitPart(ShardRouting copy, int part, int parts) {
+        splitParts.put(copyKey(copy), new int[]{part, parts});
+    }
+
+    /**
+     * The part of a copy of a split shard
+     *
+     * @param copy the copy
+     * @return the part and the number of parts, or null if the copy has no part
+     */
+    int[] splitPart(ShardRouting copy) {
+        return splitParts.get(copyKey(copy));
+    }
+
+    private static String copyKey(ShardRouting copy) {
+        return copy.index() + "/" + copy.id() + "/" + copy.currentNodeId();
+    }
+
+    /**
+     * Which documents are reconstructed by their deletion state, if they are not
+     * selected by a query or by IDs
+     *
+     * @param selection the live documents (the default), the deleted documents, or all documents
+     * @return this request
+     */
+    public ReconstructIndexRequest select(DocumentSelection selection) {
+        this.selection = selection;
+        return this;
+    }
+
+    public DocumentSelection select() {
+        return selection;
+    }
+
+    /**
+     * Write the reconstructed documents to bulk files on the nodes, one file per shard,
+     * instead of returning them. The response only reports the files.
+     *
+     * @param export true for exporting
+     * @return this request
+     */
+    public ReconstructIndexRequest export(boolean export) {
+        this.export = export;
+        return this;
+    }
+
+    public boolean export() {
+        return export;
+    }
+
+    /**
+     * Compress the exported bulk files with gzip
+     *
+     * @param compress true for compression
+     * @return this request
+     */
+    public ReconstructIndexRequest compress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
+    public boolean compress() {
+        return compress;
+    }
+
+    /**
+     * Whether the reconstructed documents are selected by a query
+     *
+     * @return true if selected by a query or by IDs
+     */
+    public boolean byQuery() {
+        return querySource != null || ids != null;
+    }
+
+    /**
+     * Whether this is a paged reconstruction
+     *
+     * @return true if paged
+     */
+    public boolean paged() {
+        return size > 0 || cursor != null;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (from < 0) {
+            validationException = addValidationError("from must not be negative", validationException);
+        }
+        if (size < 0) {
+            validationException = addValidationError("size must not be negative", validationException);
+        }
+        if (window < 1) {
+            validationException = addValidationError("window must be positive", validationException);
+        }
+        if (querySource != null && ids != null) {
+            validationException = addValidationError("either a query or IDs can be given, not both", validationException);
+        }
+        if (export && paged()) {
+            validationException = addValidationError("export can not be paged", validationException);
+        }
+        if (limit < 1) {
+            validationException = addValidationError("limit must be positive", validationException);
+        }
+        if (after >= 0 && !byQuery()) {
+            validationException = addValidationError("after requires a query or IDs", validationException);
+        }
+        if (size > 0 && cursor == null && shardId < 0) {
+            validationException = addValidationError("paged reconstruct requires a shard", validationException);
+        }
+        return validationException;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
         this.index = in.readString();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
+        window = in.readVInt();
+        shardId = in.readInt();
+        from = in.readVInt();
+        to = in.readInt();
+        size = in.readVInt();
+        cursor = in.readOptionalString();
+        if (in.readBoolean()) {
+            keepAlive = TimeValue.readTimeValue(in);
+        }
+        if (in.readBoolean()) {
+            querySource = in.readBytesReference();
+        }
+        if (in.readBoolean()) {
+            ids = in.readStringArray();
+        }
+        limit = in.readVInt();
+        if (in.readBoolean()) {
+            timeLimit = TimeValue.readTimeValue(in);
+        }
+        after = in.readInt();
+        copies = ReconstructCopies.fromString(in.readString());
+        selection = DocumentSelection.fromString(in.readString());
+        export = in.readBoolean();
+        compress = in.readBoolean();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeString(index);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
+        out.writeVInt(window);
+        out.writeInt(shardId);
+        out.writeVInt(from);
+        out.writeInt(to);
+        out.writeVInt(size);
+        out.writeOptionalString(cursor);
+        if (keepAlive == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            keepAlive.writeTo(out);
+        }
+        if (querySource == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeBytesReference(querySource);
+        }
+        if (ids == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeStringArray(ids);
+        }
+        out.writeVInt(limit);
+        if (timeLimit == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeLimit.writeTo(out);
+        }
+        out.writeInt(after);
+        out.writeString(copies.fieldName());
+        out.writeString(selection.fieldName());
+        out.writeBoolean(export);
+        out.writeBoolean(compress);
     }
 }
@@ -2,8 +2,11 @@
 package org.xbib.elasticsearch.action.admin.indices.reconstruct;
 
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentSelection;
 
 import java.io.IOException;
 
@@ -12,20 +15,239 @@ import java.io.IOException;
  */
 public class ShardReconstructIndexRequest extends BroadcastShardOperationRequest {
 
+    private TimeValue timeout;
+
+    private int window;
+
+    private int from;
+
+    private int to;
+
+    private int size;
+
+    private String cursor;
+
+    private TimeValue keepAlive;
+
+    private BytesReference querySource;
+
+    private String[] ids;
+
+    private int limit;
+
+    private TimeValue timeLimit;
+
+    private int after;
+
+    private long queryDeadline;
+
+    private int part;
+
+    private boolean export;
+
+    private boolean compress;
+
+    private DocumentSelection selection;
+
+    private int parts;
+
     ShardReconstructIndexRequest() {
     }
 
-    public ShardReconstructIndexRequest(String index, int shardId, ReconstructIndexRequest request) {
+    /**
+     * @param index the index
+     * @param shardId the shard id
+     * @param part the part of the shard documents this copy reconstructs
+     * @param parts the number of parts the shard documents are split into, 1 for no split
+     * @param request the reconstruct request
+     */
+    public ShardReconstructIndexRequest(String index, int shardId, int part, int parts, ReconstructIndexRequest request) {
         super(index, shardId, request);
+        this.part = part;
+        this.parts = parts;
+        this.timeout = request.timeout();
+        this.window = request.window();
+        this.from = request.from();
+        this.to = request.to();
+        this.size = request.size();
+        this.cursor = request.cursor();
+        this.keepAlive = request.keepAlive();
+        this.querySource = request.querySource();
+        this.ids = request.ids();
+        this.limit = request.limit();
+        this.timeLimit = request.timeLimit();
+        this.after = request.after();
+        this.queryDeadline = request.queryDeadline();
+        this.export = request.export();
+        this.compress = request.compress();
+        this.selection = request.select();
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    public int window() {
+        return window;
+    }
+
+    public int from() {
+        return from;
+    }
+
+    public int to() {
+        return to;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String cursor() {
+        return cursor;
+    }
+
+    public TimeValue keepAlive() {
+        return keepAlive;
+    }
+
+    public BytesReference querySource() {
+        return querySource;
+    }
+
+    public String[] ids() {
+        return ids;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public TimeValue timeLimit() {
+        return timeLimit;
+    }
+
+    public int after() {
+        return after;
+    }
+
+    /**
+     * The end of the query time budget on the clock of this node. The budget travels
+     * as the remaining time, so the clocks of the nodes need not agree.
+     *
+     * @return the end of the query time budget in milliseconds since the epoch, or -1
+     */
+    public long queryDeadline() {
+        return queryDeadline;
+    }
+
+    public int part() {
+        return part;
+    }
+
+    public int parts() {
+        return parts;
+    }
+
+    public boolean export() {
+        return export;
+    }
+
+    public boolean compress() {
+        return compress;
+    }
+
+    public DocumentSelection select() {
+        return selection;
+    }
+
+    public boolean byQuery() {
+        return querySource != null || ids != null;
+    }
+
+    public boolean paged() {
+        return size > 0 || cursor != null;
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
+        window = in.readVInt();
+        from = in.readVInt();
+        to = in.readInt();
+        size = in.readVInt();
+        cursor = in.readOptionalString();
+        if (in.readBoolean()) {
+            keepAlive = TimeValue.readTimeValue(in);
+        }
+        if (in.readBoolean()) {
+            querySource = in.readBytesReference();
+        }
+        if (in.readBoolean()) {
+            ids = in.readStringArray();
+        }
+        limit = in.readVInt();
+        if (in.readBoolean()) {
+            timeLimit = TimeValue.readTimeValue(in);
+        }
+        after = in.readInt();
+        long remaining = in.readLong();
+        queryDeadline = remaining >= 0 ? System.currentTimeMillis() + remaining : -1L;
+        part = in.readVInt();
+        parts = in.readVInt();
+        export = in.readBoolean();
+        compress = in.readBoolean();
+        selection = DocumentSelection.fromString(in.readString());
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
+        out.writeVInt(window);
+        out.writeVInt(from);
+        out.writeInt(to);
+        out.writeVInt(size);
+        out.writeOptionalString(cursor);
+        if (keepAlive == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            keepAlive.writeTo(out);
+        }
+        if (querySource == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeBytesReference(querySource);
+        }
+        if (ids == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeStringArray(ids);
+        }
+        out.writeVInt(limit);
+        if (timeLimit == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeLimit.writeTo(out);
+        }
+        out.writeInt(after);
+        out.writeLong(queryDeadline >= 0 ? Math.max(0L, queryDeadline - System.currentTimeMillis()) : -1L);
+        out.writeVInt(part);
+        out.writeVInt(parts);
+        out.writeBoolean(export);
+        out.writeBoolean(compress);
+        out.writeString(selection.fieldName());
     }
 }
\ No newline at end of file
@@ -2,57 +2,130 @@
 package org.xbib.elasticsearch.action.admin.indices.reconstruct;
 
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationResponse;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
+/**
+ * The reconstructed shard. The shard is kept in the encoding it was built with,
+ * usually SMILE, and travels as is, so it is decoded only once, when it is
+ * written into the final response.
+ */
 public class ShardReconstructIndexResponse extends BroadcastShardOperationResponse {
 
     private boolean exists;
-    private XContentBuilder builder;
+    private BytesReference bytes;
+    private String cursor;
 
     ShardReconstructIndexResponse() {
     }
 
-    ShardReconstructIndexResponse(boolean exists) {
+    ShardReconstructIndexResponse(String index, int shardId, boolean exists) {
+        super(index, shardId);
         this.exists = exists;
     }
 
-    ShardReconstructIndexResponse(boolean exists, XContentBuilder builder) {
+    ShardReconstructIndexResponse(String index, int shardId, boolean exists, XContentBuilder builder) {
+        super(index, shardId);
         this.exists = exists;
-        this.builder = builder;
+        this.bytes = builder.bytes();
     }
 
-    public XContentBuilder getReconstructedIndex() {
+    ShardReconstructIndexResponse cursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * The reconstructed shard as JSON
+     *
+     * @return the reconstructed shard, or null
+     */
+    public XContentBuilder getReconstructedIndex() throws IOException {
+        if (bytes == null) {
+            return null;
+        }
+        XContentBuilder builder = jsonBuilder();
+        copyReconstructedIndex(builder);
         return builder;
     }
 
+    /**
+     * The reconstructed shard as it was built on the shard, without parsing
+     *
+     * @return the reconstructed shard
+     */
+    public BytesReference getReconstructedBytes() {
+        return bytes;
+    }
+
+    /**
+     * The encoding of the reconstructed shard bytes
+     *
+     * @return the content type, or null
+     */
+    public XContentType getReconstructedContentType() {
+        return bytes != null ? XContentFactory.xContentType(bytes) : null;
+    }
+
+    /**
+     * Copy the reconstructed shard into a builder. The shard bytes are streamed
+     * into the builder in one pass, without an intermediate map.
+     *
+     * @param builder the builder
+     */
+    public void copyReconstructedIndex(XContentBuilder builder) throws IOException {
+        if (bytes == null) {
+            builder.nullValue();
+            return;
+        }
+        XContentParser parser = XContentHelper.createParser(bytes);
+        try {
+            parser.nextToken();
+            builder.copyCurrentStructure(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * The cursor for the next page of a paged reconstruction
+     *
+     * @return the cursor, or null if there are no more pages
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
         exists = in.readBoolean();
         if (in.readBoolean()) {
-            builder = jsonBuilder();
-            XContentParser p = XContentHelper.createParser(in.readBytesReference());
-            builder.copyCurrentStructure(p);
+            bytes = in.readBytesReference();
         }
+        cursor = in.readOptionalString();
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
         out.writeBoolean(exists);
-        if (builder == null) {
+        if (bytes == null) {
             out.writeBoolean(false);
         } else {
             out.writeBoolean(true);
-            out.writeBytesReference(builder.bytes());
+            out.writeBytesReference(bytes);
         }
+        out.writeOptionalString(cursor);
     }
 }
\ No newline at end of file
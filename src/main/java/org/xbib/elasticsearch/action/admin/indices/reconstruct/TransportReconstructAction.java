@@ -1,7 +1,10 @@
 package org.xbib.elasticsearch.action.admin.indices.reconstruct;
 
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.ElasticsearchIllegalStateException;
 import org.elasticsearch.action.ShardOperationFailedException;
 import org.elasticsearch.action.support.DefaultShardOperationFailedException;
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationFailedException;
@@ -12,22 +15,43 @@ import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.block.ClusterBlockLevel;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.PlainShardIterator;
+import org.elasticsearch.cluster.routing.ShardIterator;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.IndexShardMissingException;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.service.IndexService;
+import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.service.InternalIndexShard;
 import org.elasticsearch.indices.IndicesService;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+import org.xbib.elasticsearch.skywalker.SkywalkerService;
+import org.xbib.elasticsearch.skywalker.collectors.CountLimitedHitCollector;
+import org.xbib.elasticsearch.skywalker.collectors.IntervalLimitedCollector;
+import org.xbib.elasticsearch.skywalker.collectors.LimitedHitCollector;
+import org.xbib.elasticsearch.skywalker.collectors.LimitedHitScan;
+import org.xbib.elasticsearch.skywalker.reconstruct.BulkFileExporter;
 import org.xbib.elasticsearch.skywalker.reconstruct.DocumentReconstructor;
+import org.xbib.elasticsearch.skywalker.reconstruct.ReconstructContext;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
+import static org.elasticsearch.common.xcontent.XContentFactory.smileBuilder;
 
 /**
  *  Transport reconstruct index action
@@ -36,16 +60,21 @@ public class TransportReconstructAction extends TransportBroadcastOperationActio
 
     private final IndicesService indicesService;
 
+    private final SkywalkerService skywalkerService;
+
     @Inject
     public TransportReconstructAction(Settings settings, ThreadPool threadPool, ClusterService clusterService,
-                                      TransportService transportService, IndicesService indicesService) {
+                                      TransportService transportService, IndicesService indicesService,
+                                      SkywalkerService skywalkerService) {
         super(settings, ReconstructIndexAction.NAME, threadPool, clusterService, transportService);
         this.indicesService = indicesService;
+        this.skywalkerService = skywalkerService;
     }
 
     @Override
     protected String executor() {
-        return ThreadPool.Names.GET;
+        // the generic thread only waits, the reconstruction runs on the bounded skywalker pool
+        return ThreadPool.Names.GENERIC;
     }
 
     @Override
@@ -84,7 +113,18 @@ public class TransportReconstructAction extends TransportBroadcastOperationActio
 
     @Override
     protected ShardReconstructIndexRequest newShardRequest(int numShards, ShardRouting shardRouting, ReconstructIndexRequest reconstructIndexRequest) {
-        return new ShardReconstructIndexRequest(shardRouting.index(), shardRouting.id(), reconstructIndexRequest);
+        int part = 0;
+        int parts = 1;
+        if (reconstructIndexRequest.copies() == ReconstructCopies.SPLIT && !reconstructIndexRequest.paged()) {
+            // the parts were assigned with the groups, a copy without a part would reconstruct everything
+            int[] split = reconstructIndexRequest.splitPart(shardRouting);
+            if (split == null) {
+                throw new ElasticsearchIllegalStateException("no part assigned to copy " + shardRouting + " of split shard");
+            }
+            part = split[0];
+            parts = split[1];
+        }
+        return new ShardReconstructIndexRequest(shardRouting.index(), shardRouting.id(), part, parts, reconstructIndexRequest);
     }
 
     @Override
@@ -93,22 +133,238 @@ public class TransportReconstructAction extends TransportBroadcastOperationActio
     }
 
     @Override
-    protected ShardReconstructIndexResponse shardOperation(ShardReconstructIndexRequest request) throws ElasticsearchException {
-        IndexService indexService = indicesService.indexService(request.index());
-        InternalIndexShard indexShard = (InternalIndexShard) indexService.shardSafe(request.shardId());
-        Engine.Searcher searcher = indexShard.engine().acquireSearcher("transport_reconstruct");
-        IndexReader reader = searcher.reader();
-        DocumentReconstructor dr = new DocumentReconstructor(reader);
+    protected ShardReconstructIndexResponse shardOperation(final ShardReconstructIndexRequest request) throws ElasticsearchException {
+        final Deadline deadline = skywalkerService.deadline(request.timeout());
+        try {
+            return skywalkerService.execute(new Callable<ShardReconstructIndexResponse>() {
+                @Override
+                public ShardReconstructIndexResponse call() throws Exception {
+                    return reconstruct(request, deadline);
+                }
+            }, deadline);
+        } finally {
+            skywalkerService.release(deadline);
+        }
+    }
+
+    private ShardReconstructIndexResponse reconstruct(ShardReconstructIndexRequest request, Deadline deadline)
+            throws ElasticsearchException {
+        ReconstructContext context = null;
+        Engine.Searcher searcher;
+        IndexService indexService = null;
+        int from = request.from();
+        int to = request.to();
+        int size = request.size();
+        if (request.cursor() != null) {
+            ReconstructCursor cursor = ReconstructCursor.decode(request.cursor());
+            context = skywalkerService.reconstructContext(cursor.contextId());
+            if (context == null) {
+                throw new ElasticsearchIllegalArgumentException("no reconstruct context for cursor, it may have expired");
+            }
+            if (!context.index().equals(request.index()) || context.shardId() != request.shardId()) {
+                // the context is not used by this request
+                skywalkerService.accessed(context, request.keepAlive());
+                throw new ElasticsearchIllegalArgumentException("no reconstruct context for cursor, it may have expired");
+            }
+            searcher = context.searcher();
+            from = cursor.nextDoc();
+            to = cursor.to();
+            if (size == 0) {
+                size = cursor.size();
+            }
+        } else {
+            indexService = indicesService.indexServiceSafe(request.index());
+            InternalIndexShard indexShard = (InternalIndexShard) indexService.shardSafe(request.shardId());
+            searcher = indexShard.engine().acquireSearcher("transport_reconstruct");
+            if (request.paged()) {
+                context = skywalkerService.putReconstructContext(request.index(), request.shardId(), searcher,
+                        request.keepAlive());
+            }
+        }
+        MemoryAccounting accounting = skywalkerService.memoryAccounting();
+        boolean freeContext = true;
+        BulkFileExporter exporter = null;
         try {
-            return new ShardReconstructIndexResponse(true, dr.reconstruct(request.shardId()));
+            IndexReader reader = searcher.reader();
+            if (to < 0 || to > reader.maxDoc()) {
+                to = reader.maxDoc();
+            }
+            DocumentReconstructor dr = new DocumentReconstructor(reader).pool(skywalkerService.forkJoinPool())
+                    .window(request.window())
+                    .range(from, to).size(size)
+                    .select(request.select())
+                    .partition(request.part(), request.parts())
+                    .deadline(deadline).accounting(accounting);
+            // SMILE is compact on the wire and is transcoded once on the coordinating node
+            XContentBuilder builder = smileBuilder();
+            builder.startObject()
+                    .field("shardId", request.shardId());
+            if (request.parts() > 1) {
+                builder.field("part", request.part())
+                        .field("parts", request.parts());
+            }
+            int[] docs = context != null ? context.docs() : null;
+            if (docs == null && request.byQuery()) {
+                docs = selectDocs(indexService, searcher, request, builder);
+                if (context != null) {
+                    context.docs(docs);
+                }
+            }
+            if (docs != null) {
+                dr.docs(docs);
+            }
+            if (request.export()) {
+                String name = request.index() + "-" + request.shardId()
+                        + (request.parts() > 1 ? "-" + request.part() + "of" + request.parts() : "")
+                        + "-" + System.currentTimeMillis() + ".ndjson";
+                accounting.reserve(skywalkerService.exportBufferSize().bytes(), "reconstruct export");
+                exporter = skywalkerService.bulkFileExporter(request.index(), name, request.compress(),
+                        indexService.mapperService());
+                dr.exporter(exporter);
+            }
+            dr.reconstruct(builder);
+            if (exporter != null) {
+                exporter.close();
+                builder.field("export", exporter);
+            }
+            String cursor = null;
+            if (context != null && dr.nextDoc() >= 0) {
+                cursor = new ReconstructCursor(request.index(), request.shardId(), context.id(), dr.nextDoc(), to, size).encode();
+                builder.field("cursor", cursor);
+                skywalkerService.accessed(context, request.keepAlive());
+                freeContext = false;
+            }
+            builder.endObject();
+            return new ShardReconstructIndexResponse(request.index(), request.shardId(), true, builder).cursor(cursor);
         } catch (IOException e) {
             throw new ElasticsearchException("failed to reconstruct index", e);
+        } finally {
+            if (exporter != null) {
+                try {
+                    exporter.close();
+                } catch (IOException e) {
+                    logger.warn("failed to close export file {}", e, exporter.file());
+                }
+            }
+            accounting.close();
+            if (context == null) {
+                searcher.close();
+            } else if (freeContext) {
+                skywalkerService.freeReconstructContext(context.id());
+            }
         }
     }
 
+    /**
+     * Scan the hits of the query of the request into a count or time limited
+     * collector and select the matching documents. The scan stops at the limit
+     * without an exception, and a limited outcome reports the document to resume
+     * after. The query outcome is added to the builder.
+     *
+     * @return the matching global document numbers, ascending
+     */
+    private int[] selectDocs(IndexService indexService, Engine.Searcher searcher,
+                             ShardReconstructIndexRequest request, XContentBuilder builder) throws IOException {
+        Query query;
+        if (request.ids() != null) {
+            query = indexService.queryParserService().parse(QueryBuilders.idsQuery().ids(request.ids())).query();
+        } else {
+            query = indexService.queryParserService().parseQuery(request.querySource()).query();
+        }
+        LimitedHitCollector collector = request.timeLimit() != null ?
+                new IntervalLimitedCollector(Deadline.until(request.queryDeadline()), request.limit(), false, false) :
+                new CountLimitedHitCollector(request.limit(), false, false);
+        LimitedHitScan scan = new LimitedHitScan(searcher.searcher(), query).after(request.after())
+                .scan(collector);
+        int hits = Math.min(collector.getTotalHits(), request.limit());
+        int[] docs = new int[hits];
+        for (int i = 0; i < hits; i++) {
+            docs[i] = collector.getDocId(i);
+        }
+        Arrays.sort(docs);
+        boolean limited = scan.limited() || collector.getTotalHits() > hits;
+        builder.startObject("query")
+                .field("totalHits", collector.getTotalHits())
+                .field("hits", hits)
+                .field("limited", limited)
+                .field("limitType", collector.limitType() == LimitedHitCollector.TYPE_TIME ? "time" : "size");
+        if (limited && hits > 0) {
+            // unscored hits are kept in document order, so the query resumes after the last kept hit
+            builder.field("after", docs[hits - 1]);
+        }
+        builder.endObject();
+        return docs;
+    }
+
     @Override
     protected GroupShardsIterator shards(ClusterState clusterState, ReconstructIndexRequest reconstructIndexRequest, String[] concreteIndices) {
-        return clusterState.routingTable().allActiveShardsGrouped(concreteIndices, true);
+        int shardId = reconstructIndexRequest.shardId();
+        String index = concreteIndices.length == 1 ? concreteIndices[0] : null;
+        if (reconstructIndexRequest.cursor() != null) {
+            ReconstructCursor cursor = ReconstructCursor.decode(reconstructIndexRequest.cursor());
+            shardId = cursor.shardId();
+            index = cursor.index();
+        }
+        if (shardId < 0) {
+            if (reconstructIndexRequest.copies() == ReconstructCopies.ONE) {
+                // one group per shard, with the other copies for failover
+                return clusterService.operationRouting().searchShards(clusterState,
+                        reconstructIndexRequest.indices(), concreteIndices, null, null);
+            }
+            List<IndexShardRoutingTable> shardRoutingTables = newArrayList();
+            for (String concreteIndex : concreteIndices) {
+                IndexRoutingTable indexRoutingTable = clusterState.routingTable().index(concreteIndex);
+                if (indexRoutingTable == null) {
+                    continue;
+                }
+                for (IndexShardRoutingTable shardRoutingTable : indexRoutingTable) {
+                    shardRoutingTables.add(shardRoutingTable);
+                }
+            }
+            return copies(reconstructIndexRequest, shardRoutingTables);
+        }
+        if (index == null) {
+            throw new ElasticsearchIllegalArgumentException("a shard can only be reconstructed in a single index");
+        }
+        IndexRoutingTable indexRoutingTable = clusterState.routingTable().index(index);
+        IndexShardRoutingTable shardRoutingTable = indexRoutingTable != null ? indexRoutingTable.shard(shardId) : null;
+        if (shardRoutingTable == null) {
+            throw new IndexShardMissingException(new ShardId(index, shardId));
+        }
+        if (!reconstructIndexRequest.paged() && reconstructIndexRequest.copies() != ReconstructCopies.ONE) {
+            // every part of a split shard is reconstructed
+            return copies(reconstructIndexRequest, Collections.singletonList(shardRoutingTable));
+        }
+        // the pages of a shard are served by the primary, where the reconstruct context lives
+        List<ShardIterator> shards = newArrayList();
+        shards.add(shardRoutingTable.primaryShardIt());
+        return new GroupShardsIterator(shards);
+    }
+
+    /**
+     * One group per active copy of the shards, and an empty group for a shard without
+     * an active copy. If the shards are split, the part of each copy is its position
+     * among the active copies, taken from the same routing table as the groups.
+     */
+    private GroupShardsIterator copies(ReconstructIndexRequest reconstructIndexRequest,
+                                       List<IndexShardRoutingTable> shardRoutingTables) {
+        boolean split = reconstructIndexRequest.copies() == ReconstructCopies.SPLIT;
+        List<ShardIterator> shards = newArrayList();
+        for (IndexShardRoutingTable shardRoutingTable : shardRoutingTables) {
+            List<ShardRouting> copies = shardRoutingTable.activeShards();
+            if (copies.isEmpty()) {
+                shards.add(new PlainShardIterator(shardRoutingTable.shardId(), Collections.<ShardRouting>emptyList()));
+                continue;
+            }
+            for (int i = 0; i < copies.size(); i++) {
+                ShardRouting copy = copies.get(i);
+                if (split) {
+                    reconstructIndexRequest.splitPart(copy, i, copies.size());
+                }
+                shards.add(new PlainShardIterator(copy.shardId(), Collections.singletonList(copy)));
+            }
+        }
+        return new GroupShardsIterator(shards);
     }
 
     @Override
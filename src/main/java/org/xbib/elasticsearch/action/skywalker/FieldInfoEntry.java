@@ -0,0 +1,195 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Lucene field info of a field and the properties of its mapper
+ */
+public class FieldInfoEntry implements Streamable, ToXContent, Accountable {
+
+    private static final int INDEXED = 1;
+
+    private static final int DOC_VALUES = 2;
+
+    private static final int NORMS = 4;
+
+    private static final int PAYLOADS = 8;
+
+    private static final int VECTORS = 16;
+
+    private String name;
+
+    private int number;
+
+    private int flags;
+
+    private String docValuesType;
+
+    private String normType;
+
+    private String options;
+
+    private Map<String, String> attributes;
+
+    private Map<String, Object> mapper;
+
+    FieldInfoEntry() {
+    }
+
+    /**
+     * @param fi the field info
+     * @param mapper the mapper properties, or null if the field has no mapper
+     */
+    public FieldInfoEntry(FieldInfo fi, Map<String, Object> mapper) {
+        this.name = fi.name;
+        this.number = fi.number;
+        this.flags = (fi.isIndexed() ? INDEXED : 0)
+                | (fi.hasDocValues() ? DOC_VALUES : 0)
+                | (fi.hasNorms() ? NORMS : 0)
+                | (fi.hasPayloads() ? PAYLOADS : 0)
+                | (fi.hasVectors() ? VECTORS : 0);
+        this.docValuesType = fi.getDocValuesType() != null ? fi.getDocValuesType().name() : null;
+        this.normType = fi.getNormType() != null ? fi.getNormType().name() : null;
+        this.options = fi.getIndexOptions() != null ? fi.getIndexOptions().name() : null;
+        this.attributes = fi.attributes();
+        this.mapper = mapper;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int number() {
+        return number;
+    }
+
+    public boolean isIndexed() {
+        return (flags & INDEXED) != 0;
+    }
+
+    public boolean hasDocValues() {
+        return (flags & DOC_VALUES) != 0;
+    }
+
+    public boolean hasNorms() {
+        return (flags & NORMS) != 0;
+    }
+
+    public boolean hasPayloads() {
+        return (flags & PAYLOADS) != 0;
+    }
+
+    public boolean hasVectors() {
+        return (flags & VECTORS) != 0;
+    }
+
+    public String docValuesType() {
+        return docValuesType;
+    }
+
+    public String normType() {
+        return normType;
+    }
+
+    public String options() {
+        return options;
+    }
+
+    public Map<String, String> attributes() {
+        return attributes;
+    }
+
+    public Map<String, Object> mapper() {
+        return mapper;
+    }
+
+    public static FieldInfoEntry readFieldInfoEntry(StreamInput in) throws IOException {
+        FieldInfoEntry entry = new FieldInfoEntry();
+        entry.readFrom(in);
+        return entry;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        name = in.readSharedString();
+        number = in.readVInt();
+        flags = in.readVInt();
+        docValuesType = in.readOptionalSharedString();
+        normType = in.readOptionalSharedString();
+        options = in.readOptionalSharedString();
+        if (in.readBoolean()) {
+            int size = in.readVInt();
+            attributes = new HashMap<String, String>(size);
+            for (int i = 0; i < size; i++) {
+                attributes.put(in.readSharedString(), in.readSharedString());
+            }
+        }
+        if (in.readBoolean()) {
+            mapper = ShardResultStreams.readMap(in);
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeSharedString(name);
+        out.writeVInt(number);
+        out.writeVInt(flags);
+        out.writeOptionalSharedString(docValuesType);
+        out.writeOptionalSharedString(normType);
+        out.writeOptionalSharedString(options);
+        out.writeBoolean(attributes != null);
+        if (attributes != null) {
+            out.writeVInt(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                out.writeSharedString(entry.getKey());
+                out.writeSharedString(entry.getValue());
+            }
+        }
+        out.writeBoolean(mapper != null);
+        if (mapper != null) {
+            ShardResultStreams.writeMap(out, mapper);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("name", name)
+                .field("number", number)
+                .field("isIndexed", isIndexed())
+                .field("hasDocValues", hasDocValues())
+                .field("hasNorms", hasNorms())
+                .field("hasPayloads", hasPayloads())
+                .field("hasVectors", hasVectors());
+        if (docValuesType != null) {
+            builder.field("docValuesType", docValuesType);
+        }
+        if (normType != null) {
+            builder.field("normType", normType);
+        }
+        if (options != null) {
+            builder.field("options", options);
+        }
+        builder.field("attributes", attributes);
+        if (mapper != null) {
+            builder.field("mapper", mapper);
+        }
+        return builder.endObject();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return 64L + MemoryAccounting.estimate(attributes) + MemoryAccounting.estimate(mapper);
+    }
+}
@@ -0,0 +1,81 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.skywalker.stats.FieldTermCount;
+
+import java.io.IOException;
+
+/**
+ * The number of unique terms of a field in a shard
+ */
+public class FieldTermCountEntry implements Streamable, ToXContent, Accountable {
+
+    private String field;
+
+    private long termCount;
+
+    private boolean approximate;
+
+    FieldTermCountEntry() {
+    }
+
+    public FieldTermCountEntry(FieldTermCount fieldTermCount) {
+        this.field = fieldTermCount.getFieldname();
+        this.termCount = fieldTermCount.getTermCount();
+        this.approximate = fieldTermCount.isApproximate();
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public long termCount() {
+        return termCount;
+    }
+
+    public boolean approximate() {
+        return approximate;
+    }
+
+    public static FieldTermCountEntry readFieldTermCountEntry(StreamInput in) throws IOException {
+        FieldTermCountEntry entry = new FieldTermCountEntry();
+        entry.readFrom(in);
+        return entry;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        field = in.readSharedString();
+        termCount = in.readVLong();
+        approximate = in.readBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeSharedString(field);
+        out.writeVLong(termCount);
+        out.writeBoolean(approximate);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("field", field)
+                .field("termCount", termCount);
+        if (approximate) {
+            builder.field("approximate", true);
+        }
+        return builder.endObject();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        // the field name is shared with the field infos
+        return 32L;
+    }
+}
@@ -0,0 +1,109 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+
+import java.io.IOException;
+
+/**
+ * An index file of a shard and the function of the file. Files of the store metadata
+ * also carry their length and checksum.
+ */
+public class IndexFileEntry implements Streamable, ToXContent, Accountable {
+
+    private String name;
+
+    private String function;
+
+    private boolean store;
+
+    private long length;
+
+    private String checksum;
+
+    IndexFileEntry() {
+    }
+
+    public IndexFileEntry(String name, String function) {
+        this.name = name;
+        this.function = function;
+    }
+
+    public IndexFileEntry(String name, String function, long length, String checksum) {
+        this(name, function);
+        this.store = true;
+        this.length = length;
+        this.checksum = checksum;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String function() {
+        return function;
+    }
+
+    /**
+     * @return the file length, or -1 if the file is not from the store metadata
+     */
+    public long length() {
+        return store ? length : -1L;
+    }
+
+    public String checksum() {
+        return checksum;
+    }
+
+    public static IndexFileEntry readIndexFileEntry(StreamInput in) throws IOException {
+        IndexFileEntry entry = new IndexFileEntry();
+        entry.readFrom(in);
+        return entry;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        name = in.readString();
+        // the few file functions repeat for every file
+        function = in.readOptionalSharedString();
+        store = in.readBoolean();
+        if (store) {
+            length = in.readVLong();
+            checksum = in.readOptionalString();
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(name);
+        out.writeOptionalSharedString(function);
+        out.writeBoolean(store);
+        if (store) {
+            out.writeVLong(length);
+            out.writeOptionalString(checksum);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject()
+                .field("name", name);
+        if (store) {
+            builder.field("length", length)
+                    .field("checksum", checksum);
+        }
+        builder.field("function", function)
+                .endObject();
+        return builder;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return 48L + MemoryAccounting.estimate(name) + MemoryAccounting.estimate(checksum);
+    }
+}
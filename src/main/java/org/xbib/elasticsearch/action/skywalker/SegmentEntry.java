@@ -0,0 +1,131 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.engine.Segment;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+
+import java.io.IOException;
+
+/**
+ * A segment of a shard, as listed in the commits of the shard
+ */
+public class SegmentEntry implements Streamable, ToXContent, Accountable {
+
+    private String name;
+
+    private int numDocs;
+
+    private int deletedDocs;
+
+    private long generation;
+
+    private long sizeInBytes;
+
+    private String version;
+
+    private boolean committed;
+
+    private Boolean compound;
+
+    SegmentEntry() {
+    }
+
+    public SegmentEntry(Segment segment) {
+        this.name = segment.getName();
+        this.numDocs = segment.getNumDocs();
+        this.deletedDocs = segment.getDeletedDocs();
+        this.generation = segment.getGeneration();
+        this.sizeInBytes = segment.getSizeInBytes();
+        this.version = segment.getVersion();
+        this.committed = segment.isCommitted();
+        this.compound = segment.isCompound();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int numDocs() {
+        return numDocs;
+    }
+
+    public int deletedDocs() {
+        return deletedDocs;
+    }
+
+    public long generation() {
+        return generation;
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    public boolean committed() {
+        return committed;
+    }
+
+    public Boolean compound() {
+        return compound;
+    }
+
+    public static SegmentEntry readSegmentEntry(StreamInput in) throws IOException {
+        SegmentEntry entry = new SegmentEntry();
+        entry.readFrom(in);
+        return entry;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        name = in.readString();
+        numDocs = in.readVInt();
+        deletedDocs = in.readVInt();
+        generation = in.readVLong();
+        sizeInBytes = in.readVLong();
+        version = in.readOptionalSharedString();
+        committed = in.readBoolean();
+        compound = in.readOptionalBoolean();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(name);
+        out.writeVInt(numDocs);
+        out.writeVInt(deletedDocs);
+        out.writeVLong(generation);
+        out.writeVLong(sizeInBytes);
+        out.writeOptionalSharedString(version);
+        out.writeBoolean(committed);
+        out.writeOptionalBoolean(compound);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        return builder.startObject()
+                .field("segment", name)
+                .field("count", numDocs)
+                .field("deleted", deletedDocs)
+                .field("generation", generation)
+                .field("sizeInBytes", sizeInBytes)
+                .field("version", version)
+                .field("committed", committed)
+                .field("compound", compound)
+                .field("size", new ByteSizeValue(sizeInBytes).toString())
+                .endObject();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return 64L + MemoryAccounting.estimate(name);
+    }
+}
@@ -0,0 +1,201 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The wire format of shard results. Lists of index files, segments, field infos,
+ * field term counts and term stats are written as typed entries with vints, the
+ * remaining values are tagged. Keys and other strings that repeat in a result are
+ * written as shared strings, which the transport writes only once per message.
+ */
+final class ShardResultStreams {
+
+    private static final byte NULL = 0;
+
+    private static final byte MAP = 1;
+
+    private static final byte LIST = 2;
+
+    private static final byte STRING = 3;
+
+    private static final byte BOOLEAN = 4;
+
+    private static final byte INT = 5;
+
+    private static final byte LONG = 6;
+
+    private static final byte ENTRIES = 7;
+
+    private static final byte GENERIC = 8;
+
+    private static final byte INDEX_FILES = 0;
+
+    private static final byte SEGMENTS = 1;
+
+    private static final byte FIELD_INFOS = 2;
+
+    private static final byte FIELD_TERM_COUNTS = 3;
+
+    private static final byte TERM_STATS = 4;
+
+    private ShardResultStreams() {
+    }
+
+    static Map<String, Object> readMap(StreamInput in) throws IOException {
+        int size = in.readVInt();
+        Map<String, Object> map = new HashMap<String, Object>(size);
+        for (int i = 0; i < size; i++) {
+            String key = in.readSharedString();
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    static void writeMap(StreamOutput out, Map<String, ?> map) throws IOException {
+        out.writeVInt(map.size());
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            out.writeSharedString(entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    static Object readValue(StreamInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case MAP:
+                return readMap(in);
+            case LIST: {
+                int size = in.readVInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case STRING:
+                return in.readSharedString();
+            case BOOLEAN:
+                return in.readBoolean();
+            case INT:
+                return in.readVInt();
+            case LONG:
+                return in.readVLong();
+            case ENTRIES:
+                return readEntries(in);
+            case GENERIC:
+                return in.readGenericValue();
+            default:
+                throw new IOException("can't read shard result value of type [" + type + "]");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static void writeValue(StreamOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Map) {
+            out.writeByte(MAP);
+            writeMap(out, (Map<String, ?>) value);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            byte kind = entryKind(list);
+            if (kind >= 0) {
+                out.writeByte(ENTRIES);
+                out.writeByte(kind);
+                out.writeVInt(list.size());
+                for (Object entry : list) {
+                    ((Streamable) entry).writeTo(out);
+                }
+            } else {
+                out.writeByte(LIST);
+                out.writeVInt(list.size());
+                for (Object element : list) {
+                    writeValue(out, element);
+                }
+            }
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeSharedString((String) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeVInt((Integer) value);
+        } else if (value instanceof Long && (Long) value >= 0L) {
+            out.writeByte(LONG);
+            out.writeVLong((Long) value);
+        } else {
+            out.writeByte(GENERIC);
+            out.writeGenericValue(value);
+        }
+    }
+
+    private static List<Object> readEntries(StreamInput in) throws IOException {
+        byte kind = in.readByte();
+        int size = in.readVInt();
+        List<Object> list = new ArrayList<Object>(size);
+        for (int i = 0; i < size; i++) {
+            switch (kind) {
+                case INDEX_FILES:
+                    list.add(IndexFileEntry.readIndexFileEntry(in));
+                    break;
+                case SEGMENTS:
+                    list.add(SegmentEntry.readSegmentEntry(in));
+                    break;
+                case FIELD_INFOS:
+                    list.add(FieldInfoEntry.readFieldInfoEntry(in));
+                    break;
+                case FIELD_TERM_COUNTS:
+                    list.add(FieldTermCountEntry.readFieldTermCountEntry(in));
+                    break;
+                case TERM_STATS:
+                    list.add(TermStatsEntry.readTermStatsEntry(in));
+                    break;
+                default:
+                    throw new IOException("can't read shard result entries of kind [" + kind + "]");
+            }
+        }
+        return list;
+    }
+
+    /**
+     * The kind of the entries of a list, or -1 if the list is empty or not a list of entries of one kind
+     */
+    private static byte entryKind(List<?> list) {
+        if (list.isEmpty() || list.get(0) == null) {
+            return -1;
+        }
+        Class<?> c = list.get(0).getClass();
+        byte kind;
+        if (c == IndexFileEntry.class) {
+            kind = INDEX_FILES;
+        } else if (c == SegmentEntry.class) {
+            kind = SEGMENTS;
+        } else if (c == FieldInfoEntry.class) {
+            kind = FIELD_INFOS;
+        } else if (c == FieldTermCountEntry.class) {
+            kind = FIELD_TERM_COUNTS;
+        } else if (c == TermStatsEntry.class) {
+            kind = TERM_STATS;
+        } else {
+            return -1;
+        }
+        for (Object element : list) {
+            if (element == null || element.getClass() != c) {
+                return -1;
+            }
+        }
+        return kind;
+    }
+}
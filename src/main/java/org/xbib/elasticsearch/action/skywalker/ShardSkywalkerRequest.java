@@ -2,30 +2,145 @@
 package org.xbib.elasticsearch.action.skywalker;
 
 import org.elasticsearch.action.support.broadcast.BroadcastShardOperationRequest;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 /**
  * Shard Skywalker request
  */
 public class ShardSkywalkerRequest extends BroadcastShardOperationRequest {
 
+    private boolean approximateTermCounts;
+
+    private int topTerms;
+
+    private int fieldTopTerms;
+
+    private String ranking;
+
+    private EnumSet<SkywalkerRequest.Section> sections;
+
+    private String[] includeFields;
+
+    private String[] excludeFields;
+
+    private boolean cache;
+
+    private boolean incremental;
+
+    private TimeValue timeout;
+
     ShardSkywalkerRequest() {
     }
 
     public ShardSkywalkerRequest(String index, int shardId, SkywalkerRequest request) {
         super(index, shardId, request);
+        this.approximateTermCounts = request.approximateTermCounts();
+        this.topTerms = request.topTermsShardSize();
+        this.fieldTopTerms = request.fieldTopTermsShardSize();
+        this.ranking = request.ranking();
+        this.sections = request.sections();
+        // as after serialization, so that local and remote requests have the same cache options
+        this.includeFields = request.includeFields() != null ? request.includeFields() : Strings.EMPTY_ARRAY;
+        this.excludeFields = request.excludeFields() != null ? request.excludeFields() : Strings.EMPTY_ARRAY;
+        this.cache = request.cache();
+        this.incremental = request.incremental();
+        this.timeout = request.timeout();
+    }
+
+    public boolean approximateTermCounts() {
+        return approximateTermCounts;
+    }
+
+    public int topTerms() {
+        return topTerms;
+    }
+
+    public int fieldTopTerms() {
+        return fieldTopTerms;
+    }
+
+    public String ranking() {
+        return ranking;
+    }
+
+    public boolean hasSection(SkywalkerRequest.Section section) {
+        return sections.contains(section);
+    }
+
+    public String[] includeFields() {
+        return includeFields;
+    }
+
+    public String[] excludeFields() {
+        return excludeFields;
+    }
+
+    public boolean cache() {
+        return cache;
+    }
+
+    public boolean incremental() {
+        return incremental;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * The options that determine the reader statistics of a shard, as a key for the result cache.
+     * Only the cached reader sections are part of the key.
+     *
+     * @return the options
+     */
+    public Object cacheOptions() {
+        EnumSet<SkywalkerRequest.Section> cached = EnumSet.copyOf(SkywalkerRequest.READER_SECTIONS);
+        cached.retainAll(sections);
+        return Arrays.asList(approximateTermCounts, incremental, topTerms, fieldTopTerms, ranking, cached,
+                Arrays.asList(includeFields), Arrays.asList(excludeFields));
     }
 
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        approximateTermCounts = in.readBoolean();
+        topTerms = in.readVInt();
+        fieldTopTerms = in.readVInt();
+        ranking = in.readString();
+        sections = SkywalkerRequest.readSections(in);
+        includeFields = in.readStringArray();
+        excludeFields = in.readStringArray();
+        cache = in.readBoolean();
+        incremental = in.readBoolean();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeBoolean(approximateTermCounts);
+        out.writeVInt(topTerms);
+        out.writeVInt(fieldTopTerms);
+        out.writeString(ranking);
+        SkywalkerRequest.writeSections(out, sections);
+        out.writeStringArray(includeFields);
+        out.writeStringArray(excludeFields);
+        out.writeBoolean(cache);
+        out.writeBoolean(incremental);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
     }
 }
\ No newline at end of file
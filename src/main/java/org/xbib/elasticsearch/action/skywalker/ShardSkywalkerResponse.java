@@ -8,6 +8,10 @@ import org.elasticsearch.common.io.stream.StreamOutput;
 import java.io.IOException;
 import java.util.Map;
 
+/**
+ * The result of a shard. Lists of files, segments, field infos, term counts and
+ * term stats are held as typed entries, see {@link ShardResultStreams}.
+ */
 public class ShardSkywalkerResponse extends BroadcastShardOperationResponse {
 
     private Map<String, Object> response;
@@ -31,12 +35,12 @@ public class ShardSkywalkerResponse extends BroadcastShardOperationResponse {
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
-        response = in.readMap();
+        response = ShardResultStreams.readMap(in);
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
-        out.writeMap(response);
+        ShardResultStreams.writeMap(out, response);
     }
 }
\ No newline at end of file
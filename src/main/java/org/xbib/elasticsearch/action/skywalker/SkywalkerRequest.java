@@ -1,14 +1,84 @@
 
 package org.xbib.elasticsearch.action.skywalker;
 
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.action.ActionRequestValidationException;
 import org.elasticsearch.action.support.broadcast.BroadcastOperationRequest;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsReducer;
 
 import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Locale;
+
+import static org.elasticsearch.action.ValidateActions.addValidationError;
 
 public class SkywalkerRequest extends BroadcastOperationRequest<SkywalkerRequest> {
 
+    /**
+     * The sections of a Skywalker response. Each section is a phase of the shard operation.
+     */
+    public enum Section {
+        FILES, STORE, SEGMENTS, FIELDINFOS, TERMCOUNTS, TOPTERMS;
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        public static Section parse(String section) {
+            try {
+                return valueOf(section.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ElasticsearchIllegalArgumentException("unknown section [" + section + "]");
+            }
+        }
+
+        public static EnumSet<Section> parse(String[] sections) {
+            if (sections == null || sections.length == 0) {
+                return EnumSet.allOf(Section.class);
+            }
+            EnumSet<Section> set = EnumSet.noneOf(Section.class);
+            for (String section : sections) {
+                set.add(parse(section));
+            }
+            return set;
+        }
+    }
+
+    /**
+     * The sections that only depend on the reader and can be cached
+     */
+    static final EnumSet<Section> READER_SECTIONS = EnumSet.of(Section.FIELDINFOS, Section.TERMCOUNTS, Section.TOPTERMS);
+
+    private EnumSet<Section> sections = EnumSet.allOf(Section.class);
+
+    private String[] includeFields;
+
+    private String[] excludeFields;
+
+    private boolean approximateTermCounts;
+
+    private int topTerms = 50;
+
+    private int shardSize;
+
+    private boolean includeShardTopTerms;
+
+    private int fieldTopTerms;
+
+    private String ranking = TermStatsMetric.DOC_FREQ.fieldName();
+
+    private boolean cache = true;
+
+    private boolean incremental;
+
+    private TimeValue timeout;
+
     SkywalkerRequest() {
     }
 
@@ -16,13 +86,289 @@ public class SkywalkerRequest extends BroadcastOperationRequest<SkywalkerRequest
         super(indices);
     }
 
+    /**
+     * The sections to compute. By default, all sections are computed.
+     *
+     * @param sections the sections, empty for all sections
+     * @return this request
+     */
+    public SkywalkerRequest sections(Section... sections) {
+        if (sections == null || sections.length == 0) {
+            this.sections = EnumSet.allOf(Section.class);
+        } else {
+            this.sections = EnumSet.noneOf(Section.class);
+            for (Section section : sections) {
+                this.sections.add(section);
+            }
+        }
+        return this;
+    }
+
+    public EnumSet<Section> sections() {
+        return sections;
+    }
+
+    /**
+     * The field name patterns of the fields to include in field infos, term counts, and top terms,
+     * for example "content.*". By default, all fields are included.
+     *
+     * @param includeFields the field name patterns
+     * @return this request
+     */
+    public SkywalkerRequest includeFields(String... includeFields) {
+        this.includeFields = includeFields;
+        return this;
+    }
+
+    public String[] includeFields() {
+        return includeFields;
+    }
+
+    /**
+     * The field name patterns of the fields to exclude from field infos, term counts, and top terms.
+     *
+     * @param excludeFields the field name patterns
+     * @return this request
+     */
+    public SkywalkerRequest excludeFields(String... excludeFields) {
+        this.excludeFields = excludeFields;
+        return this;
+    }
+
+    public String[] excludeFields() {
+        return excludeFields;
+    }
+
+    /**
+     * Use the node-level cache of shard results. Cached results are reused as long as
+     * the reader of the shard has not changed.
+     *
+     * @param cache true for using the cache
+     * @return this request
+     */
+    public SkywalkerRequest cache(boolean cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public boolean cache() {
+        return cache;
+    }
+
+    /**
+     * Combine the shard top terms from cached top term candidates of the segments, so only
+     * segments created since the last call are scanned. The top terms of a shard are then
+     * approximate and carry an error upper bound.
+     *
+     * @param incremental true for combining top terms from segments
+     * @return this request
+     */
+    public SkywalkerRequest incremental(boolean incremental) {
+        this.incremental = incremental;
+        return this;
+    }
+
+    public boolean incremental() {
+        return incremental;
+    }
+
+    /**
+     * The time budget of each shard analysis. When the time budget is used up, the shard
+     * returns the phases completed so far and is flagged as timed out.
+     *
+     * @param timeout the time budget, or null for the node default
+     * @return this request
+     */
+    public SkywalkerRequest timeout(TimeValue timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public TimeValue timeout() {
+        return timeout;
+    }
+
+    /**
+     * Sum up term counts of fields spanning several segments instead of counting unique terms exactly.
+     * The sums are upper bounds and are flagged as approximate in the response.
+     *
+     * @param approximateTermCounts true for approximate term counts
+     * @return this request
+     */
+    public SkywalkerRequest approximateTermCounts(boolean approximateTermCounts) {
+        this.approximateTermCounts = approximateTermCounts;
+        return this;
+    }
+
+    public boolean approximateTermCounts() {
+        return approximateTermCounts;
+    }
+
+    /**
+     * The number of top terms over all fields, reduced over all shards.
+     *
+     * @param topTerms the number of top terms
+     * @return this request
+     */
+    public SkywalkerRequest topTerms(int topTerms) {
+        this.topTerms = topTerms;
+        return this;
+    }
+
+    public int topTerms() {
+        return topTerms;
+    }
+
+    /**
+     * The number of top terms each shard returns for the reduction. More terms per shard
+     * give more accurate results. The default depends on the number of top terms.
+     *
+     * @param shardSize the number of top terms per shard, or 0 for the default
+     * @return this request
+     */
+    public SkywalkerRequest shardSize(int shardSize) {
+        this.shardSize = shardSize;
+        return this;
+    }
+
+    public int shardSize() {
+        return shardSize;
+    }
+
+    /**
+     * Include the unreduced top terms of each shard in the shard results.
+     *
+     * @param includeShardTopTerms true for including shard top terms
+     * @return this request
+     */
+    public SkywalkerRequest includeShardTopTerms(boolean includeShardTopTerms) {
+        this.includeShardTopTerms = includeShardTopTerms;
+        return this;
+    }
+
+    public boolean includeShardTopTerms() {
+        return includeShardTopTerms;
+    }
+
+    public int topTermsShardSize() {
+        return shardSize > 0 ? Math.max(topTerms, shardSize) : TermStatsReducer.shardSize(topTerms);
+    }
+
+    public int fieldTopTermsShardSize() {
+        if (fieldTopTerms == 0) {
+            return 0;
+        }
+        return shardSize > 0 ? Math.max(fieldTopTerms, shardSize) : TermStatsReducer.shardSize(fieldTopTerms);
+    }
+
+    /**
+     * The number of top terms per field, collected in the same pass as the overall top terms.
+     * 0 means no top terms per field.
+     *
+     * @param fieldTopTerms the number of top terms per field
+     * @return this request
+     */
+    public SkywalkerRequest fieldTopTerms(int fieldTopTerms) {
+        this.fieldTopTerms = fieldTopTerms;
+        return this;
+    }
+
+    public int fieldTopTerms() {
+        return fieldTopTerms;
+    }
+
+    /**
+     * The ranking of the top terms per field, "docFreq", "totalTermFreq", or "both".
+     *
+     * @param ranking the ranking
+     * @return this request
+     */
+    public SkywalkerRequest ranking(String ranking) {
+        this.ranking = ranking;
+        return this;
+    }
+
+    public String ranking() {
+        return ranking;
+    }
+
+    @Override
+    public ActionRequestValidationException validate() {
+        ActionRequestValidationException validationException = super.validate();
+        if (topTerms < 0) {
+            validationException = addValidationError("topTerms must not be negative", validationException);
+        }
+        if (shardSize < 0) {
+            validationException = addValidationError("shardSize must not be negative", validationException);
+        }
+        if (fieldTopTerms < 0) {
+            validationException = addValidationError("fieldTopTerms must not be negative", validationException);
+        }
+        if (sections == null || sections.isEmpty()) {
+            validationException = addValidationError("no section selected", validationException);
+        }
+        try {
+            TermStatsMetric.parseRanking(ranking);
+        } catch (ElasticsearchIllegalArgumentException e) {
+            validationException = addValidationError(e.getMessage(), validationException);
+        }
+        return validationException;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
+        approximateTermCounts = in.readBoolean();
+        topTerms = in.readVInt();
+        shardSize = in.readVInt();
+        includeShardTopTerms = in.readBoolean();
+        fieldTopTerms = in.readVInt();
+        ranking = in.readString();
+        sections = readSections(in);
+        includeFields = in.readStringArray();
+        excludeFields = in.readStringArray();
+        cache = in.readBoolean();
+        incremental = in.readBoolean();
+        if (in.readBoolean()) {
+            timeout = TimeValue.readTimeValue(in);
+        }
     }
 
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
+        out.writeBoolean(approximateTermCounts);
+        out.writeVInt(topTerms);
+        out.writeVInt(shardSize);
+        out.writeBoolean(includeShardTopTerms);
+        out.writeVInt(fieldTopTerms);
+        out.writeString(ranking);
+        writeSections(out, sections);
+        out.writeStringArray(includeFields != null ? includeFields : Strings.EMPTY_ARRAY);
+        out.writeStringArray(excludeFields != null ? excludeFields : Strings.EMPTY_ARRAY);
+        out.writeBoolean(cache);
+        out.writeBoolean(incremental);
+        if (timeout == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            timeout.writeTo(out);
+        }
+    }
+
+    static EnumSet<Section> readSections(StreamInput in) throws IOException {
+        EnumSet<Section> sections = EnumSet.noneOf(Section.class);
+        int size = in.readVInt();
+        for (int i = 0; i < size; i++) {
+            sections.add(Section.values()[in.readVInt()]);
+        }
+        return sections;
+    }
+
+    static void writeSections(StreamOutput out, EnumSet<Section> sections) throws IOException {
+        out.writeVInt(sections.size());
+        for (Section section : sections) {
+            out.writeVInt(section.ordinal());
+        }
     }
 }
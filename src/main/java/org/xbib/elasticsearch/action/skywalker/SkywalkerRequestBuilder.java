@@ -5,6 +5,7 @@ import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRequestBuilder;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.ClusterAdminClient;
+import org.elasticsearch.common.unit.TimeValue;
 
 /**
  * A request to skywalk one or more indices.
@@ -20,6 +21,66 @@ public class SkywalkerRequestBuilder extends ActionRequestBuilder<SkywalkerReque
         super(client, new SkywalkerRequest());
     }
 
+    public SkywalkerRequestBuilder setApproximateTermCounts(boolean approximateTermCounts) {
+        request.approximateTermCounts(approximateTermCounts);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setTopTerms(int topTerms) {
+        request.topTerms(topTerms);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setShardSize(int shardSize) {
+        request.shardSize(shardSize);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setIncludeShardTopTerms(boolean includeShardTopTerms) {
+        request.includeShardTopTerms(includeShardTopTerms);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setFieldTopTerms(int fieldTopTerms) {
+        request.fieldTopTerms(fieldTopTerms);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setSections(SkywalkerRequest.Section... sections) {
+        request.sections(sections);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setIncludeFields(String... includeFields) {
+        request.includeFields(includeFields);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setExcludeFields(String... excludeFields) {
+        request.excludeFields(excludeFields);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setCache(boolean cache) {
+        request.cache(cache);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setIncremental(boolean incremental) {
+        request.incremental(incremental);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setTimeout(TimeValue timeout) {
+        request.timeout(timeout);
+        return this;
+    }
+
+    public SkywalkerRequestBuilder setRanking(String ranking) {
+        request.ranking(ranking);
+        return this;
+    }
+
     /**
      * Execute Skywalker action.
      *
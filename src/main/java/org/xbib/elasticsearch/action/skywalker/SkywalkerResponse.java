@@ -18,6 +18,10 @@ public class SkywalkerResponse extends BroadcastOperationResponse {
 
     private Map<String, Map<String, Map<String, Object>>> response;
 
+    private Map<String, Object> topTerms;
+
+    private boolean timedOut;
+
     SkywalkerResponse() {
     }
 
@@ -30,10 +34,44 @@ public class SkywalkerResponse extends BroadcastOperationResponse {
         return this;
     }
 
+    /**
+     * The shard results by index and shard id. The lists of index files, segments, field infos,
+     * term counts and term stats of a shard result hold typed entries that render as objects.
+     *
+     * @return the shard results
+     */
     public Map<String, Map<String, Map<String, Object>>> getResponse() {
         return response;
     }
 
+    public SkywalkerResponse setTopTerms(Map<String, Object> topTerms) {
+        this.topTerms = topTerms;
+        return this;
+    }
+
+    /**
+     * The top terms reduced over all shards, per index and for the whole cluster
+     *
+     * @return the reduced top terms
+     */
+    public Map<String, Object> getTopTerms() {
+        return topTerms;
+    }
+
+    public SkywalkerResponse setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+        return this;
+    }
+
+    /**
+     * True if at least one shard ran out of its time budget and returned partial results
+     *
+     * @return true if timed out
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
     @Override
     public void readFrom(StreamInput in) throws IOException {
         super.readFrom(in);
@@ -45,11 +83,15 @@ public class SkywalkerResponse extends BroadcastOperationResponse {
             int shardCount = in.readInt();
             for (int j = 0; j < shardCount; j++) {
                 String shard = in.readString();
-                Map<String, Object> fields = in.readMap();
+                Map<String, Object> fields = ShardResultStreams.readMap(in);
                 shards.put(shard, fields);
             }
             response.put(index, shards);
         }
+        if (in.readBoolean()) {
+            topTerms = in.readMap();
+        }
+        timedOut = in.readBoolean();
     }
 
     @Override
@@ -63,8 +105,15 @@ public class SkywalkerResponse extends BroadcastOperationResponse {
             out.writeInt(shardCount);
             for (String shard : response.get(index).keySet()) {
                 out.writeString(shard);
-                out.writeMap(response.get(index).get(shard));
+                ShardResultStreams.writeMap(out, response.get(index).get(shard));
             }
         }
+        if (topTerms == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeMap(topTerms);
+        }
+        out.writeBoolean(timedOut);
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+import org.xbib.elasticsearch.skywalker.stats.ReducedTermStats;
+import org.xbib.elasticsearch.skywalker.stats.TermStats;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+
+import java.io.IOException;
+
+/**
+ * The stats of a top term of a shard. Terms of the per-field top term lists have
+ * no field, and terms that were reduced over segments carry the error upper bound
+ * of the ranking metric.
+ */
+public class TermStatsEntry implements Streamable, ToXContent, Accountable {
+
+    private String field;
+
+    private String text;
+
+    private long docFreq;
+
+    private long totalTermFreq;
+
+    private TermStatsMetric errorMetric;
+
+    private long errorUpperBound;
+
+    TermStatsEntry() {
+    }
+
+    public TermStatsEntry(String field, TermStats termStats) {
+        this.field = field;
+        this.text = termStats.text();
+        this.docFreq = termStats.docFreq();
+        this.totalTermFreq = termStats.totalTermFreq();
+    }
+
+    public TermStatsEntry(String field, ReducedTermStats termStats, TermStatsMetric errorMetric) {
+        this.field = field;
+        this.text = termStats.text();
+        this.docFreq = termStats.docFreq();
+        this.totalTermFreq = termStats.totalTermFreq();
+        this.errorMetric = errorMetric;
+        this.errorUpperBound = termStats.errorUpperBound();
+    }
+
+    /**
+     * @return the field, or null if the term is from a per-field list
+     */
+    public String field() {
+        return field;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public long docFreq() {
+        return docFreq;
+    }
+
+    public long totalTermFreq() {
+        return totalTermFreq;
+    }
+
+    /**
+     * @return the metric of the error upper bound, or null if the term stats are exact
+     */
+    public TermStatsMetric errorMetric() {
+        return errorMetric;
+    }
+
+    public long errorUpperBound() {
+        return errorUpperBound;
+    }
+
+    public static TermStatsEntry readTermStatsEntry(StreamInput in) throws IOException {
+        TermStatsEntry entry = new TermStatsEntry();
+        entry.readFrom(in);
+        return entry;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        field = in.readOptionalSharedString();
+        text = in.readString();
+        docFreq = in.readVLong();
+        totalTermFreq = in.readVLong();
+        int metric = in.readByte();
+        if (metric >= 0) {
+            errorMetric = TermStatsMetric.values()[metric];
+            errorUpperBound = in.readVLong();
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeOptionalSharedString(field);
+        out.writeString(text);
+        out.writeVLong(docFreq);
+        out.writeVLong(totalTermFreq);
+        if (errorMetric == null) {
+            out.writeByte((byte) -1);
+        } else {
+            out.writeByte((byte) errorMetric.ordinal());
+            out.writeVLong(errorUpperBound);
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+        if (field != null) {
+            builder.field("field", field);
+        }
+        builder.field("text", text)
+                .field("docFreq", docFreq)
+                .field("totalTermFreq", totalTermFreq);
+        if (errorMetric != null) {
+            builder.field(errorMetric.fieldName() + "ErrorUpperBound", errorUpperBound);
+        }
+        return builder.endObject();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        // the field name is shared with the field infos
+        return 56L + MemoryAccounting.estimate(text);
+    }
+}
@@ -0,0 +1,161 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.xbib.elasticsearch.skywalker.stats.ReducedTermStats;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsReducer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the top terms and the per-field top terms of shard responses
+ * into top terms per index and for the whole cluster.
+ */
+public class TopTermsReduction {
+
+    private final SkywalkerRequest request;
+
+    private final TermStatsMetric[] metrics;
+
+    private final Scope cluster;
+
+    private final Map<String, Scope> indices;
+
+    public TopTermsReduction(SkywalkerRequest request) {
+        this.request = request;
+        this.metrics = TermStatsMetric.parseRanking(request.ranking());
+        this.cluster = new Scope();
+        this.indices = new HashMap<String, Scope>();
+    }
+
+    /**
+     * Add a shard response
+     *
+     * @param index the index name of the shard
+     * @param shardResponse the shard response
+     */
+    public void add(String index, Map<String, Object> shardResponse) {
+        Scope scope = indices.get(index);
+        if (scope == null) {
+            scope = new Scope();
+            indices.put(index, scope);
+        }
+        scope.add(shardResponse);
+        cluster.add(shardResponse);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("cluster", cluster.toMap());
+        Map<String, Object> indexMap = new HashMap<String, Object>();
+        for (Map.Entry<String, Scope> entry : indices.entrySet()) {
+            indexMap.put(entry.getKey(), entry.getValue().toMap());
+        }
+        m.put("indices", indexMap);
+        return m;
+    }
+
+    private static List<ReducedTermStats> toTermStats(String field, List<TermStatsEntry> list) {
+        List<ReducedTermStats> terms = new ArrayList<ReducedTermStats>(list.size());
+        for (TermStatsEntry entry : list) {
+            terms.add(new ReducedTermStats(field != null ? field : entry.field(),
+                    entry.text(), entry.docFreq(), entry.totalTermFreq(), entry.errorUpperBound()));
+        }
+        return terms;
+    }
+
+    /**
+     * The error upper bound of a shard list that was reduced from segment candidates, 0 for exact lists
+     */
+    private static long errorUpperBound(Object bound) {
+        return bound != null ? ((Number) bound).longValue() : 0L;
+    }
+
+    private static Map<String, Object> reducerToMap(TermStatsReducer reducer, boolean withField) {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put(reducer.metric().fieldName() + "ErrorUpperBound", reducer.errorUpperBound());
+        List<Map<String, Object>> terms = new ArrayList<Map<String, Object>>();
+        for (ReducedTermStats ts : reducer.reduce()) {
+            Map<String, Object> t = new LinkedHashMap<String, Object>();
+            if (withField) {
+                t.put("field", ts.field());
+            }
+            t.put("text", ts.text());
+            t.put("docFreq", ts.docFreq());
+            t.put("totalTermFreq", ts.totalTermFreq());
+            t.put(reducer.metric().fieldName() + "ErrorUpperBound", ts.errorUpperBound());
+            terms.add(t);
+        }
+        m.put("terms", terms);
+        return m;
+    }
+
+    /**
+     * The reducers of an index or of the cluster
+     */
+    private class Scope {
+
+        private final TermStatsReducer topTerms = new TermStatsReducer(request.topTerms(), TermStatsMetric.DOC_FREQ);
+
+        private final Map<String, TermStatsReducer[]> fieldTopTerms = new HashMap<String, TermStatsReducer[]>();
+
+        private int shards;
+
+        @SuppressWarnings("unchecked")
+        void add(Map<String, Object> shardResponse) {
+            shards++;
+            List<TermStatsEntry> list = (List<TermStatsEntry>) shardResponse.get("topterms");
+            if (list != null) {
+                topTerms.addShard(toTermStats(null, list), request.topTermsShardSize(),
+                        errorUpperBound(shardResponse.get("toptermsErrorUpperBound")));
+            }
+            Map<String, Map<String, List<TermStatsEntry>>> fields =
+                    (Map<String, Map<String, List<TermStatsEntry>>>) shardResponse.get("fieldTopTerms");
+            if (fields == null) {
+                return;
+            }
+            Map<String, Map<String, Object>> fieldErrorUpperBounds =
+                    (Map<String, Map<String, Object>>) shardResponse.get("fieldTopTermsErrorUpperBound");
+            for (Map.Entry<String, Map<String, List<TermStatsEntry>>> entry : fields.entrySet()) {
+                TermStatsReducer[] reducers = fieldTopTerms.get(entry.getKey());
+                if (reducers == null) {
+                    reducers = new TermStatsReducer[metrics.length];
+                    for (int i = 0; i < metrics.length; i++) {
+                        reducers[i] = new TermStatsReducer(request.fieldTopTerms(), metrics[i]);
+                    }
+                    fieldTopTerms.put(entry.getKey(), reducers);
+                }
+                Map<String, Object> errorUpperBounds = fieldErrorUpperBounds != null ?
+                        fieldErrorUpperBounds.get(entry.getKey()) : null;
+                for (TermStatsReducer reducer : reducers) {
+                    List<TermStatsEntry> fieldList = entry.getValue().get(reducer.metric().fieldName());
+                    if (fieldList != null) {
+                        reducer.addShard(toTermStats(entry.getKey(), fieldList), request.fieldTopTermsShardSize(),
+                                errorUpperBound(errorUpperBounds != null ?
+                                        errorUpperBounds.get(reducer.metric().fieldName()) : null));
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = reducerToMap(topTerms, true);
+            m.put("shards", shards);
+            if (!fieldTopTerms.isEmpty()) {
+                Map<String, Object> fields = new HashMap<String, Object>();
+                for (Map.Entry<String, TermStatsReducer[]> entry : fieldTopTerms.entrySet()) {
+                    Map<String, Object> rankings = new LinkedHashMap<String, Object>();
+                    for (TermStatsReducer reducer : entry.getValue()) {
+                        rankings.put(reducer.metric().fieldName(), reducerToMap(reducer, false));
+                    }
+                    fields.put(entry.getKey(), rankings);
+                }
+                m.put("fields", fields);
+            }
+            return m;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.xbib.elasticsearch.action.skywalker;
 
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.store.Directory;
@@ -15,6 +16,7 @@ import org.elasticsearch.cluster.block.ClusterBlockException;
 import org.elasticsearch.cluster.block.ClusterBlockLevel;
 import org.elasticsearch.cluster.routing.GroupShardsIterator;
 import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.env.NodeEnvironment;
@@ -23,15 +25,32 @@ import org.elasticsearch.index.engine.Segment;
 import org.elasticsearch.index.mapper.MapperService;
 import org.elasticsearch.index.service.IndexService;
 import org.elasticsearch.index.shard.service.InternalIndexShard;
+import org.elasticsearch.index.store.Store;
+import org.elasticsearch.index.store.StoreFileMetaData;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
+import org.xbib.elasticsearch.action.skywalker.SkywalkerRequest.Section;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.DeadlineExceededException;
+import org.xbib.elasticsearch.skywalker.FieldFilter;
 import org.xbib.elasticsearch.skywalker.FormatDetails;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+import org.xbib.elasticsearch.skywalker.ShardResultCache;
 import org.xbib.elasticsearch.skywalker.Skywalker;
+import org.xbib.elasticsearch.skywalker.SkywalkerService;
 import org.xbib.elasticsearch.skywalker.stats.FieldTermCount;
+import org.xbib.elasticsearch.skywalker.stats.ReducedTermStats;
+import org.xbib.elasticsearch.skywalker.stats.SegmentStatsCache;
+import org.xbib.elasticsearch.skywalker.stats.SegmentTopTerms;
 import org.xbib.elasticsearch.skywalker.stats.TermStats;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsReducer;
+import org.xbib.elasticsearch.skywalker.stats.TopTermsCollector;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static org.elasticsearch.common.collect.Lists.newArrayList;
@@ -46,22 +65,25 @@ public class TransportSkywalkerAction
 
     private final NodeEnvironment nodeEnv;
 
-    private final Object mutex = new Object();
+    private final SkywalkerService skywalkerService;
 
     @Inject
     public TransportSkywalkerAction(Settings settings, ThreadPool threadPool,
                                     ClusterService clusterService,
                                     TransportService transportService,
                                     IndicesService indicesService,
-                                    NodeEnvironment nodeEnv) {
+                                    NodeEnvironment nodeEnv,
+                                    SkywalkerService skywalkerService) {
         super(settings, SkywalkerAction.NAME, threadPool, clusterService, transportService);
         this.indicesService = indicesService;
         this.nodeEnv = nodeEnv;
+        this.skywalkerService = skywalkerService;
     }
 
     @Override
     protected String executor() {
-        return ThreadPool.Names.MERGE;
+        // the generic thread only waits, the analysis runs on the bounded skywalker pool
+        return ThreadPool.Names.GENERIC;
     }
 
     @Override
@@ -75,6 +97,8 @@ public class TransportSkywalkerAction
         int failedShards = 0;
         List<ShardOperationFailedException> shardFailures = null;
         Map<String, Map<String, Map<String, Object>>> response = new HashMap();
+        TopTermsReduction topTermsReduction = new TopTermsReduction(request);
+        boolean timedOut = false;
         for (int i = 0; i < shardsResponses.length(); i++) {
             Object shardResponse = shardsResponses.get(i);
             if (shardResponse == null) {
@@ -99,12 +123,25 @@ public class TransportSkywalkerAction
                     // merge index-wide fieldInfo into single field
                     //indexresponse.put("fieldInfos", shardResp.getResponse().get("fieldInfos"));
                     //shardResp.getResponse().remove("fieldInfos");
-                    indexresponse.put(Integer.toString(shardId), shardResp.getResponse());
+                    Map<String, Object> shardResult = shardResp.getResponse();
+                    if (Boolean.TRUE.equals(shardResult.get("timedOut"))) {
+                        timedOut = true;
+                    }
+                    topTermsReduction.add(index, shardResult);
+                    if (!request.includeShardTopTerms()) {
+                        shardResult.remove("topterms");
+                        shardResult.remove("fieldTopTerms");
+                        shardResult.remove("fieldTopTermsErrorUpperBound");
+                    }
+                    indexresponse.put(Integer.toString(shardId), shardResult);
                     response.put(index, indexresponse);
                 }
             }
         }
-        return new SkywalkerResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures).setResponse(response);
+        return new SkywalkerResponse(shardsResponses.length(), successfulShards, failedShards, shardFailures)
+                .setResponse(response)
+                .setTopTerms(request.sections().contains(Section.TOPTERMS) ? topTermsReduction.toMap() : null)
+                .setTimedOut(timedOut);
     }
 
     @Override
@@ -123,86 +160,243 @@ public class TransportSkywalkerAction
     }
 
     @Override
-    protected ShardSkywalkerResponse shardOperation(ShardSkywalkerRequest request) throws ElasticsearchException {
-        synchronized (mutex) {
-            IndexService indexService = indicesService.indexServiceSafe(request.index());
-            InternalIndexShard indexShard = (InternalIndexShard) indexService.shardSafe(request.shardId());
-            MapperService mapperService = indexService.mapperService();
-            Engine.Searcher searcher = indexShard.acquireSearcher("skywalker_action");
+    protected ShardSkywalkerResponse shardOperation(final ShardSkywalkerRequest request) throws ElasticsearchException {
+        final Deadline deadline = skywalkerService.deadline(request.timeout());
+        try {
+            return skywalkerService.execute(new Callable<ShardSkywalkerResponse>() {
+                @Override
+                public ShardSkywalkerResponse call() throws Exception {
+                    return analyze(request, deadline);
+                }
+            }, deadline);
+        } finally {
+            skywalkerService.release(deadline);
+        }
+    }
+
+    private ShardSkywalkerResponse analyze(ShardSkywalkerRequest request, Deadline deadline) throws ElasticsearchException {
+        IndexService indexService = indicesService.indexServiceSafe(request.index());
+        InternalIndexShard indexShard = (InternalIndexShard) indexService.shardSafe(request.shardId());
+        MapperService mapperService = indexService.mapperService();
+        Engine.Searcher searcher = indexShard.acquireSearcher("skywalker_action");
+        MemoryAccounting accounting = skywalkerService.memoryAccounting();
+        try {
+            IndexReader reader = searcher.reader();
+
+            Skywalker skywalker = new Skywalker(reader).setDeadline(deadline).setAccounting(accounting);
+
+            Map<String, Object> response = new HashMap();
+
+            response.put("indexVersion", skywalker.getVersion());
+            response.put("directoryImpl", skywalker.getDirImpl());
+            response.put("numDocs", reader.numDocs());
+            response.put("maxDoc", reader.maxDoc());
+            response.put("hasDeletions", reader.hasDeletions());
+            response.put("numDeletedDocs", reader.numDeletedDocs());
+
+            Map indexFormatInfo = new HashMap();
+            FormatDetails details = skywalker.getFormatDetails();
+            indexFormatInfo.put("version", details.getVersion());
+            indexFormatInfo.put("genericName", details.getGenericName());
+            indexFormatInfo.put("capabilities", details.getCapabilities());
+            response.put("indexFormat", indexFormatInfo);
+
+            // readers without a commit version can not tell when a cached result is stale
+            ShardResultCache cache = request.cache() && reader instanceof DirectoryReader ?
+                    skywalkerService.resultCache() : null;
+            List<String> completedPhases = new ArrayList<String>();
             try {
-                IndexReader reader = searcher.reader();
+                if (request.hasSection(Section.FILES)) {
+                    deadline.check();
+                    Directory directory = indexShard.store().directory();
+                    List<IndexFileEntry> indexFiles = new ArrayList<IndexFileEntry>();
+                    for (String f : skywalker.getIndexFiles(directory)) {
+                        indexFiles.add(new IndexFileEntry(f, skywalker.getFileFunction(f)));
+                    }
+                    accounting.reserve(MemoryAccounting.estimate(indexFiles), Section.FILES.key());
+                    response.put("indexFiles", indexFiles);
+                    completedPhases.add(Section.FILES.key());
+                }
 
-                Skywalker skywalker = new Skywalker(reader);
+                if (request.hasSection(Section.STORE)) {
+                    deadline.check();
+                    Store.MetadataSnapshot metadata = indexShard.store().getMetadata();
+                    List<IndexFileEntry> storeFiles = new ArrayList<IndexFileEntry>();
+                    for (String name : metadata.asMap().keySet()) {
+                        StoreFileMetaData metaData = metadata.get(name);
+                        storeFiles.add(new IndexFileEntry(name, skywalker.getFileFunction(name),
+                                metaData.length(), metaData.checksum()));
+                    }
+                    response.put("store", storeFiles);
+                    completedPhases.add(Section.STORE.key());
+                }
 
-                Map<String, Object> response = new HashMap();
+                if (request.hasSection(Section.SEGMENTS)) {
+                    deadline.check();
+                    List<SegmentEntry> commits = new ArrayList<SegmentEntry>();
+                    for (Segment segment : indexShard.engine().segments()) {
+                        commits.add(new SegmentEntry(segment));
+                    }
+                    accounting.reserve(MemoryAccounting.estimate(commits), Section.SEGMENTS.key());
+                    response.put("commits", commits);
+                    completedPhases.add(Section.SEGMENTS.key());
+                }
 
-                Directory directory = indexShard.store().directory();
-                List indexFiles = new ArrayList();
-                for (String f : skywalker.getIndexFiles(directory)) {
-                    Map indexFile = new HashMap();
-                    indexFile.put("name", f);
-                    indexFile.put("function", skywalker.getFileFunction(f));
-                    indexFiles.add(indexFile);
+                Map<String, Object> stats = null;
+                if (cache != null) {
+                    stats = cache.get(indexService.indexUUID(), request.shardId(), request.cacheOptions(), skywalker.getVersion());
+                    response.put("cached", stats != null);
                 }
-                response.put("indexFiles", indexFiles);
-
-                skywalker.getStoreMetadata(response, indexShard.store().getMetadata());
-
-                response.put("indexVersion", skywalker.getVersion());
-                response.put("directoryImpl", skywalker.getDirImpl());
-                response.put("numDocs", reader.numDocs());
-                response.put("maxDoc", reader.maxDoc());
-                response.put("hasDeletions", reader.hasDeletions());
-                response.put("numDeletedDocs", reader.numDeletedDocs());
-
-                Set<FieldTermCount> ftc = skywalker.getFieldTermCounts();
-                response.put("numTerms", skywalker.getNumTerms());
-
-                Map indexFormatInfo = new HashMap();
-                FormatDetails details = skywalker.getFormatDetails();
-                indexFormatInfo.put("version", details.getVersion());
-                indexFormatInfo.put("genericName", details.getGenericName());
-                indexFormatInfo.put("capabilities", details.getCapabilities());
-                response.put("indexFormat", indexFormatInfo);
-
-                List commits = new ArrayList();
-                Iterator<Segment> it = indexShard.engine().segments().iterator();
-                while (it.hasNext()) {
-                    Segment segment = it.next();
-                    Map m = new HashMap();
-                    m.put("segment", segment.getName());
-                    m.put("count", segment.getNumDocs());
-                    m.put("deleted", segment.getDeletedDocs());
-                    m.put("generation", segment.getGeneration());
-                    m.put("sizeInBytes", segment.getSizeInBytes());
-                    m.put("version", segment.getVersion());
-                    m.put("committed", segment.committed);
-                    m.put("compound", segment.compound);
-                    m.put("size", segment.getSize().toString());
-                    commits.add(m);
+                if (stats != null) {
+                    accounting.reserve(MemoryAccounting.estimate(stats), "cached stats");
+                    response.putAll(stats);
+                    for (Section section : SkywalkerRequest.READER_SECTIONS) {
+                        if (request.hasSection(section)) {
+                            completedPhases.add(section.key());
+                        }
+                    }
+                } else {
+                    stats = new HashMap();
+                    try {
+                        readerStats(request, skywalker, reader, mapperService, deadline, accounting, stats, completedPhases);
+                    } finally {
+                        response.putAll(stats);
+                    }
+                    // only complete results are cached
+                    if (cache != null) {
+                        cache.put(indexService.indexUUID(), request.shardId(), request.cacheOptions(), skywalker.getVersion(), stats);
+                    }
                 }
-                response.put("commits", commits);
+            } catch (DeadlineExceededException e) {
+                logger.debug("[{}][{}] partial result: {}", request.index(), request.shardId(), e.getMessage());
+                response.put("timedOut", true);
+            }
+            response.put("completedPhases", completedPhases);
+            response.put("tookInMillis", deadline.elapsed().millis());
+            response.put("peakEstimatedBytes", accounting.peak());
 
-                List fieldInfos = new ArrayList();
-                for (FieldInfo fi : MultiFields.getMergedFieldInfos(reader)) {
-                    fieldInfos.add(skywalker.getFieldInfo(mapperService, fi));
+            if (cache != null) {
+                response.put("cacheStats", cache.stats());
+            }
+            if (request.cache() && skywalkerService.segmentStatsCache() != null) {
+                response.put("segmentCacheStats", skywalkerService.segmentStatsCache().stats());
+            }
+
+            return new ShardSkywalkerResponse(request.index(), request.shardId()).setResponse(response);
+        } catch (CircuitBreakingException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ElasticsearchException(ex.getMessage(), ex);
+        } finally {
+            accounting.close();
+            searcher.close();
+        }
+    }
+
+    /**
+     * The statistics that only depend on the reader and the request, and can be cached
+     * as long as the reader does not change. If the deadline expires, the statistics of
+     * the completed phases are kept.
+     */
+    private void readerStats(ShardSkywalkerRequest request, Skywalker skywalker, IndexReader reader,
+                             MapperService mapperService, Deadline deadline, MemoryAccounting accounting,
+                             Map<String, Object> stats, List<String> completedPhases) throws IOException {
+        FieldFilter fieldFilter = new FieldFilter(request.includeFields(), request.excludeFields());
+
+        SegmentStatsCache segmentStatsCache = request.cache() ? skywalkerService.segmentStatsCache() : null;
+
+        if (request.hasSection(Section.FIELDINFOS)) {
+            List<FieldInfoEntry> fieldInfos = new ArrayList<FieldInfoEntry>();
+            deadline.check();
+            for (FieldInfo fi : MultiFields.getMergedFieldInfos(reader)) {
+                if (fieldFilter.accept(fi.name)) {
+                    fieldInfos.add(new FieldInfoEntry(fi, skywalker.getFieldMapperInfo(mapperService, fi.name)));
                 }
-                response.put("fieldInfos", fieldInfos);
-
-                List termList = new ArrayList();
-                for (TermStats ts : skywalker.getTopTerms(50)) {
-                    Map m = new HashMap();
-                    m.put("field", ts.field());
-                    m.put("text", ts.text());
-                    m.put("docFreq", ts.docFreq());
-                    termList.add(m);
+            }
+            accounting.reserve(MemoryAccounting.estimate(fieldInfos), Section.FIELDINFOS.key());
+            stats.put("fieldInfos", fieldInfos);
+            completedPhases.add(Section.FIELDINFOS.key());
+        }
+
+        if (request.hasSection(Section.TERMCOUNTS)) {
+            Set<FieldTermCount> ftc = skywalker.getFieldTermCounts(skywalkerService.forkJoinPool(),
+                    !request.approximateTermCounts(), fieldFilter, segmentStatsCache);
+            stats.put("numTerms", skywalker.getNumTerms());
+            List<FieldTermCountEntry> fieldTermCounts = new ArrayList<FieldTermCountEntry>();
+            for (FieldTermCount fieldTermCount : ftc) {
+                fieldTermCounts.add(new FieldTermCountEntry(fieldTermCount));
+            }
+            accounting.reserve(MemoryAccounting.estimate(fieldTermCounts), Section.TERMCOUNTS.key());
+            stats.put("fieldTermCounts", fieldTermCounts);
+            completedPhases.add(Section.TERMCOUNTS.key());
+        }
+
+        if (request.hasSection(Section.TOPTERMS) && request.incremental()) {
+            SegmentTopTerms topTerms = skywalker.getSegmentTopTerms(skywalkerService.forkJoinPool(), segmentStatsCache,
+                    request.topTerms(), request.fieldTopTerms(), TermStatsMetric.parseRanking(request.ranking()),
+                    fieldFilter);
+            stats.put("topterms", reducedTermList(topTerms.topTerms(), true));
+            stats.put("toptermsErrorUpperBound", topTerms.topTerms().errorUpperBound());
+            if (request.fieldTopTerms() > 0) {
+                Map fieldTopTerms = new HashMap();
+                Map fieldErrorUpperBounds = new HashMap();
+                for (Map.Entry<String, TermStatsReducer[]> entry : topTerms.fieldTopTerms().entrySet()) {
+                    Map<String, Object> rankings = new HashMap<String, Object>();
+                    Map<String, Object> errorUpperBounds = new HashMap<String, Object>();
+                    for (TermStatsReducer reducer : entry.getValue()) {
+                        rankings.put(reducer.metric().fieldName(), reducedTermList(reducer, false));
+                        errorUpperBounds.put(reducer.metric().fieldName(), reducer.errorUpperBound());
+                    }
+                    fieldTopTerms.put(entry.getKey(), rankings);
+                    fieldErrorUpperBounds.put(entry.getKey(), errorUpperBounds);
+                }
+                stats.put("fieldTopTerms", fieldTopTerms);
+                // the per-field lists are reduced from segment candidates, the coordinating node adds these bounds
+                stats.put("fieldTopTermsErrorUpperBound", fieldErrorUpperBounds);
+            }
+            accounting.reserve(MemoryAccounting.estimate(stats.get("topterms"))
+                    + MemoryAccounting.estimate(stats.get("fieldTopTerms")), Section.TOPTERMS.key());
+            Map segmentTopTerms = new HashMap();
+            segmentTopTerms.put("segments", topTerms.segments());
+            segmentTopTerms.put("scanned", topTerms.scannedSegments());
+            stats.put("segmentTopTerms", segmentTopTerms);
+            completedPhases.add(Section.TOPTERMS.key());
+        } else if (request.hasSection(Section.TOPTERMS)) {
+            TopTermsCollector topTerms = skywalker.getTopTerms(request.topTerms(), request.fieldTopTerms(),
+                    TermStatsMetric.parseRanking(request.ranking()), fieldFilter);
+            List<TermStatsEntry> termList = new ArrayList<TermStatsEntry>();
+            for (TermStats ts : topTerms.topTerms()) {
+                termList.add(new TermStatsEntry(ts.field(), ts));
+            }
+            stats.put("topterms", termList);
+            if (request.fieldTopTerms() > 0) {
+                Map fieldTopTerms = new HashMap();
+                for (Map.Entry<String, Map<TermStatsMetric, TermStats[]>> entry : topTerms.fieldTopTerms().entrySet()) {
+                    Map<String, Object> rankings = new HashMap<String, Object>();
+                    for (Map.Entry<TermStatsMetric, TermStats[]> ranking : entry.getValue().entrySet()) {
+                        List<TermStatsEntry> fieldTermList = new ArrayList<TermStatsEntry>();
+                        for (TermStats ts : ranking.getValue()) {
+                            fieldTermList.add(new TermStatsEntry(null, ts));
+                        }
+                        rankings.put(ranking.getKey().fieldName(), fieldTermList);
+                    }
+                    fieldTopTerms.put(entry.getKey(), rankings);
                 }
-                response.put("topterms", termList);
-                return new ShardSkywalkerResponse(request.index(), request.shardId()).setResponse(response);
-            } catch (Exception ex) {
-                throw new ElasticsearchException(ex.getMessage(), ex);
+                stats.put("fieldTopTerms", fieldTopTerms);
             }
+            accounting.reserve(MemoryAccounting.estimate(termList)
+                    + MemoryAccounting.estimate(stats.get("fieldTopTerms")), Section.TOPTERMS.key());
+            stats.put("toptermsAllocatedBytes", skywalker.getTopTermsAllocatedBytes());
+            completedPhases.add(Section.TOPTERMS.key());
+        }
+    }
+
+    private static List<TermStatsEntry> reducedTermList(TermStatsReducer reducer, boolean withField) {
+        List<TermStatsEntry> termList = new ArrayList<TermStatsEntry>();
+        for (ReducedTermStats ts : reducer.reduce()) {
+            termList.add(new TermStatsEntry(withField ? ts.field() : null, ts, reducer.metric()));
         }
+        return termList;
     }
 
     @Override
@@ -0,0 +1,15 @@
+package org.xbib.elasticsearch.plugin.skywalker;
+
+import org.elasticsearch.common.inject.AbstractModule;
+import org.xbib.elasticsearch.skywalker.SkywalkerService;
+
+/**
+ *  Skywalker module
+ */
+public class SkywalkerModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(SkywalkerService.class).asEagerSingleton();
+    }
+}
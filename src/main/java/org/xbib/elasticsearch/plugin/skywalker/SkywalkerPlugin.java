@@ -2,17 +2,27 @@
 package org.xbib.elasticsearch.plugin.skywalker;
 
 import org.elasticsearch.action.ActionModule;
+import org.elasticsearch.common.component.LifecycleComponent;
+import org.elasticsearch.common.inject.Module;
 import org.elasticsearch.plugins.AbstractPlugin;
 import org.elasticsearch.rest.RestModule;
 import org.xbib.elasticsearch.action.admin.cluster.state.ConsistencyCheckAction;
 import org.xbib.elasticsearch.action.admin.cluster.state.TransportConsistencyCheckAction;
+import org.xbib.elasticsearch.action.admin.indices.browse.BrowseIndexAction;
+import org.xbib.elasticsearch.action.admin.indices.browse.TransportBrowseAction;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.ReconstructIndexAction;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.TransportReconstructAction;
 import org.xbib.elasticsearch.action.skywalker.SkywalkerAction;
 import org.xbib.elasticsearch.action.skywalker.TransportSkywalkerAction;
+import org.xbib.elasticsearch.rest.action.skywalker.RestBrowseIndexAction;
 import org.xbib.elasticsearch.rest.action.skywalker.RestConsistencyCheckAction;
 import org.xbib.elasticsearch.rest.action.skywalker.RestReconstructIndexAction;
 import org.xbib.elasticsearch.rest.action.skywalker.RestSkywalkerAction;
+import org.xbib.elasticsearch.skywalker.SkywalkerService;
+
+import java.util.Collection;
+
+import static org.elasticsearch.common.collect.Lists.newArrayList;
 
 /**
  *  Skywalker plugin
@@ -29,16 +39,32 @@ public class SkywalkerPlugin extends AbstractPlugin {
         return "Skywalker - Luke for Elasticsearch";
     }
 
+    @Override
+    public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = newArrayList();
+        modules.add(SkywalkerModule.class);
+        return modules;
+    }
+
+    @Override
+    public Collection<Class<? extends LifecycleComponent>> services() {
+        Collection<Class<? extends LifecycleComponent>> services = newArrayList();
+        services.add(SkywalkerService.class);
+        return services;
+    }
+
     public void onModule(RestModule module) {
         module.addRestAction(RestSkywalkerAction.class);
         module.addRestAction(RestConsistencyCheckAction.class);
         module.addRestAction(RestReconstructIndexAction.class);
+        module.addRestAction(RestBrowseIndexAction.class);
     }
 
     public void onModule(ActionModule module) {
         module.registerAction(SkywalkerAction.INSTANCE, TransportSkywalkerAction.class);
         module.registerAction(ConsistencyCheckAction.INSTANCE, TransportConsistencyCheckAction.class);
         module.registerAction(ReconstructIndexAction.INSTANCE, TransportReconstructAction.class);
+        module.registerAction(BrowseIndexAction.INSTANCE, TransportBrowseAction.class);
     }
 
 }
@@ -0,0 +1,65 @@
+
+package org.xbib.elasticsearch.rest.action.skywalker;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.rest.action.support.RestActions;
+import org.elasticsearch.rest.action.support.RestResponseListener;
+import org.xbib.elasticsearch.action.admin.indices.browse.BrowseIndexAction;
+import org.xbib.elasticsearch.action.admin.indices.browse.BrowseIndexRequest;
+import org.xbib.elasticsearch.action.admin.indices.browse.BrowseIndexResponse;
+import org.xbib.elasticsearch.action.admin.indices.browse.ShardBrowseIndexResponse;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ *  REST action for browsing the hits of a Lucene query string per shard
+ */
+public class RestBrowseIndexAction extends BaseRestHandler {
+
+    @Inject
+    public RestBrowseIndexAction(Settings settings, Client client, RestController controller) {
+        super(settings, client);
+        controller.registerHandler(GET, "/{index}/_skywalker/browse", this);
+        controller.registerHandler(POST, "/{index}/_skywalker/browse", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
+        BrowseIndexRequest r = new BrowseIndexRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        if (request.hasParam("q")) {
+            r.query(request.param("q"));
+        } else if (request.hasContent()) {
+            r.query(request.content().toUtf8());
+        }
+        r.defaultField(request.param("df", r.defaultField()));
+        r.size(request.paramAsInt("size", r.size()));
+        r.limit(request.paramAsInt("limit", r.limit()));
+        r.score(request.paramAsBoolean("score", r.score()));
+        r.timeout(request.paramAsTime("timeout", r.timeout()));
+        client.admin().indices().execute(BrowseIndexAction.INSTANCE, r, new RestResponseListener<BrowseIndexResponse>(channel) {
+            @Override
+            public RestResponse buildResponse(BrowseIndexResponse response) throws Exception {
+                XContentBuilder builder = jsonBuilder();
+                builder.startObject()
+                        .field("ok", true);
+                RestActions.buildBroadcastShardsHeader(builder, response);
+                builder.startArray("shards");
+                for (ShardBrowseIndexResponse r : response.shards()) {
+                    r.toXContent(builder, ToXContent.EMPTY_PARAMS);
+                }
+                builder.endArray();
+                builder.endObject();
+                return new BytesRestResponse(OK, builder);
+            }
+        });
+    }
+}
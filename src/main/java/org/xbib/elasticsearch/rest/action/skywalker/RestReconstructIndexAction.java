@@ -2,20 +2,24 @@
 package org.xbib.elasticsearch.rest.action.skywalker;
 
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentBuilder;
-import org.elasticsearch.common.xcontent.XContentHelper;
-import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.rest.*;
+import org.elasticsearch.rest.action.support.RestActions;
 import org.elasticsearch.rest.action.support.RestResponseListener;
+import org.xbib.elasticsearch.action.admin.indices.reconstruct.ReconstructCopies;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.ReconstructIndexAction;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.ReconstructIndexRequest;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.ReconstructIndexResponse;
 import org.xbib.elasticsearch.action.admin.indices.reconstruct.ShardReconstructIndexResponse;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentSelection;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestRequest.Method.POST;
 import static org.elasticsearch.rest.RestStatus.OK;
 
 /**
@@ -27,26 +31,69 @@ public class RestReconstructIndexAction extends BaseRestHandler {
     public RestReconstructIndexAction(Settings settings, Client client, RestController controller) {
         super(settings, client);
         controller.registerHandler(GET, "/{index}/_skywalker/reconstruct", this);
+        controller.registerHandler(GET, "/{index}/_skywalker/reconstruct/_query", this);
+        controller.registerHandler(POST, "/{index}/_skywalker/reconstruct/_query", this);
     }
 
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
         ReconstructIndexRequest r = new ReconstructIndexRequest(request.param("index"));
+        r.timeout(request.paramAsTime("timeout", r.timeout()));
+        r.window(request.paramAsInt("window", r.window()));
+        r.shardId(request.paramAsInt("shard", r.shardId()));
+        r.range(request.paramAsInt("from", r.from()), request.paramAsInt("to", r.to()));
+        r.size(request.paramAsInt("size", r.size()));
+        r.cursor(request.param("cursor"));
+        r.keepAlive(request.paramAsTime("keep_alive", r.keepAlive()));
+        if (request.hasContent()) {
+            r.query(request.content());
+        } else if (request.hasParam("source")) {
+            r.query(new BytesArray(request.param("source")));
+        }
+        String ids = request.param("ids");
+        if (ids != null) {
+            r.ids(Strings.splitStringByCommaToArray(ids));
+        }
+        r.limit(request.paramAsInt("limit", r.limit()));
+        r.timeLimit(request.paramAsTime("time_limit", r.timeLimit()));
+        r.after(request.paramAsInt("after", r.after()));
+        r.export(request.paramAsBoolean("export", r.export()));
+        r.compress(request.paramAsBoolean("compress", r.compress()));
+        String copies = request.param("copies");
+        if (copies != null) {
+            r.copies(ReconstructCopies.fromString(copies));
+        }
+        String select = request.param("select");
+        if (select != null) {
+            r.select(DocumentSelection.fromString(select));
+        }
         client.admin().indices().execute(ReconstructIndexAction.INSTANCE, r, new RestResponseListener<ReconstructIndexResponse>(channel) {
             @Override
             public RestResponse buildResponse(ReconstructIndexResponse response) throws Exception {
                 XContentBuilder builder = jsonBuilder();
+                // a failed shard, like an expired cursor, is not a complete reconstruction
                 builder.startObject()
-                        .field("ok", true)
-                        .field("index", request.param("index"))
-                        .startArray("shards");
+                        .field("ok", response.getFailedShards() == 0)
+                        .field("index", request.param("index"));
+                RestActions.buildBroadcastShardsHeader(builder, response);
+                builder.startArray("shards");
+                String cursor = null;
                 for (ShardReconstructIndexResponse r : response.shards()) {
-                    XContentParser p = XContentHelper.createParser(r.getReconstructedIndex().bytes());
-                    builder.copyCurrentStructure(p);
+                    r.copyReconstructedIndex(builder);
+                    if (r.getCursor() != null) {
+                        cursor = r.getCursor();
+                    }
                 }
                 builder.endArray();
+                if (cursor != null) {
+                    builder.field("cursor", cursor);
+                }
                 builder.endObject();
-                return new BytesRestResponse(OK, builder);
+                RestStatus status = OK;
+                if (response.getSuccessfulShards() == 0 && response.getFailedShards() > 0) {
+                    status = response.getShardFailures()[0].status();
+                }
+                return new BytesRestResponse(status, builder);
             }
         });
     }
@@ -35,14 +35,33 @@ public class RestSkywalkerAction extends BaseRestHandler {
     @Override
     public void handleRequest(final RestRequest request, final RestChannel channel, final Client client) {
         SkywalkerRequest r = new SkywalkerRequest(Strings.splitStringByCommaToArray(request.param("index")));
+        r.approximateTermCounts(request.paramAsBoolean("approximate_term_counts", r.approximateTermCounts()));
+        r.topTerms(request.paramAsInt("top_terms", r.topTerms()));
+        r.shardSize(request.paramAsInt("shard_size", r.shardSize()));
+        r.includeShardTopTerms(request.paramAsBoolean("include_shard_top_terms", r.includeShardTopTerms()));
+        r.fieldTopTerms(request.paramAsInt("field_top_terms", r.fieldTopTerms()));
+        r.ranking(request.param("ranking", r.ranking()));
+        if (request.hasParam("sections")) {
+            r.sections(SkywalkerRequest.Section.parse(Strings.splitStringByCommaToArray(request.param("sections")))
+                    .toArray(new SkywalkerRequest.Section[0]));
+        }
+        r.includeFields(request.paramAsStringArray("fields", r.includeFields()));
+        r.excludeFields(request.paramAsStringArray("exclude_fields", r.excludeFields()));
+        r.cache(request.paramAsBoolean("cache", r.cache()));
+        r.incremental(request.paramAsBoolean("incremental", r.incremental()));
+        r.timeout(request.paramAsTime("timeout", r.timeout()));
         client.admin().cluster().execute(SkywalkerAction.INSTANCE, r, new RestResponseListener<SkywalkerResponse>(channel) {
             @Override
             public RestResponse buildResponse(SkywalkerResponse response) throws Exception {
                 XContentBuilder builder = jsonBuilder();
                 builder.startObject();
                 builder.field("ok", true);
+                builder.field("timed_out", response.isTimedOut());
                 buildBroadcastShardsHeader(builder, response);
                 builder.field("result", response.getResponse());
+                if (response.getTopTerms() != null) {
+                    builder.field("topterms", response.getTopTerms());
+                }
                 builder.endObject();
                 return new BytesRestResponse(OK, builder);
             }
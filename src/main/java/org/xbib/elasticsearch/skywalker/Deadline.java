@@ -0,0 +1,111 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * The time budget of an analysis. Long running loops check the deadline every
+ * {@link #CHECK_INTERVAL} iterations, so the clock is not read for every term.
+ *
+ * A deadline expires when the time budget is used up, when it is cancelled, or
+ * when the checking thread is interrupted.
+ */
+public class Deadline {
+
+    /**
+     * The number of loop iterations between two checks, a power of two
+     */
+    public static final int CHECK_INTERVAL = 1024;
+
+    /**
+     * A deadline that never expires
+     */
+    public static final Deadline NONE = new Deadline(null) {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final long startNanos;
+
+    private final long timeoutNanos;
+
+    private volatile boolean cancelled;
+
+    /**
+     * @param timeout the time budget, or null for no time budget
+     */
+    public Deadline(TimeValue timeout) {
+        this.startNanos = System.nanoTime();
+        this.timeoutNanos = timeout != null && timeout.nanos() >= 0 ? timeout.nanos() : -1L;
+    }
+
+    /**
+     * A deadline that ends at a point in wall clock time, so one time budget set on
+     * the coordinating node is shared by all shards of a request. The end must be on
+     * the clock of this node. Shard requests carry the remaining time and rebuild
+     * the end when they are received, so the clocks of the nodes need not agree.
+     *
+     * @param endMillis the end of the time budget, in milliseconds since the epoch on this node
+     * @return the deadline
+     */
+    public static Deadline until(long endMillis) {
+        return new Deadline(TimeValue.timeValueMillis(Math.max(0L, endMillis - System.currentTimeMillis())));
+    }
+
+    /**
+     * @return the time budget, or null for no time budget
+     */
+    public TimeValue timeout() {
+        return timeoutNanos >= 0 ? TimeValue.timeValueNanos(timeoutNanos) : null;
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return cancelled
+                || Thread.currentThread().isInterrupted()
+                || (timeoutNanos >= 0 && System.nanoTime() - startNanos > timeoutNanos);
+    }
+
+    /**
+     * Check the deadline if the iteration count is a multiple of the check interval
+     *
+     * @param iteration the iteration count
+     * @return true if the deadline has expired
+     */
+    public boolean isExpired(long iteration) {
+        return (iteration & (CHECK_INTERVAL - 1)) == 0 && isExpired();
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline has expired
+     */
+    public void check() throws DeadlineExceededException {
+        if (isExpired()) {
+            throw new DeadlineExceededException(cancelled ? "analysis cancelled" :
+                    "analysis timed out after " + elapsed());
+        }
+    }
+
+    /**
+     * Check the deadline if the iteration count is a multiple of the check interval
+     *
+     * @param iteration the iteration count
+     * @throws DeadlineExceededException if the deadline has expired
+     */
+    public void check(long iteration) throws DeadlineExceededException {
+        if ((iteration & (CHECK_INTERVAL - 1)) == 0) {
+            check();
+        }
+    }
+
+    public TimeValue elapsed() {
+        return TimeValue.timeValueNanos(System.nanoTime() - startNanos);
+    }
+}
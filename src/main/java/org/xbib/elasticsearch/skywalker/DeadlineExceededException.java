@@ -0,0 +1,13 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.ElasticsearchException;
+
+/**
+ * Thrown when an analysis has used up its time budget or was cancelled
+ */
+public class DeadlineExceededException extends ElasticsearchException {
+
+    public DeadlineExceededException(String msg) {
+        super(msg);
+    }
+}
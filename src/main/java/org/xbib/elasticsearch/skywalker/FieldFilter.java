@@ -0,0 +1,51 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.common.regex.Regex;
+
+import java.util.Arrays;
+
+/**
+ * Field filter by include and exclude patterns. Patterns are simple wildcard
+ * patterns like "content.*" or "*_id".
+ */
+public class FieldFilter {
+
+    public static final FieldFilter ALL = new FieldFilter(null, null);
+
+    private final String[] includes;
+
+    private final String[] excludes;
+
+    /**
+     * @param includes the patterns of field names to include, null or empty for all fields
+     * @param excludes the patterns of field names to exclude, null or empty for none
+     */
+    public FieldFilter(String[] includes, String[] excludes) {
+        this.includes = includes != null && includes.length > 0 ? includes : null;
+        this.excludes = excludes != null && excludes.length > 0 ? excludes : null;
+    }
+
+    public boolean accept(String field) {
+        if (includes != null && !Regex.simpleMatch(includes, field)) {
+            return false;
+        }
+        return excludes == null || !Regex.simpleMatch(excludes, field);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FieldFilter)) {
+            return false;
+        }
+        FieldFilter filter = (FieldFilter) o;
+        return Arrays.equals(includes, filter.includes) && Arrays.equals(excludes, filter.excludes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(includes) + Arrays.hashCode(excludes);
+    }
+}
@@ -0,0 +1,58 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.ElasticsearchException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Helpers for running per-segment tasks on a fork-join pool
+ */
+public final class ForkJoinTasks {
+
+    private ForkJoinTasks() {
+    }
+
+    /**
+     * Invoke all tasks on the pool and wait for them. An IOException of a task,
+     * wrapped by {@link TaskIOException}, is rethrown.
+     *
+     * @param pool the pool
+     * @param tasks the tasks
+     * @throws IOException if a task failed with an IOException
+     */
+    public static <T extends ForkJoinTask<?>> void invokeAll(ForkJoinPool pool, final List<T> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        try {
+            pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+        } catch (TaskIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Wraps an IOException of a task, because tasks can not throw checked exceptions
+     */
+    public static class TaskIOException extends ElasticsearchException {
+
+        public TaskIOException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+
+        @Override
+        public IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
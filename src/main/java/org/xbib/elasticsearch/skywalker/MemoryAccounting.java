@@ -0,0 +1,122 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.lease.Releasable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory accounting of a single analysis. Estimated bytes are reserved on the
+ * plugin circuit breaker before or while memory is used, and are released all at
+ * once when the analysis is done. The peak of the reserved bytes is kept for
+ * planning large requests.
+ *
+ * Reservations may come from several threads of the fork-join pool.
+ */
+public class MemoryAccounting implements Releasable {
+
+    /**
+     * No accounting at all
+     */
+    public static final MemoryAccounting NONE = new MemoryAccounting(null);
+
+    private final MemoryCircuitBreaker breaker;
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final AtomicLong peak = new AtomicLong();
+
+    public MemoryAccounting(MemoryCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    /**
+     * Reserve estimated bytes
+     *
+     * @param bytes the estimated bytes
+     * @param label the label of the reservation for the error message
+     * @throws CircuitBreakingException if the reservation exceeds the limit
+     */
+    public void reserve(long bytes, String label) throws CircuitBreakingException {
+        if (this == NONE || bytes == 0) {
+            return;
+        }
+        if (breaker != null) {
+            breaker.addEstimateBytesAndMaybeBreak(bytes, "skywalker " + label);
+        }
+        long current = reserved.addAndGet(bytes);
+        long max = peak.get();
+        while (current > max && !peak.compareAndSet(max, current)) {
+            max = peak.get();
+        }
+    }
+
+    public long reserved() {
+        return reserved.get();
+    }
+
+    public long peak() {
+        return peak.get();
+    }
+
+    /**
+     * Release all reserved bytes
+     */
+    @Override
+    public void close() {
+        long bytes = reserved.getAndSet(0L);
+        if (breaker != null && bytes != 0) {
+            breaker.addWithoutBreaking(-bytes);
+        }
+    }
+
+    /**
+     * A rough estimate of the heap used by a response structure of maps, lists,
+     * strings, numbers, and accountable entries
+     *
+     * @param o the response structure
+     * @return the estimated bytes
+     */
+    public static long estimate(Object o) {
+        if (o == null) {
+            return 0L;
+        }
+        if (o instanceof String) {
+            return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 16
+                    + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + 2L * ((String) o).length());
+        }
+        if (o instanceof Accountable) {
+            return ((Accountable) o).ramBytesUsed();
+        }
+        if (o instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) o;
+            long bytes = 64L;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += 48L + estimate(entry.getKey()) + estimate(entry.getValue());
+            }
+            return bytes;
+        }
+        if (o instanceof Collection) {
+            Collection<?> collection = (Collection<?>) o;
+            long bytes = 40L + (long) collection.size() * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+            for (Object element : collection) {
+                bytes += estimate(element);
+            }
+            return bytes;
+        }
+        if (o instanceof Object[]) {
+            long bytes = RamUsageEstimator.shallowSizeOf((Object[]) o);
+            for (Object element : (Object[]) o) {
+                bytes += estimate(element);
+            }
+            return bytes;
+        }
+        // boxed numbers and booleans
+        return 16L;
+    }
+}
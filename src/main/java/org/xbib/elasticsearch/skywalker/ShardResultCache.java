@@ -0,0 +1,149 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.metrics.CounterMetric;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node-level LRU cache of shard analysis results.
+ *
+ * Results are keyed by index UUID, shard, and the request options, and are only valid
+ * for the reader version they were computed from. A lookup with a newer reader
+ * version invalidates the entry. The UUID keeps a recreated index with the same name
+ * from matching the results of the deleted one.
+ */
+public class ShardResultCache {
+
+    private final Cache<Key, Entry> cache;
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric misses = new CounterMetric();
+
+    private final CounterMetric evictions = new CounterMetric();
+
+    private final CounterMetric invalidations = new CounterMetric();
+
+    /**
+     * @param maxSize the maximum number of cached shard results
+     */
+    public ShardResultCache(long maxSize) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.inc();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Look up a shard result.
+     *
+     * @param indexUUID the index UUID
+     * @param shardId the shard ID
+     * @param options the request options, must implement equals() and hashCode()
+     * @param version the current reader version
+     * @return a copy of the cached result, or null if there is no valid result
+     */
+    public Map<String, Object> get(String indexUUID, int shardId, Object options, String version) {
+        Key key = new Key(indexUUID, shardId, options);
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            misses.inc();
+            return null;
+        }
+        if (!entry.version.equals(version)) {
+            cache.invalidate(key);
+            invalidations.inc();
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        return new HashMap<String, Object>(entry.result);
+    }
+
+    /**
+     * Add a shard result. The cache keeps a copy of the result.
+     *
+     * @param indexUUID the index UUID
+     * @param shardId the shard ID
+     * @param options the request options, must implement equals() and hashCode()
+     * @param version the reader version of the result
+     * @param result the result
+     */
+    public void put(String indexUUID, int shardId, Object options, String version, Map<String, Object> result) {
+        cache.put(new Key(indexUUID, shardId, options), new Entry(version, new HashMap<String, Object>(result)));
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("size", cache.size());
+        m.put("hits", hits.count());
+        m.put("misses", misses.count());
+        m.put("evictions", evictions.count());
+        m.put("invalidations", invalidations.count());
+        return m;
+    }
+
+    private static class Key {
+
+        private final String indexUUID;
+
+        private final int shardId;
+
+        private final Object options;
+
+        Key(String indexUUID, int shardId, Object options) {
+            this.indexUUID = indexUUID;
+            this.shardId = shardId;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return shardId == key.shardId && indexUUID.equals(key.indexUUID) && options.equals(key.options);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = indexUUID.hashCode();
+            result = 31 * result + shardId;
+            result = 31 * result + options.hashCode();
+            return result;
+        }
+    }
+
+    private static class Entry {
+
+        private final String version;
+
+        private final Map<String, Object> result;
+
+        Entry(String version, Map<String, Object> result) {
+            this.version = version;
+            this.result = result;
+        }
+    }
+}
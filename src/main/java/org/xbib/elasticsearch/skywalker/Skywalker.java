@@ -25,13 +25,18 @@ import org.elasticsearch.index.similarity.SimilarityProvider;
 import org.elasticsearch.index.store.Store;
 import org.elasticsearch.index.store.StoreFileMetaData;
 import org.xbib.elasticsearch.skywalker.stats.FieldTermCount;
+import org.xbib.elasticsearch.skywalker.stats.FieldTermCounter;
+import org.xbib.elasticsearch.skywalker.stats.SegmentStatsCache;
+import org.xbib.elasticsearch.skywalker.stats.SegmentTopTerms;
 import org.xbib.elasticsearch.skywalker.stats.TermStats;
-import org.xbib.elasticsearch.skywalker.stats.TermStatsQueue;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+import org.xbib.elasticsearch.skywalker.stats.TopTermsCollector;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -43,9 +48,12 @@ public class Skywalker implements LuceneFormats {
     private final static Map<String, String> knownExtensions = new HashMap();
 
     private IndexReader reader;
-    private int numTerms;
+    private long numTerms;
     private FormatDetails formatDetails;
     private TermStats[] topTerms;
+    private long topTermsAllocatedBytes;
+    private Deadline deadline = Deadline.NONE;
+    private MemoryAccounting accounting = MemoryAccounting.NONE;
 
     private String version;
     private String dirImpl;
@@ -93,6 +101,28 @@ public class Skywalker implements LuceneFormats {
         }
     }
 
+    /**
+     * Set the time budget that the term walking loops check
+     *
+     * @param deadline the deadline
+     * @return this
+     */
+    public Skywalker setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set the memory accounting for the top terms queues
+     *
+     * @param accounting the memory accounting
+     * @return this
+     */
+    public Skywalker setAccounting(MemoryAccounting accounting) {
+        this.accounting = accounting;
+        return this;
+    }
+
     public String getVersion() {
         return version;
     }
@@ -276,64 +306,78 @@ public class Skywalker implements LuceneFormats {
             m.put("options", fi.getIndexOptions().name());
         }
         m.put("attributes", fi.attributes());
-        FieldMapper fieldMapper = mapperService.smartNameFieldMapper(fi.name);
-        if (fieldMapper != null) {
-            Map<String, Object> mapper = new HashMap();
-            mapper.put("fullName", fieldMapper.names().fullName());
-            mapper.put("indexName", fieldMapper.names().indexName());
-            mapper.put("indexNameClean", fieldMapper.names().indexNameClean());
+        Map<String, Object> mapper = getFieldMapperInfo(mapperService, fi.name);
+        if (mapper != null) {
+            m.put("mapper", mapper);
+        }
+        return m;
+    }
 
-            mapper.put("boost", fieldMapper.boost());
+    /**
+     * The mapping of an indexed field
+     *
+     * @param mapperService the mapper service of the index
+     * @param field the field name
+     * @return the mapper properties, or null if the field has no mapper
+     */
+    public Map<String, Object> getFieldMapperInfo(MapperService mapperService, String field) {
+        FieldMapper fieldMapper = mapperService.smartNameFieldMapper(field);
+        if (fieldMapper == null) {
+            return null;
+        }
+        Map<String, Object> mapper = new HashMap();
+        mapper.put("fullName", fieldMapper.names().fullName());
+        mapper.put("indexName", fieldMapper.names().indexName());
+        mapper.put("indexNameClean", fieldMapper.names().indexNameClean());
 
-            if (fieldMapper.indexAnalyzer() != null) {
-                mapper.put("indexAnalyzer", fieldMapper.indexAnalyzer().toString());
-            }
-            if (fieldMapper.searchAnalyzer() != null) {
-                mapper.put("searchAnalyzer", fieldMapper.searchAnalyzer().toString());
-            }
-            if (fieldMapper.searchQuoteAnalyzer() != null) {
-                mapper.put("searchQuoteAnalyzer", fieldMapper.searchQuoteAnalyzer().toString());
-            }
+        mapper.put("boost", fieldMapper.boost());
 
-            FieldDataType dataType = fieldMapper.fieldDataType();
-            if (dataType != null) {
-                mapper.put("fieldDataType", dataType.getType());
-            }
+        if (fieldMapper.indexAnalyzer() != null) {
+            mapper.put("indexAnalyzer", fieldMapper.indexAnalyzer().toString());
+        }
+        if (fieldMapper.searchAnalyzer() != null) {
+            mapper.put("searchAnalyzer", fieldMapper.searchAnalyzer().toString());
+        }
+        if (fieldMapper.searchQuoteAnalyzer() != null) {
+            mapper.put("searchQuoteAnalyzer", fieldMapper.searchQuoteAnalyzer().toString());
+        }
 
-            FieldType type = fieldMapper.fieldType();
-            if (type != null) {
-                mapper.put("indexed", type.indexed());
-                mapper.put("stored", type.stored());
-                mapper.put("tokenized", type.tokenized());
-                mapper.put("omitNorms", type.omitNorms());
-                mapper.put("storeTermVectors", type.storeTermVectors());
-                mapper.put("storeTermVectorOffsets", type.storeTermVectorOffsets());
-                mapper.put("storeTermVectorPayloads", type.storeTermVectorPayloads());
-                mapper.put("storeTermVectorPositions", type.storeTermVectorPositions());
-                if (type.numericType() != null) {
-                    mapper.put("numericType", type.numericType().name());
-                    mapper.put("numericPrecisionStep", type.numericPrecisionStep());
-                }
-                if (type.docValueType() != null) {
-                    mapper.put("docValueType", type.docValueType().name());
-                }
-            }
+        FieldDataType dataType = fieldMapper.fieldDataType();
+        if (dataType != null) {
+            mapper.put("fieldDataType", dataType.getType());
+        }
 
-            SimilarityProvider similarityProvider = fieldMapper.similarity();
-            if (similarityProvider != null) {
-                mapper.put("similarityPovider", similarityProvider.name());
-                mapper.put("similarity", similarityProvider.get().getClass().getName() );
+        FieldType type = fieldMapper.fieldType();
+        if (type != null) {
+            mapper.put("indexed", type.indexed());
+            mapper.put("stored", type.stored());
+            mapper.put("tokenized", type.tokenized());
+            mapper.put("omitNorms", type.omitNorms());
+            mapper.put("storeTermVectors", type.storeTermVectors());
+            mapper.put("storeTermVectorOffsets", type.storeTermVectorOffsets());
+            mapper.put("storeTermVectorPayloads", type.storeTermVectorPayloads());
+            mapper.put("storeTermVectorPositions", type.storeTermVectorPositions());
+            if (type.numericType() != null) {
+                mapper.put("numericType", type.numericType().name());
+                mapper.put("numericPrecisionStep", type.numericPrecisionStep());
             }
-
-            PostingsFormatProvider postingsFormatProvider = fieldMapper.postingsFormatProvider();
-            if (postingsFormatProvider != null) {
-                mapper.put("postingsFormatProvider", postingsFormatProvider.name());
-                mapper.put("postingsFormat", postingsFormatProvider.get().getName());
+            if (type.docValueType() != null) {
+                mapper.put("docValueType", type.docValueType().name());
             }
+        }
 
-            m.put("mapper", mapper);
+        SimilarityProvider similarityProvider = fieldMapper.similarity();
+        if (similarityProvider != null) {
+            mapper.put("similarityPovider", similarityProvider.name());
+            mapper.put("similarity", similarityProvider.get().getClass().getName() );
         }
-        return m;
+
+        PostingsFormatProvider postingsFormatProvider = fieldMapper.postingsFormatProvider();
+        if (postingsFormatProvider != null) {
+            mapper.put("postingsFormatProvider", postingsFormatProvider.name());
+            mapper.put("postingsFormat", postingsFormatProvider.get().getName());
+        }
+        return mapper;
     }
 
     public void getStoreMetadata(Map<String, Object> response, Store.MetadataSnapshot metadata) {
@@ -495,7 +539,51 @@ public class Skywalker implements LuceneFormats {
         return termCounts;
     }
 
-    public int getNumTerms() {
+    /**
+     * Count the terms per field by walking the segments in parallel.
+     *
+     * @param pool the fork-join pool for walking the segments
+     * @param exact true if unique terms of fields spanning several segments must be counted exactly,
+     *              false if the sum of the segment counts is good enough
+     * @return the field term counts
+     * @throws IOException
+     */
+    public Set<FieldTermCount> getFieldTermCounts(ForkJoinPool pool, boolean exact) throws IOException {
+        return getFieldTermCounts(pool, exact, FieldFilter.ALL);
+    }
+
+    /**
+     * Count the terms of the fields accepted by a filter by walking the segments in parallel.
+     *
+     * @param pool the fork-join pool for walking the segments
+     * @param exact true if unique terms of fields spanning several segments must be counted exactly
+     * @param filter the field filter
+     * @return the field term counts
+     * @throws IOException
+     */
+    public Set<FieldTermCount> getFieldTermCounts(ForkJoinPool pool, boolean exact, FieldFilter filter) throws IOException {
+        return getFieldTermCounts(pool, exact, filter, null);
+    }
+
+    /**
+     * Count the terms of the fields accepted by a filter, reusing cached segment counts.
+     *
+     * @param pool the fork-join pool for walking the segments
+     * @param exact true if unique terms of fields spanning several segments must be counted exactly
+     * @param filter the field filter
+     * @param cache the cache for segment term counts, or null
+     * @return the field term counts
+     * @throws IOException
+     */
+    public Set<FieldTermCount> getFieldTermCounts(ForkJoinPool pool, boolean exact, FieldFilter filter,
+                                                  SegmentStatsCache cache) throws IOException {
+        FieldTermCounter counter = new FieldTermCounter(reader, pool, exact, filter, cache).deadline(deadline);
+        Set<FieldTermCount> termCounts = counter.count();
+        numTerms = counter.getNumTerms();
+        return termCounts;
+    }
+
+    public long getNumTerms() {
         return numTerms;
     }
 
@@ -506,49 +594,102 @@ public class Skywalker implements LuceneFormats {
         return topTerms;
     }
 
-    private static final TermStats[] EMPTY_STATS = new TermStats[0];
+    /**
+     * The bytes allocated by the last top terms call, for queue entries, term buffers and the result.
+     * It depends on the number of requested terms and the term lengths, but not on the number of terms
+     * in the index.
+     *
+     * @return the allocated bytes
+     */
+    public long getTopTermsAllocatedBytes() {
+        return topTermsAllocatedBytes;
+    }
 
     public TermStats[] getHighFreqTerms(int numTerms, String[] fieldNames) {
-        TermStatsQueue tiq = new TermStatsQueue(numTerms);
-        TermsEnum te = null;
+        TopTermsCollector collector = new TopTermsCollector(numTerms, 0, null).deadline(deadline).accounting(accounting);
         try {
-            if (fieldNames != null) {
-                Fields fields = MultiFields.getFields(reader);
-                if (fields == null) {
-                    return EMPTY_STATS;
-                }
-                for (String field : fieldNames) {
-                    Terms terms = fields.terms(field);
-                    if (terms != null) {
-                        te = terms.iterator(te);
-                        fillQueue(te, tiq, field);
-                    }
-                }
-            } else {
-                Fields fields = MultiFields.getFields(reader);
-                if (fields == null) {
-                    return EMPTY_STATS;
-                }
-                for (String field : fields) {
-                    Terms terms = fields.terms(field);
-                    te = terms.iterator(te);
-                    fillQueue(te, tiq, field);
-                }
-            }
+            collectTopTerms(collector, fieldNames, FieldFilter.ALL);
         } catch (IOException e) {
             // ignore
         }
-        TermStats[] result = new TermStats[tiq.size()];
-        // we want highest first so we read the queue and populate the array
-        // starting at the end and work backwards
-        int count = tiq.size() - 1;
-        while (tiq.size() != 0) {
-            result[count] = tiq.pop();
-            count--;
-        }
+        TermStats[] result = collector.topTerms();
+        topTermsAllocatedBytes = collector.allocatedBytes();
         return result;
     }
 
+    /**
+     * Collect the top terms over all fields and the top terms per field in a single pass
+     * over the term dictionary.
+     *
+     * @param numTerms the number of top terms over all fields
+     * @param numFieldTerms the number of top terms per field, or 0 for none
+     * @param metrics the metrics for ranking the top terms per field
+     * @return the top terms collector holding the results
+     * @throws IOException
+     */
+    public TopTermsCollector getTopTerms(int numTerms, int numFieldTerms, TermStatsMetric[] metrics) throws IOException {
+        return getTopTerms(numTerms, numFieldTerms, metrics, FieldFilter.ALL);
+    }
+
+    /**
+     * Collect the top terms of the fields accepted by a filter in a single pass over the term dictionary.
+     *
+     * @param numTerms the number of top terms over all fields
+     * @param numFieldTerms the number of top terms per field, or 0 for none
+     * @param metrics the metrics for ranking the top terms per field
+     * @param filter the field filter
+     * @return the top terms collector holding the results
+     * @throws IOException
+     */
+    public TopTermsCollector getTopTerms(int numTerms, int numFieldTerms, TermStatsMetric[] metrics,
+                                         FieldFilter filter) throws IOException {
+        TopTermsCollector collector = new TopTermsCollector(numTerms, numFieldTerms, metrics).deadline(deadline)
+                .accounting(accounting);
+        collectTopTerms(collector, null, filter);
+        topTerms = collector.topTerms();
+        topTermsAllocatedBytes = collector.allocatedBytes();
+        return collector;
+    }
+
+    /**
+     * Combine the top terms from the top term candidates of the segments. The candidates
+     * of unchanged segments are taken from the cache.
+     *
+     * @param pool the fork-join pool for walking the segments
+     * @param cache the cache for segment top term candidates, or null
+     * @param numTerms the number of top terms over all fields
+     * @param numFieldTerms the number of top terms per field, or 0 for none
+     * @param metrics the metrics for ranking the top terms per field
+     * @param filter the field filter
+     * @return the combined top terms
+     * @throws IOException
+     */
+    public SegmentTopTerms getSegmentTopTerms(ForkJoinPool pool, SegmentStatsCache cache, int numTerms,
+                                              int numFieldTerms, TermStatsMetric[] metrics,
+                                              FieldFilter filter) throws IOException {
+        return new SegmentTopTerms(reader, pool, cache, numTerms, numFieldTerms, metrics, filter)
+                .deadline(deadline).accounting(accounting).collect();
+    }
+
+    private void collectTopTerms(TopTermsCollector collector, String[] fieldNames, FieldFilter filter) throws IOException {
+        Fields fields = MultiFields.getFields(reader);
+        if (fields == null) {
+            return;
+        }
+        TermsEnum te = null;
+        Iterable<String> fieldIterable = fieldNames != null ? Arrays.asList(fieldNames) : fields;
+        for (String field : fieldIterable) {
+            if (!filter.accept(field)) {
+                continue;
+            }
+            Terms terms = fields.terms(field);
+            if (terms != null) {
+                te = terms.iterator(te);
+                collector.collect(field, te);
+            }
+        }
+    }
+
     public static String bytesToHex(BytesRef bytes, boolean wrap) {
         return bytesToHex(bytes.bytes, bytes.offset, bytes.length, wrap);
     }
@@ -572,23 +713,4 @@ public class Skywalker implements LuceneFormats {
         return sb.toString();
     }
 
-    private void fillQueue(TermsEnum termsEnum, TermStatsQueue tiq, String field) {
-        while (true) {
-            try {
-                BytesRef term = termsEnum.next();
-                if (term != null) {
-                    BytesRef text = new BytesRef();
-                    text.copyBytes(term);
-                    TermStats ts = new TermStats();
-                    ts.field(field).text(text).docFreq(termsEnum.docFreq());
-                    tiq.insertWithOverflow(ts);
-                } else {
-                    break;
-                }
-            } catch (IOException e) {
-                break;
-            }
-        }
-    }
-
 }
@@ -0,0 +1,417 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.xbib.elasticsearch.skywalker.reconstruct.BulkFileExporter;
+import org.xbib.elasticsearch.skywalker.reconstruct.ReconstructContext;
+import org.xbib.elasticsearch.skywalker.stats.SegmentStatsCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-level Skywalker service. Holds the resources shared by all Skywalker
+ * actions on a node, like the bounded fork-join pool for per-segment work
+ * and the fixed thread pool for shard analyses.
+ *
+ * The thread pool is configured by "threadpool.skywalker.size" and
+ * "threadpool.skywalker.queue_size". Shard analyses run concurrently up to
+ * the pool size, further analyses wait in the queue, and analyses that do
+ * not fit into the queue are rejected. The thread handling a shard request
+ * waits for its analysis, so the queue defaults to twice the pool size and is
+ * limited to four times the pool size, which bounds the number of waiting threads.
+ *
+ * Shard results are cached in a node-level LRU cache with at most
+ * "skywalker.cache.size" entries. A size of 0 disables the cache. Segment
+ * statistics are cached until the segment is closed, unless
+ * "skywalker.segment_cache.enabled" is false. The cached top term candidates
+ * of segments are limited to "skywalker.segment_cache.top_terms.size" (default
+ * 1% of the heap) and are reserved on the circuit breaker.
+ *
+ * The estimated memory of all running analyses is limited by a circuit breaker
+ * with the limit "skywalker.breaker.limit" (default 20% of the heap).
+ *
+ * Each analysis runs with a deadline, given by the request or by the
+ * "skywalker.timeout" setting (default 5m). Running analyses are cancelled
+ * when the service stops.
+ *
+ * Paged reconstructions pin a searcher in a reconstruct context between pages.
+ * A context is freed after the last page, or when it was not accessed within its
+ * keep-alive (default "skywalker.reconstruct.keep_alive", 5m). Expired contexts
+ * are reaped every "skywalker.reconstruct.keep_alive_interval" (default 1m).
+ * A context is never reaped while a page is read from it.
+ *
+ * Reconstructions can be exported to bulk files on the local disk of the node,
+ * under "skywalker.reconstruct.export.path". Without this setting, exports are
+ * rejected. The files are written through a buffer of
+ * "skywalker.reconstruct.export.buffer_size" (default 64kb), and the progress
+ * is logged every "skywalker.reconstruct.export.progress_interval" (default 10s).
+ */
+public class SkywalkerService extends AbstractLifecycleComponent<SkywalkerService> {
+
+    /**
+     * The queue of the thread pool holds at most this multiple of the pool size
+     */
+    private static final int MAX_QUEUE_FACTOR = 4;
+
+    private final int parallelism;
+
+    private final int size;
+
+    private final int queueSize;
+
+    private final ShardResultCache resultCache;
+
+    private final SegmentStatsCache segmentStatsCache;
+
+    private final TimeValue defaultTimeout;
+
+    private final MemoryCircuitBreaker breaker;
+
+    private final Set<Deadline> deadlines = ConcurrentCollections.newConcurrentSet();
+
+    private final ThreadPool threadPool;
+
+    private final TimeValue defaultKeepAlive;
+
+    private final TimeValue keepAliveInterval;
+
+    private final AtomicLong contextIdGenerator = new AtomicLong();
+
+    private final String exportPath;
+
+    private final ByteSizeValue exportBufferSize;
+
+    private final TimeValue exportProgressInterval;
+
+    private final ConcurrentMap<Long, ReconstructContext> reconstructContexts = ConcurrentCollections.newConcurrentMap();
+
+    private ScheduledFuture<?> keepAliveReaper;
+
+    private ForkJoinPool forkJoinPool;
+
+    private EsThreadPoolExecutor executor;
+
+    @Inject
+    public SkywalkerService(Settings settings, ThreadPool threadPool) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.parallelism = settings.getAsInt("skywalker.parallelism",
+                Math.min(4, EsExecutors.boundedNumberOfProcessors(settings)));
+        this.size = settings.getAsInt("threadpool.skywalker.size",
+                Math.min(4, EsExecutors.boundedNumberOfProcessors(settings)));
+        // each queued analysis holds the calling thread while it waits, so the queue is kept short
+        int queueSize = settings.getAsInt("threadpool.skywalker.queue_size", size * 2);
+        if (queueSize > size * MAX_QUEUE_FACTOR) {
+            logger.warn("threadpool.skywalker.queue_size [{}] exceeds [{}] times the pool size, using [{}]",
+                    queueSize, MAX_QUEUE_FACTOR, size * MAX_QUEUE_FACTOR);
+            queueSize = size * MAX_QUEUE_FACTOR;
+        }
+        this.queueSize = queueSize;
+        int cacheSize = settings.getAsInt("skywalker.cache.size", 1000);
+        this.resultCache = cacheSize > 0 ? new ShardResultCache(cacheSize) : null;
+        this.breaker = new MemoryCircuitBreaker(settings.getAsMemory("skywalker.breaker.limit", "20%"), 1.0, logger);
+        this.segmentStatsCache = settings.getAsBoolean("skywalker.segment_cache.enabled", true) ?
+                new SegmentStatsCache(settings.getAsMemory("skywalker.segment_cache.top_terms.size", "1%"), breaker) : null;
+        this.defaultTimeout = settings.getAsTime("skywalker.timeout", TimeValue.timeValueMinutes(5));
+        this.defaultKeepAlive = settings.getAsTime("skywalker.reconstruct.keep_alive", TimeValue.timeValueMinutes(5));
+        this.keepAliveInterval = settings.getAsTime("skywalker.reconstruct.keep_alive_interval", TimeValue.timeValueMinutes(1));
+        this.exportPath = settings.get("skywalker.reconstruct.export.path");
+        this.exportBufferSize = settings.getAsBytesSize("skywalker.reconstruct.export.buffer_size",
+                new ByteSizeValue(64, ByteSizeUnit.KB));
+        this.exportProgressInterval = settings.getAsTime("skywalker.reconstruct.export.progress_interval",
+                TimeValue.timeValueSeconds(10));
+    }
+
+    /**
+     * Create the memory accounting of an analysis. It must be closed when the analysis
+     * is done and its results are no longer held.
+     *
+     * @return the memory accounting
+     */
+    public MemoryAccounting memoryAccounting() {
+        return new MemoryAccounting(breaker);
+    }
+
+    public MemoryCircuitBreaker breaker() {
+        return breaker;
+    }
+
+    /**
+     * Create and register the deadline of an analysis. The deadline must be released
+     * with {@link #release(Deadline)} when the analysis is done.
+     *
+     * @param timeout the time budget of the request, or null for the default time budget
+     * @return the deadline
+     */
+    public Deadline deadline(TimeValue timeout) {
+        Deadline deadline = new Deadline(timeout != null ? timeout : defaultTimeout);
+        deadlines.add(deadline);
+        return deadline;
+    }
+
+    public void release(Deadline deadline) {
+        deadlines.remove(deadline);
+    }
+
+    /**
+     * Register a reconstruct context that pins the searcher of a shard between pages.
+     * The context owns the searcher from now on.
+     *
+     * @param index the index name
+     * @param shardId the shard id
+     * @param searcher the searcher
+     * @param keepAlive the keep-alive, or null for the default keep-alive
+     * @return the context
+     */
+    public ReconstructContext putReconstructContext(String index, int shardId, Engine.Searcher searcher,
+                                                    TimeValue keepAlive) {
+        ReconstructContext context = new ReconstructContext(contextIdGenerator.incrementAndGet(), index, shardId, searcher);
+        accessed(context, keepAlive);
+        // the first page is read right away
+        context.inUse();
+        reconstructContexts.put(context.id(), context);
+        return context;
+    }
+
+    /**
+     * Find a reconstruct context and mark it in use by a page, so it does not expire
+     * while the page is read. The page must mark it accessed or free it when it ends.
+     *
+     * @param id the context id
+     * @return the context, or null if it was freed or has expired
+     */
+    public ReconstructContext reconstructContext(long id) {
+        ReconstructContext context = reconstructContexts.get(id);
+        if (context == null) {
+            return null;
+        }
+        synchronized (context) {
+            if (reconstructContexts.get(id) != context) {
+                // reaped in the meantime
+                return null;
+            }
+            context.inUse();
+        }
+        return context;
+    }
+
+    public void accessed(ReconstructContext context, TimeValue keepAlive) {
+        context.accessed(threadPool.estimatedTimeInMillis(),
+                (keepAlive != null ? keepAlive : defaultKeepAlive).millis());
+    }
+
+    /**
+     * Free a reconstruct context and release its searcher
+     *
+     * @param id the context id
+     * @return true if the context existed
+     */
+    public boolean freeReconstructContext(long id) {
+        ReconstructContext context = reconstructContexts.remove(id);
+        if (context == null) {
+            return false;
+        }
+        context.close();
+        return true;
+    }
+
+    public int reconstructContexts() {
+        return reconstructContexts.size();
+    }
+
+    /**
+     * Create a bulk file for exporting a reconstructed shard. The file is created
+     * in a directory per index under the export path.
+     *
+     * @param index the index name
+     * @param name the file name
+     * @param compress true for a gzip compressed file
+     * @param mapperService the mapper service of the index
+     * @return the exporter
+     * @throws IOException
+     */
+    public BulkFileExporter bulkFileExporter(String index, String name, boolean compress,
+                                             MapperService mapperService) throws IOException {
+        if (exportPath == null) {
+            throw new ElasticsearchIllegalStateException("export is disabled, \"skywalker.reconstruct.export.path\" is not set");
+        }
+        File dir = new File(exportPath, index);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create export directory " + dir);
+        }
+        File file = new File(dir, compress ? name + ".gz" : name);
+        return new BulkFileExporter(file, compress, exportBufferSize.bytesAsInt(), index, mapperService)
+                .progress(logger, exportProgressInterval);
+    }
+
+    public ByteSizeValue exportBufferSize() {
+        return exportBufferSize;
+    }
+
+    /**
+     * The node-level cache of shard results
+     *
+     * @return the cache, or null if the cache is disabled
+     */
+    public ShardResultCache resultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Execute a shard analysis on the skywalker thread pool and wait for the result.
+     *
+     * @param callable the shard analysis
+     * @param deadline the deadline of the analysis, cancelled if the waiting thread is interrupted
+     * @param <T> the result type
+     * @return the result
+     * @throws EsRejectedExecutionException if the queue of the thread pool is full
+     */
+    public <T> T execute(Callable<T> callable, Deadline deadline) throws ElasticsearchException {
+        if (executor == null) {
+            throw new ElasticsearchException("skywalker service not started");
+        }
+        Future<T> future = executor.submit(callable);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            deadline.cancel();
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ElasticsearchException("interrupted while waiting for skywalker thread pool", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ElasticsearchException) {
+                throw (ElasticsearchException) cause;
+            }
+            throw new ElasticsearchException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * The node-level cache of segment statistics
+     *
+     * @return the cache, or null if the cache is disabled
+     */
+    public SegmentStatsCache segmentStatsCache() {
+        return segmentStatsCache;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int queueSize() {
+        return queueSize;
+    }
+
+    /**
+     * The bounded fork-join pool for walking segments in parallel
+     *
+     * @return the fork-join pool
+     */
+    public ForkJoinPool forkJoinPool() {
+        if (forkJoinPool == null) {
+            throw new ElasticsearchException("skywalker service not started");
+        }
+        return forkJoinPool;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        this.forkJoinPool = new ForkJoinPool(parallelism);
+        this.executor = EsExecutors.newFixed(size, queueSize,
+                EsExecutors.daemonThreadFactory(settings, "skywalker"));
+        this.keepAliveReaper = threadPool.scheduleWithFixedDelay(new Reaper(), keepAliveInterval);
+        logger.debug("started with parallelism [{}], size [{}], queue_size [{}]", parallelism, size, queueSize);
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        for (Deadline deadline : deadlines) {
+            deadline.cancel();
+        }
+        if (keepAliveReaper != null) {
+            keepAliveReaper.cancel(false);
+        }
+        for (Long id : reconstructContexts.keySet()) {
+            freeReconstructContext(id);
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+            try {
+                forkJoinPool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        if (resultCache != null) {
+            resultCache.clear();
+        }
+        if (segmentStatsCache != null) {
+            segmentStatsCache.clear();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Frees the reconstruct contexts that were not accessed within their keep-alive
+     */
+    private class Reaper implements Runnable {
+        @Override
+        public void run() {
+            long now = threadPool.estimatedTimeInMillis();
+            for (ReconstructContext context : reconstructContexts.values()) {
+                boolean expired;
+                synchronized (context) {
+                    // a context in use by a page does not expire
+                    expired = context.isExpired(now) && reconstructContexts.remove(context.id(), context);
+                }
+                if (expired) {
+                    logger.debug("freeing expired reconstruct context [{}] of [{}][{}]",
+                            context.id(), context.index(), context.shardId());
+                    context.close();
+                }
+            }
+        }
+    }
+}
@@ -2,46 +2,170 @@
 package org.xbib.elasticsearch.skywalker.collectors;
 
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.RamUsageEstimator;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Collects all hits into growable primitive arrays, a doc id array and, if the
+ * hits are scored, a parallel score array. If the scores are not needed and the
+ * number of documents is known, the hits are collected into a bit set instead,
+ * which costs one bit per document of the reader.
+ */
 public class AllHitsCollector extends AccessibleHitCollector {
 
-    private List<AllHit> hits = new ArrayList();
+    private int[] docs = new int[0];
+
+    private float[] scores;
+
+    private FixedBitSet bits;
+
+    private int count;
+
+    private boolean sorted = true;
 
     public AllHitsCollector(boolean outOfOrder, boolean shouldScore) {
         this.outOfOrder = outOfOrder;
         this.shouldScore = shouldScore;
+        if (shouldScore) {
+            scores = new float[0];
+        }
+    }
+
+    /**
+     * Create a collector that collects the hits without scores into a bit set
+     *
+     * @param maxDoc the number of documents of the reader
+     */
+    public AllHitsCollector(int maxDoc) {
+        this.outOfOrder = true;
+        this.shouldScore = false;
+        this.bits = new FixedBitSet(maxDoc);
+        this.docs = null;
     }
 
     @Override
-    public void collect(int doc) {
-        float score = 1.0f;
-        if (shouldScore) {
-            try {
-                score = scorer.score();
-            } catch (IOException e) {
+    public void collect(int doc) throws IOException {
+        doc += docBase;
+        if (bits != null) {
+            if (!bits.getAndSet(doc)) {
+                count++;
+                docs = null;
+            }
+            return;
+        }
+        if (count == docs.length) {
+            docs = ArrayUtil.grow(docs, count + 1);
+            if (shouldScore) {
+                scores = Arrays.copyOf(scores, docs.length);
             }
         }
-        hits.add(new AllHit(docBase + doc, score));
+        if (count > 0 && doc < docs[count - 1]) {
+            sorted = false;
+        }
+        docs[count] = doc;
+        if (shouldScore) {
+            scores[count] = scorer.score();
+        }
+        count++;
     }
 
     @Override
     public int getTotalHits() {
-        return hits.size();
+        return count;
     }
 
     @Override
     public int getDocId(int i) {
-        return hits.get(i).docId();
+        if (docs == null) {
+            materialize();
+        }
+        return docs[i];
     }
 
     @Override
     public float getScore(int i) {
-        return hits.get(i).score();
+        return shouldScore ? scores[i] : 1.0f;
+    }
+
+    /**
+     * Sort the hits by doc id, so documents can be read sequentially
+     *
+     * @return this
+     */
+    public AllHitsCollector sortByDocId() {
+        if (sorted || bits != null) {
+            return this;
+        }
+        if (!shouldScore) {
+            Arrays.sort(docs, 0, count);
+        } else {
+            new IntroSorter() {
+                private int pivot;
+
+                @Override
+                protected int compare(int i, int j) {
+                    return docs[i] - docs[j];
+                }
+
+                @Override
+                protected void swap(int i, int j) {
+                    int doc = docs[i];
+                    docs[i] = docs[j];
+                    docs[j] = doc;
+                    float score = scores[i];
+                    scores[i] = scores[j];
+                    scores[j] = score;
+                }
+
+                @Override
+                protected void setPivot(int i) {
+                    pivot = docs[i];
+                }
+
+                @Override
+                protected int comparePivot(int j) {
+                    return pivot - docs[j];
+                }
+            }.sort(0, count);
+        }
+        sorted = true;
+        return this;
+    }
+
+    /**
+     * An iterator over the doc ids of the hits in doc id order
+     *
+     * @return the iterator
+     */
+    public DocIdSetIterator iterator() {
+        if (bits != null) {
+            return bits.iterator();
+        }
+        sortByDocId();
+        return new HitsIterator(docs, count);
+    }
+
+    /**
+     * The heap used by the hits
+     *
+     * @return the bytes
+     */
+    public long ramBytesUsed() {
+        long bytes = docs != null ? RamUsageEstimator.sizeOf(docs) : 0L;
+        if (scores != null) {
+            bytes += RamUsageEstimator.sizeOf(scores);
+        }
+        if (bits != null) {
+            bytes += RamUsageEstimator.sizeOf(bits.getBits());
+        }
+        return bytes;
     }
 
     @Override
@@ -61,7 +185,59 @@ public class AllHitsCollector extends AccessibleHitCollector {
 
     @Override
     public void reset() {
-        hits.clear();
+        count = 0;
+        sorted = true;
+        if (bits != null) {
+            bits.clear(0, bits.length());
+            docs = null;
+        }
     }
 
-}
\ No newline at end of file
+    private void materialize() {
+        docs = new int[count];
+        int i = 0;
+        for (int doc = count > 0 ? bits.nextSetBit(0) : -1; doc >= 0 && i < count;
+             doc = doc + 1 < bits.length() ? bits.nextSetBit(doc + 1) : -1) {
+            docs[i++] = doc;
+        }
+    }
+
+    private static class HitsIterator extends DocIdSetIterator {
+
+        private final int[] docs;
+
+        private final int length;
+
+        private int i = -1;
+
+        private int doc = -1;
+
+        HitsIterator(int[] docs, int length) {
+            this.docs = docs;
+            this.length = length;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public int nextDoc() {
+            return doc = ++i < length ? docs[i] : NO_MORE_DOCS;
+        }
+
+        @Override
+        public int advance(int target) {
+            while (doc < target) {
+                nextDoc();
+            }
+            return doc;
+        }
+
+        @Override
+        public long cost() {
+            return length;
+        }
+    }
+}
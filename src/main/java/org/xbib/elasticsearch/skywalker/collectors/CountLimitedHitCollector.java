@@ -37,32 +37,38 @@ public class CountLimitedHitCollector extends LimitedHitCollector {
         return TYPE_SIZE;
     }
 
+    @Override
+    public boolean limitReached() {
+        return count >= maxSize;
+    }
+
     @Override
     public void collect(int doc) throws IOException {
-        count++;
-        if (count > maxSize) {
-            count--;
+        if (throwOnLimit && limitReached()) {
             throw new LimitedException(TYPE_SIZE, maxSize, count, lastDoc);
         }
+        count++;
         lastDoc = docBase + doc;
-
+        topDocs = null;
         tdc.collect(doc);
     }
 
     @Override
-    public int getDocId(int pos) {
+    public TopDocs topDocs() {
         if (topDocs == null) {
             topDocs = tdc.topDocs();
         }
-        return topDocs.scoreDocs[pos].doc;
+        return topDocs;
+    }
+
+    @Override
+    public int getDocId(int pos) {
+        return topDocs().scoreDocs[pos].doc;
     }
 
     @Override
     public float getScore(int pos) {
-        if (topDocs == null) {
-            topDocs = tdc.topDocs();
-        }
-        return topDocs.scoreDocs[pos].score;
+        return topDocs().scoreDocs[pos].score;
     }
 
     @Override
@@ -3,35 +3,61 @@ package org.xbib.elasticsearch.skywalker.collectors;
 
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.TimeLimitingCollector;
-import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.elasticsearch.common.unit.TimeValue;
+import org.xbib.elasticsearch.skywalker.Deadline;
 
 import java.io.IOException;
 
 /**
  * Interval limited collector
+ *
+ * The collector keeps the top hits in a queue that grows with the hits, up to a
+ * configurable size. The time budget is a deadline, which may be shared with the
+ * collectors of other segments and shards, so one budget covers a whole request.
+ * The deadline is checked every {@link Deadline#CHECK_INTERVAL} hits.
  */
 public class IntervalLimitedCollector extends LimitedHitCollector {
 
-    private long maxTime;
-    private long lastDoc = 0;
-    private TopScoreDocCollector tdc;
+    /**
+     * The default number of top hits that are kept
+     */
+    public static final int MAX_HITS = 1000;
+
+    private final boolean ownsDeadline;
+    private final TopHitsQueue queue;
+    private Deadline deadline;
+    private int totalHits;
+    private int lastDoc = 0;
     private TopDocs topDocs = null;
-    private TimeLimitingCollector thc;
 
     public IntervalLimitedCollector(int maxTime, boolean outOfOrder, boolean shouldScore) {
-        this.maxTime = maxTime;
+        this(new Deadline(TimeValue.timeValueMillis(maxTime)), MAX_HITS, outOfOrder, shouldScore, true);
+    }
+
+    /**
+     * @param deadline the deadline, shared with other collectors
+     * @param numHits the number of top hits to keep
+     * @param outOfOrder true if documents may be collected out of order
+     * @param shouldScore true if the hits are scored
+     */
+    public IntervalLimitedCollector(Deadline deadline, int numHits, boolean outOfOrder, boolean shouldScore) {
+        this(deadline, numHits, outOfOrder, shouldScore, false);
+    }
+
+    private IntervalLimitedCollector(Deadline deadline, int numHits, boolean outOfOrder, boolean shouldScore,
+                                     boolean ownsDeadline) {
+        this.deadline = deadline;
+        this.queue = new TopHitsQueue(numHits);
         this.outOfOrder = outOfOrder;
         this.shouldScore = shouldScore;
-        tdc = TopScoreDocCollector.create(1000, outOfOrder);
-        thc = new TimeLimitingCollector(tdc, TimeLimitingCollector.getGlobalCounter(), maxTime);
+        this.ownsDeadline = ownsDeadline;
     }
 
     @Override
     public long limitSize() {
-        return maxTime;
+        TimeValue timeout = deadline.timeout();
+        return timeout != null ? timeout.millis() : -1L;
     }
 
     @Override
@@ -40,34 +66,51 @@ public class IntervalLimitedCollector extends LimitedHitCollector {
     }
 
     @Override
-    public int getDocId(int pos) {
+    public boolean limitReached() {
+        return deadline.isExpired(totalHits);
+    }
+
+    @Override
+    public TopDocs topDocs() {
         if (topDocs == null) {
-            topDocs = tdc.topDocs();
+            topDocs = queue.topDocs(totalHits);
         }
-        return topDocs.scoreDocs[pos].doc;
+        return topDocs;
+    }
+
+    @Override
+    public int getDocId(int pos) {
+        return topDocs().scoreDocs[pos].doc;
     }
 
     @Override
     public float getScore(int pos) {
-        if (topDocs == null) {
-            topDocs = tdc.topDocs();
-        }
-        return topDocs.scoreDocs[pos].score;
+        return topDocs().scoreDocs[pos].score;
     }
 
     @Override
     public int getTotalHits() {
-        return tdc.getTotalHits();
+        return totalHits;
     }
 
     @Override
     public void collect(int docNum) throws IOException {
-        try {
-            thc.collect(docNum);
-        } catch (TimeExceededException tee) {
-            // re-throw
-            throw new LimitedException(TYPE_TIME, maxTime, tee.getTimeElapsed(), tee.getLastDocCollected());
+        if (throwOnLimit && limitReached()) {
+            throw new LimitedException(TYPE_TIME, limitSize(), deadline.elapsed().millis(), lastDoc);
         }
+        lastDoc = docBase + docNum;
+        topDocs = null;
+        totalHits++;
+        queue.add(lastDoc, shouldScore ? scorer.score() : 1.0f);
+    }
+
+    /**
+     * The heap used by the queue of top hits
+     *
+     * @return the bytes
+     */
+    public long ramBytesUsed() {
+        return queue.ramBytesUsed();
     }
 
     @Override
@@ -75,27 +118,25 @@ public class IntervalLimitedCollector extends LimitedHitCollector {
         return outOfOrder;
     }
 
-
     @Override
     public void setNextReader(AtomicReaderContext context) throws IOException {
         this.docBase = context.docBase;
-        thc.setNextReader(context);
     }
 
     @Override
     public void setScorer(Scorer scorer) throws IOException {
         this.scorer = scorer;
-        if (shouldScore) {
-            thc.setScorer(scorer);
-        } else {
-            thc.setScorer(NoScoringScorer.INSTANCE);
-        }
     }
 
     @Override
     public void reset() {
         lastDoc = 0;
-        tdc = TopScoreDocCollector.create(1000, outOfOrder);
-        thc = new TimeLimitingCollector(tdc, TimeLimitingCollector.getGlobalCounter(), maxTime);
+        totalHits = 0;
+        topDocs = null;
+        queue.clear();
+        if (ownsDeadline) {
+            // a shared deadline keeps running, an own deadline starts again
+            deadline = new Deadline(deadline.timeout());
+        }
     }
 }
@@ -1,8 +1,15 @@
 
 package org.xbib.elasticsearch.skywalker.collectors;
 
+import org.apache.lucene.search.TopDocs;
+
 /**
  *  Limited hit collector
+ *
+ *  When the collector is driven by a searcher, reaching the limit throws a
+ *  {@link LimitedException}. A {@link LimitedHitScan} instead asks the collector
+ *  before each hit whether the limit is reached and stops without an exception,
+ *  keeping the hits collected so far.
  */
 public abstract class LimitedHitCollector extends AccessibleHitCollector {
 
@@ -10,7 +17,34 @@ public abstract class LimitedHitCollector extends AccessibleHitCollector {
 
     public static final int TYPE_SIZE = 1;
 
+    protected boolean throwOnLimit = true;
+
     public abstract int limitType();
 
     public abstract long limitSize();
+
+    /**
+     * Check whether the limit is reached, so no more hits should be collected
+     *
+     * @return true if the limit is reached
+     */
+    public abstract boolean limitReached();
+
+    /**
+     * The top hits collected so far
+     *
+     * @return the top hits
+     */
+    public abstract TopDocs topDocs();
+
+    /**
+     * Let the caller check the limit with {@link #limitReached()} before each hit,
+     * instead of throwing a {@link LimitedException} when the limit is exceeded
+     *
+     * @return this
+     */
+    public LimitedHitCollector earlyTermination() {
+        this.throwOnLimit = false;
+        return this;
+    }
 }
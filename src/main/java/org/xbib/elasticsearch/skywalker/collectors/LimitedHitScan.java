@@ -0,0 +1,168 @@
+
+package org.xbib.elasticsearch.skywalker.collectors;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.xbib.elasticsearch.skywalker.Deadline;
+
+import java.io.IOException;
+
+/**
+ * Scans the hits of a query leaf by leaf into a hit collector.
+ *
+ * Before each hit a limited hit collector is asked whether its limit is reached,
+ * and every {@link Deadline#CHECK_INTERVAL} hits the deadline is checked. If so,
+ * the scan stops without an exception, the collector keeps the hits collected so
+ * far, and the scan records the last collected hit and the first hit it did not
+ * collect. A later scan can resume after the last collected hit, so limited
+ * results can be paged through instead of running the query from the start.
+ * The scan also counts the collected hits per leaf.
+ */
+public class LimitedHitScan {
+
+    private final IndexSearcher searcher;
+
+    private final Weight weight;
+
+    private int after = -1;
+
+    private int lastDoc = -1;
+
+    private int nextDoc = -1;
+
+    private boolean limited;
+
+    private boolean expired;
+
+    private Deadline deadline = Deadline.NONE;
+
+    private int hits;
+
+    private int[] leafHits;
+
+    public LimitedHitScan(IndexSearcher searcher, Query query) throws IOException {
+        this.searcher = searcher;
+        this.weight = searcher.createNormalizedWeight(query);
+    }
+
+    /**
+     * Resume the scan after a document
+     *
+     * @param after the global document number, or -1 to scan from the beginning
+     * @return this
+     */
+    public LimitedHitScan after(int after) {
+        this.after = after;
+        return this;
+    }
+
+    /**
+     * Set the deadline that is checked while hits are collected
+     *
+     * @param deadline the deadline
+     * @return this
+     */
+    public LimitedHitScan deadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Scan the hits into a collector until the hits are exhausted, the limit of
+     * a limited collector is reached, or the deadline expires
+     *
+     * @param collector the collector
+     * @return this
+     */
+    public LimitedHitScan scan(AccessibleHitCollector collector) throws IOException {
+        LimitedHitCollector limitedCollector = null;
+        if (collector instanceof LimitedHitCollector) {
+            limitedCollector = ((LimitedHitCollector) collector).earlyTermination();
+        }
+        lastDoc = -1;
+        nextDoc = -1;
+        limited = false;
+        expired = false;
+        hits = 0;
+        leafHits = new int[searcher.getIndexReader().leaves().size()];
+        for (AtomicReaderContext context : searcher.getIndexReader().leaves()) {
+            int maxDoc = context.reader().maxDoc();
+            if (context.docBase + maxDoc <= after + 1) {
+                continue;
+            }
+            Scorer scorer = weight.scorer(context, context.reader().getLiveDocs());
+            if (scorer == null) {
+                continue;
+            }
+            collector.setNextReader(context);
+            collector.setScorer(scorer);
+            int target = after + 1 - context.docBase;
+            int doc = target > 0 ? scorer.advance(target) : scorer.nextDoc();
+            while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                if (limitedCollector != null && limitedCollector.limitReached()) {
+                    limited = true;
+                    nextDoc = context.docBase + doc;
+                    return this;
+                }
+                if (deadline.isExpired(hits)) {
+                    expired = true;
+                    nextDoc = context.docBase + doc;
+                    return this;
+                }
+                collector.collect(doc);
+                hits++;
+                leafHits[context.ord]++;
+                lastDoc = context.docBase + doc;
+                doc = scorer.nextDoc();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return true if the scan stopped at the limit of the collector
+     */
+    public boolean limited() {
+        return limited;
+    }
+
+    /**
+     * @return true if the scan stopped because the deadline expired
+     */
+    public boolean expired() {
+        return expired;
+    }
+
+    /**
+     * @return the number of collected hits
+     */
+    public int hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of collected hits per leaf, by leaf ord
+     */
+    public int[] leafHits() {
+        return leafHits;
+    }
+
+    /**
+     * @return the global document number of the last collected hit, or -1
+     */
+    public int lastDoc() {
+        return lastDoc;
+    }
+
+    /**
+     * @return the global document number of the first hit that was not collected,
+     * or -1 if all hits were collected
+     */
+    public int nextDoc() {
+        return nextDoc;
+    }
+}
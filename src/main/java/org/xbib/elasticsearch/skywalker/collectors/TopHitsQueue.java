@@ -0,0 +1,135 @@
+
+package org.xbib.elasticsearch.skywalker.collectors;
+
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A bounded queue of the top scoring hits.
+ *
+ * The queue is a binary heap over parallel doc id and score arrays that grow with
+ * the number of hits, so a large bound costs nothing until the hits arrive. Like
+ * in Lucene's top score collector, hits with equal scores are ranked by doc id,
+ * so unscored hits keep the first documents.
+ */
+class TopHitsQueue {
+
+    private static final Comparator<ScoreDoc> BY_SCORE = new Comparator<ScoreDoc>() {
+        @Override
+        public int compare(ScoreDoc a, ScoreDoc b) {
+            int cmp = Float.compare(b.score, a.score);
+            return cmp != 0 ? cmp : a.doc - b.doc;
+        }
+    };
+
+    private final int maxSize;
+
+    private int[] docs = new int[0];
+
+    private float[] scores = new float[0];
+
+    private int size;
+
+    /**
+     * @param maxSize the number of top hits to keep
+     */
+    TopHitsQueue(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Add a hit. If the queue is full, the hit replaces the least hit if it ranks higher.
+     *
+     * @param doc the global doc id
+     * @param score the score
+     */
+    void add(int doc, float score) {
+        if (size < maxSize) {
+            if (size == docs.length) {
+                docs = ArrayUtil.grow(docs, size + 1);
+                scores = Arrays.copyOf(scores, docs.length);
+            }
+            docs[size] = doc;
+            scores[size] = score;
+            upHeap(size++);
+        } else if (size > 0 && lessThan(0, doc, score)) {
+            docs[0] = doc;
+            scores[0] = score;
+            downHeap();
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The hits of the queue, ranked by score and doc id. The queue is not modified.
+     *
+     * @param totalHits the number of hits that were added
+     * @return the top hits
+     */
+    TopDocs topDocs(int totalHits) {
+        ScoreDoc[] scoreDocs = new ScoreDoc[size];
+        for (int i = 0; i < size; i++) {
+            scoreDocs[i] = new ScoreDoc(docs[i], scores[i]);
+        }
+        Arrays.sort(scoreDocs, BY_SCORE);
+        return new TopDocs(totalHits, scoreDocs, size > 0 ? scoreDocs[0].score : Float.NaN);
+    }
+
+    long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(docs) + RamUsageEstimator.sizeOf(scores);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // true if the hit at i ranks below the given hit
+    private boolean lessThan(int i, int doc, float score) {
+        return scores[i] < score || (scores[i] == score && docs[i] > doc);
+    }
+
+    private void upHeap(int i) {
+        int doc = docs[i];
+        float score = scores[i];
+        int parent = (i - 1) >>> 1;
+        while (i > 0 && !lessThan(parent, doc, score)) {
+            docs[i] = docs[parent];
+            scores[i] = scores[parent];
+            i = parent;
+            parent = (i - 1) >>> 1;
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+
+    private void downHeap() {
+        int i = 0;
+        int doc = docs[0];
+        float score = scores[0];
+        int child = 1;
+        while (child < size) {
+            int right = child + 1;
+            if (right < size && lessThan(right, docs[child], scores[child])) {
+                child = right;
+            }
+            if (lessThan(child, doc, score)) {
+                docs[i] = docs[child];
+                scores[i] = scores[child];
+                i = child;
+                child = 2 * i + 1;
+            } else {
+                break;
+            }
+        }
+        docs[i] = doc;
+        scores[i] = score;
+    }
+}
@@ -0,0 +1,431 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.compress.CompressorFactory;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.core.BooleanFieldMapper;
+import org.elasticsearch.index.mapper.core.ByteFieldMapper;
+import org.elasticsearch.index.mapper.core.DateFieldMapper;
+import org.elasticsearch.index.mapper.core.DoubleFieldMapper;
+import org.elasticsearch.index.mapper.core.FloatFieldMapper;
+import org.elasticsearch.index.mapper.core.IntegerFieldMapper;
+import org.elasticsearch.index.mapper.core.LongFieldMapper;
+import org.elasticsearch.index.mapper.core.NumberFieldMapper;
+import org.elasticsearch.index.mapper.core.ShortFieldMapper;
+import org.elasticsearch.index.mapper.internal.ParentFieldMapper;
+import org.elasticsearch.index.mapper.internal.RoutingFieldMapper;
+import org.elasticsearch.index.mapper.internal.SourceFieldMapper;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.mapper.ip.IpFieldMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Writes reconstructed documents to a local file in the bulk format, an action line
+ * and a source line per document, so the file can be sent to the bulk API as it is.
+ *
+ * The source of a document is its stored _source, if there is one. Otherwise the
+ * source is rebuilt from the stored fields, and from the terms of the fields that
+ * are not stored. The terms of a field are joined in the order of their positions,
+ * and numeric terms are decoded by the type of the field mapper. String fields that
+ * are neither stored nor indexed are taken from their sorted doc values. Documents without
+ * a stored UID, like nested documents, are skipped.
+ *
+ * The lines are collected in a buffer and written to a file channel when the buffer
+ * is full. The file is optionally compressed with gzip.
+ */
+public class BulkFileExporter implements ToXContent, Closeable {
+
+    // tokens are pairs of position and text index
+    private static final Comparator<long[]> BY_POSITION = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return a[0] < b[0] ? -1 : a[0] == b[0] ? 0 : 1;
+        }
+    };
+
+    private final File file;
+
+    private final String index;
+
+    private final MapperService mapperService;
+
+    private final FileChannel fileChannel;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer;
+
+    private final BytesStreamOutput line = new BytesStreamOutput();
+
+    private final long startTime = System.currentTimeMillis();
+
+    private ESLogger logger;
+
+    private long progressInterval;
+
+    private long lastProgress = startTime;
+
+    private long docs;
+
+    private long skipped;
+
+    private long bytes;
+
+    private long fileBytes;
+
+    private long took = -1L;
+
+    /**
+     * Create a new file and open it for writing
+     *
+     * @param file the file, it must not exist
+     * @param compress true if the file should be compressed with gzip
+     * @param bufferSize the size of the write buffer
+     * @param index the index name of the action lines
+     * @param mapperService the mapper service for decoding field values
+     * @throws IOException
+     */
+    public BulkFileExporter(File file, boolean compress, int bufferSize, String index,
+                            MapperService mapperService) throws IOException {
+        this.file = file;
+        this.index = index;
+        this.mapperService = mapperService;
+        this.fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.channel = compress ?
+                Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), bufferSize)) :
+                fileChannel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * Log the progress of the export
+     *
+     * @param logger the logger
+     * @param interval the time between two progress messages
+     * @return this exporter
+     */
+    public BulkFileExporter progress(ESLogger logger, TimeValue interval) {
+        this.logger = logger;
+        this.progressInterval = interval.millis();
+        return this;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public long docs() {
+        return docs;
+    }
+
+    /**
+     * Write a reconstructed document
+     *
+     * @param doc the stored fields of the document
+     * @param fieldInfos the field infos of the segment
+     * @param terms the terms of the window
+     * @param columns the doc values of the window
+     * @param slot the slot of the document in the window
+     * @throws IOException
+     */
+    void write(Document doc, FieldInfos fieldInfos, TermOccurrenceBuffer terms, ColumnBuffer columns,
+               int slot) throws IOException {
+        String uid = doc.get(UidFieldMapper.NAME);
+        if (uid == null) {
+            skipped++;
+            return;
+        }
+        Uid u = Uid.createUid(uid);
+        line.reset();
+        XContentBuilder builder = jsonBuilder(line);
+        builder.startObject().startObject("index")
+                .field("_index", index)
+                .field("_type", u.type())
+                .field("_id", u.id());
+        String routing = doc.get(RoutingFieldMapper.NAME);
+        if (routing != null) {
+            builder.field("_routing", routing);
+        }
+        String parent = doc.get(ParentFieldMapper.NAME);
+        if (parent != null) {
+            builder.field("_parent", Uid.createUid(parent).id());
+        }
+        builder.endObject().endObject().close();
+        line.write('\n');
+        builder = jsonBuilder(line);
+        BytesRef source = doc.getBinaryValue(SourceFieldMapper.NAME);
+        if (source != null) {
+            // copied through a parser, so the source is on a single line
+            BytesReference bytes = CompressorFactory.uncompressIfNeeded(new BytesArray(source));
+            XContentParser parser = XContentHelper.createParser(bytes);
+            try {
+                builder.copyCurrentStructure(parser);
+            } finally {
+                parser.close();
+            }
+        } else {
+            builder.map(rebuildSource(doc, fieldInfos, terms, columns, slot));
+        }
+        builder.close();
+        line.write('\n');
+        write(line.bytes());
+        docs++;
+        if (logger != null) {
+            long now = System.currentTimeMillis();
+            if (now - lastProgress >= progressInterval) {
+                lastProgress = now;
+                logger.info("exporting to [{}]: {} docs, {}, {} docs/s",
+                        file, docs, new ByteSizeValue(bytes), docsPerSecond(now - startTime));
+            }
+        }
+    }
+
+    private void write(BytesReference bytes) throws IOException {
+        BytesRef ref = bytes.toBytesRef();
+        this.bytes += ref.length;
+        if (ref.length > buffer.remaining()) {
+            flush();
+            if (ref.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(ref.bytes, ref.offset, ref.length));
+                return;
+            }
+        }
+        buffer.put(ref.bytes, ref.offset, ref.length);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    private Map<String, Object> rebuildSource(Document doc, FieldInfos fieldInfos, TermOccurrenceBuffer terms,
+                                              ColumnBuffer columns, int slot) throws IOException {
+        Map<String, List<Object>> values = new LinkedHashMap<String, List<Object>>();
+        for (IndexableField f : doc.getFields()) {
+            if (f.name().startsWith("_")) {
+                continue;
+            }
+            FieldMapper mapper = mapperService.smartNameFieldMapper(f.name());
+            Object value = f.binaryValue() != null ? f.binaryValue() :
+                    f.stringValue() != null ? f.stringValue() : f.numericValue();
+            add(values, f.name(), mapper != null ? mapper.valueForSearch(value) : value);
+        }
+        // the fields that are not stored, from their terms
+        Map<String, List<Object>> indexed = new LinkedHashMap<String, List<Object>>();
+        Map<String, List<long[]>> tokens = new LinkedHashMap<String, List<long[]>>();
+        List<String> texts = new ArrayList<String>();
+        for (int entry = terms.first(slot); entry != TermOccurrenceBuffer.NO_MORE_ENTRIES; entry = terms.next(entry)) {
+            String name = fieldInfos.fieldInfo(terms.field(entry)).name;
+            if (name.startsWith("_") || values.containsKey(name)) {
+                continue;
+            }
+            FieldMapper mapper = mapperService.smartNameFieldMapper(name);
+            if (mapper != null && !name.equals(mapper.names().sourcePath())) {
+                // a multi field, its values are in the main field
+                continue;
+            }
+            BytesRef term = terms.term(entry);
+            if (mapper instanceof NumberFieldMapper || mapper instanceof BooleanFieldMapper) {
+                Object value = decode(mapper, term);
+                if (value != null) {
+                    add(indexed, name, value);
+                }
+                continue;
+            }
+            List<long[]> list = tokens.get(name);
+            if (list == null) {
+                list = new ArrayList<long[]>();
+                tokens.put(name, list);
+            }
+            int text = texts.size();
+            texts.add(term.utf8ToString());
+            if (terms.hasOccurrences(entry)) {
+                for (int k = 0; k < terms.freq(entry); k++) {
+                    list.add(new long[]{terms.position(entry, k), text});
+                }
+            } else {
+                list.add(new long[]{list.size(), text});
+            }
+        }
+        for (Map.Entry<String, List<long[]>> entry : tokens.entrySet()) {
+            long[][] sorted = entry.getValue().toArray(new long[entry.getValue().size()][]);
+            Arrays.sort(sorted, BY_POSITION);
+            StringBuilder sb = new StringBuilder();
+            for (long[] token : sorted) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(texts.get((int) token[1]));
+            }
+            add(indexed, entry.getKey(), sb.toString());
+        }
+        values.putAll(indexed);
+        for (int column = 0; column < columns.columns(); column++) {
+            int type = columns.type(column);
+            String name = fieldInfos.fieldInfo(columns.field(column)).name;
+            if ((type != ColumnBuffer.SORTED && type != ColumnBuffer.SORTED_SET)
+                    || name.startsWith("_") || values.containsKey(name)) {
+                continue;
+            }
+            FieldMapper mapper = mapperService.smartNameFieldMapper(name);
+            if (mapper != null && !name.equals(mapper.names().sourcePath())) {
+                continue;
+            }
+            for (int k = 0; k < columns.count(column, slot); k++) {
+                add(values, name, columns.bytes(column, slot, k).utf8ToString());
+            }
+        }
+        // dotted field names are object paths
+        Map<String, Object> source = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+            List<Object> list = entry.getValue();
+            put(source, entry.getKey().split("\\."), 0, list.size() == 1 ? list.get(0) : list);
+        }
+        return source;
+    }
+
+    /**
+     * Decode an indexed numeric or boolean term. Numeric fields are indexed with extra
+     * terms of lower precision, which are skipped.
+     *
+     * @return the value, or null if the term is not a full precision value
+     */
+    private static Object decode(FieldMapper mapper, BytesRef term) {
+        if (mapper instanceof BooleanFieldMapper) {
+            return term.length == 1 && term.bytes[term.offset] == 'T';
+        }
+        if (mapper instanceof LongFieldMapper || mapper instanceof DateFieldMapper
+                || mapper instanceof DoubleFieldMapper || mapper instanceof IpFieldMapper) {
+            if (term.length == 0 || NumericUtils.getPrefixCodedLongShift(term) != 0) {
+                return null;
+            }
+            long value = NumericUtils.prefixCodedToLong(term);
+            if (mapper instanceof DoubleFieldMapper) {
+                return NumericUtils.sortableLongToDouble(value);
+            }
+            if (mapper instanceof IpFieldMapper) {
+                return IpFieldMapper.longToIp(value);
+            }
+            return value;
+        }
+        if (mapper instanceof IntegerFieldMapper || mapper instanceof ShortFieldMapper
+                || mapper instanceof ByteFieldMapper || mapper instanceof FloatFieldMapper) {
+            if (term.length == 0 || NumericUtils.getPrefixCodedIntShift(term) != 0) {
+                return null;
+            }
+            int value = NumericUtils.prefixCodedToInt(term);
+            if (mapper instanceof FloatFieldMapper) {
+                return NumericUtils.sortableIntToFloat(value);
+            }
+            return value;
+        }
+        return null;
+    }
+
+    private static void add(Map<String, List<Object>> values, String name, Object value) {
+        List<Object> list = values.get(name);
+        if (list == null) {
+            list = new ArrayList<Object>();
+            values.put(name, list);
+        }
+        list.add(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> map, String[] path, int i, Object value) {
+        if (i == path.length - 1) {
+            if (!map.containsKey(path[i])) {
+                map.put(path[i], value);
+            }
+            return;
+        }
+        Object child = map.get(path[i]);
+        if (child == null) {
+            child = new LinkedHashMap<String, Object>();
+            map.put(path[i], child);
+        }
+        if (child instanceof Map) {
+            put((Map<String, Object>) child, path, i + 1, value);
+        }
+    }
+
+    /**
+     * Write the buffered lines and close the file
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (took >= 0) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+            fileChannel.close();
+            took = System.currentTimeMillis() - startTime;
+            fileBytes = file.length();
+        }
+    }
+
+    private long docsPerSecond(long millis) {
+        return millis > 0 ? docs * 1000L / millis : docs;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        long millis = took >= 0 ? took : System.currentTimeMillis() - startTime;
+        builder.startObject()
+                .field("file", file.getAbsolutePath())
+                .field("docs", docs)
+                .field("skipped", skipped)
+                .field("bytes", bytes)
+                .field("fileBytes", fileBytes)
+                .field("tookInMillis", millis)
+                .field("docsPerSecond", docsPerSecond(millis))
+                .field("bytesPerSecond", millis > 0 ? bytes * 1000L / millis : bytes)
+                .endObject();
+        return builder;
+    }
+}
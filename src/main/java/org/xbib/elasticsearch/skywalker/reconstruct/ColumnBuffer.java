@@ -0,0 +1,173 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+
+/**
+ * The doc values and norms of a window of documents, read column by column.
+ *
+ * A column holds the values of one field for all documents of the window. The
+ * values of a document in a column are a run in one long array: numbers for
+ * numeric doc values and norms, and indexes of the value bytes for the other
+ * doc values types. The start and the length of the run are kept per column and
+ * document. Like the term buffer, a column buffer is reset and reused for the
+ * next window.
+ */
+class ColumnBuffer {
+
+    static final int NUMERIC = 0;
+
+    static final int BINARY = 1;
+
+    static final int SORTED = 2;
+
+    static final int SORTED_NUMERIC = 3;
+
+    static final int SORTED_SET = 4;
+
+    static final int NORMS = 5;
+
+    private static final String[] TYPE_NAMES = {
+            "numeric", "binary", "sorted", "sorted_numeric", "sorted_set", "norms"
+    };
+
+    private final Counter valueBytes = Counter.newCounter();
+
+    private final BytesRefArray bytes = new BytesRefArray(valueBytes);
+
+    private final BytesRef spare = new BytesRef();
+
+    private int windowSize;
+
+    // per column
+    private int[] fields = new int[0];
+
+    private int[] types = new int[0];
+
+    private int columns;
+
+    // per column and document of the window
+    private int[] starts = new int[0];
+
+    private int[] counts = new int[0];
+
+    private long[] values = new long[0];
+
+    private int valueCount;
+
+    /**
+     * Reset the buffer for a new window
+     *
+     * @param windowSize the number of documents in the window
+     */
+    void reset(int windowSize) {
+        this.windowSize = windowSize;
+        columns = 0;
+        valueCount = 0;
+        bytes.clear();
+    }
+
+    /**
+     * Add a column. The values of the column must be added before the next column is added.
+     *
+     * @param field the field number
+     * @param type the doc values type, or {@link #NORMS}
+     * @return the column
+     */
+    int addColumn(int field, int type) {
+        if (columns == fields.length) {
+            int size = ArrayUtil.oversize(columns + 1, RamUsageEstimator.NUM_BYTES_INT);
+            fields = Arrays.copyOf(fields, size);
+            types = Arrays.copyOf(types, size);
+        }
+        int column = columns++;
+        fields[column] = field;
+        types[column] = type;
+        int end = columns * windowSize;
+        if (end > counts.length) {
+            int size = ArrayUtil.oversize(end, RamUsageEstimator.NUM_BYTES_INT);
+            starts = Arrays.copyOf(starts, size);
+            counts = Arrays.copyOf(counts, size);
+        }
+        Arrays.fill(counts, column * windowSize, end, 0);
+        return column;
+    }
+
+    /**
+     * Add a value of a document to the last added column
+     *
+     * @param column the column
+     * @param doc the document relative to the window
+     * @param value the number, or the index of the value bytes
+     */
+    void add(int column, int doc, long value) {
+        int i = column * windowSize + doc;
+        if (counts[i] == 0) {
+            starts[i] = valueCount;
+        }
+        counts[i]++;
+        values = ArrayUtil.grow(values, valueCount + 1);
+        values[valueCount++] = value;
+    }
+
+    /**
+     * Add the bytes of a value
+     *
+     * @param value the value
+     * @return the index of the value bytes
+     */
+    long addBytes(BytesRef value) {
+        return bytes.append(value);
+    }
+
+    int columns() {
+        return columns;
+    }
+
+    int field(int column) {
+        return fields[column];
+    }
+
+    int type(int column) {
+        return types[column];
+    }
+
+    static String typeName(int type) {
+        return TYPE_NAMES[type];
+    }
+
+    static boolean hasBytes(int type) {
+        return type == BINARY || type == SORTED || type == SORTED_SET;
+    }
+
+    int count(int column, int doc) {
+        return counts[column * windowSize + doc];
+    }
+
+    long value(int column, int doc, int k) {
+        return values[starts[column * windowSize + doc] + k];
+    }
+
+    /**
+     * The bytes of a value. The returned bytes are only valid until the next call.
+     */
+    BytesRef bytes(int column, int doc, int k) {
+        return bytes.get(spare, (int) value(column, doc, k));
+    }
+
+    /**
+     * The heap used by the arrays and the value bytes of this buffer
+     *
+     * @return the bytes
+     */
+    long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(fields) + RamUsageEstimator.sizeOf(types)
+                + RamUsageEstimator.sizeOf(starts) + RamUsageEstimator.sizeOf(counts)
+                + RamUsageEstimator.sizeOf(values) + valueBytes.get();
+    }
+}
@@ -2,25 +2,47 @@ package org.xbib.elasticsearch.skywalker.reconstruct;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.AtomicReader;
-import org.apache.lucene.index.CompositeReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.Fields;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexableField;
-import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.StringHelper;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.io.BytesStream;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.common.xcontent.ToXContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
 import org.xbib.elasticsearch.action.skywalker.support.IndexableFieldToXContent;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.ForkJoinTasks;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
@@ -32,10 +54,83 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
  * been skipped altogether by the Analyzer, when fields were originally added to
  * the index.
  *
+ * Terms are not looked up document by document. Instead, the postings of each
+ * field are walked once per window of document numbers, and the terms and
+ * positions are scattered into a packed buffer of the window. The cost of
+ * a reconstruction is about one scan of the postings per window, and the memory
+ * is bounded by the window size. The buffers are reused from window to window,
+ * and the largest buffer is reported as "windowBytes".
+ *
+ * Fields with term vectors are not read from the postings. Their terms, positions,
+ * and offsets are taken from the term vectors of the documents in the window.
+ * The path used for each field is reported in "paths", as "term_vectors+postings"
+ * if some documents of a field with term vectors fell back to the postings.
+ *
+ * Doc values and norms are read column by column, one field after the other,
+ * for the documents of a window in document order, and are emitted with the
+ * terms as "docValues" and "norms".
+ *
+ * Each segment is reconstructed on its own, without a merged view of the
+ * segments. Windows never span segments. If a fork-join pool is given, up to
+ * as many windows as the pool is parallel are scattered at once, and the
+ * documents are emitted in global document order, using the doc base of the
+ * segments.
+ *
+ * A window holds the selected documents of a segment, not a range of document
+ * numbers, so a sparse selection, like the hits of a query, costs one postings
+ * pass per window of hits, and the postings are advanced from hit to hit.
+ *
+ * The live documents are reconstructed, unless the deleted documents, which keep
+ * their terms until their segments are merged, or all documents are selected.
+ *
+ * The documents can be split into parts by the hash of their UID. The document
+ * numbers of the copies of a shard differ, but the UIDs do not, so each copy
+ * can reconstruct its own part.
  */
 public class DocumentReconstructor {
 
-    private AtomicReader reader;
+    /**
+     * The default number of documents in a window
+     */
+    public static final int DEFAULT_WINDOW = 1024;
+
+    private static final String TERM_VECTORS = "term_vectors";
+
+    private static final String POSTINGS = "postings";
+
+    private static final String MIXED = TERM_VECTORS + "+" + POSTINGS;
+
+    private final IndexReader reader;
+
+    private DocumentSelection selection = DocumentSelection.LIVE;
+
+    private ForkJoinPool pool;
+
+    private int window = DEFAULT_WINDOW;
+
+    private int from = 0;
+
+    private int to = -1;
+
+    private int size = 0;
+
+    private int[] docs;
+
+    private BulkFileExporter exporter;
+
+    private int part = 0;
+
+    private int parts = 1;
+
+    private final FixedBitSet[] partitions;
+
+    private int nextDoc = -1;
+
+    private final ConcurrentMap<String, String> paths = ConcurrentCollections.newConcurrentMap();
+
+    private Deadline deadline = Deadline.NONE;
+
+    private MemoryAccounting accounting = MemoryAccounting.NONE;
 
     /**
      * Prepare a document reconstructor.
@@ -47,21 +142,153 @@ public class DocumentReconstructor {
         if (indexReader == null) {
             throw new ElasticsearchIllegalArgumentException("reader cannot be null");
         }
-        try {
-            if (indexReader instanceof CompositeReader) {
-                this.reader = SlowCompositeReaderWrapper.wrap(indexReader);
-            } else if (indexReader instanceof AtomicReader) {
-                this.reader = (AtomicReader) indexReader;
-            } else {
-                throw new ElasticsearchIllegalArgumentException("unsupported IndexReader class " + indexReader.getClass().getName());
-            }
-        } catch (IOException e) {
-            throw new ElasticsearchIllegalArgumentException(e.getMessage());
+        this.reader = indexReader;
+        this.partitions = new FixedBitSet[indexReader.leaves().size()];
+    }
+
+    /**
+     * Set the fork-join pool for scattering the terms of several windows in parallel
+     *
+     * @param pool the pool, or null for scattering in the calling thread
+     * @return this reconstructor
+     */
+    public DocumentReconstructor pool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Set the time budget. If the deadline expires, the reconstruction stops after
+     * the current document and the result is flagged as timed out.
+     *
+     * @param deadline the deadline
+     * @return this reconstructor
+     */
+    public DocumentReconstructor deadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set the number of documents whose terms are collected in one pass over the postings.
+     * Larger windows mean fewer passes, smaller windows mean less memory.
+     *
+     * @param window the number of documents in a window
+     * @return this reconstructor
+     */
+    public DocumentReconstructor window(int window) {
+        if (window < 1) {
+            throw new ElasticsearchIllegalArgumentException("window must be positive");
+        }
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * Set the range of document numbers to reconstruct
+     *
+     * @param from the first document number
+     * @param to the document number after the range, or -1 for all documents
+     * @return this reconstructor
+     */
+    public DocumentReconstructor range(int from, int to) {
+        if (from < 0) {
+            throw new ElasticsearchIllegalArgumentException("from must not be negative");
+        }
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Select the documents to reconstruct by their deletion state. The default are the
+     * live documents. The selection does not apply to documents given by {@link #docs(int[])}.
+     *
+     * @param selection the selection
+     * @return this reconstructor
+     */
+    public DocumentReconstructor select(DocumentSelection selection) {
+        this.selection = selection;
+        return this;
+    }
+
+    /**
+     * Select the documents to reconstruct, instead of the documents of the selection.
+     * The range still applies.
+     *
+     * @param docs the global document numbers, ascending and distinct
+     * @return this reconstructor
+     */
+    public DocumentReconstructor docs(int[] docs) {
+        this.docs = docs;
+        return this;
+    }
+
+    /**
+     * Reconstruct only a part of the selected documents. Deleted documents of a reader with
+     * deletions can not be partitioned, because the copies of a shard do not hold the same
+     * deleted documents.
+     *
+     * @param part the part, from 0 to parts - 1
+     * @param parts the number of parts, 1 for all documents
+     * @return this reconstructor
+     */
+    public DocumentReconstructor partition(int part, int parts) {
+        if (parts < 1 || part < 0 || part >= parts) {
+            throw new ElasticsearchIllegalArgumentException("invalid part " + part + " of " + parts);
         }
+        this.part = part;
+        this.parts = parts;
+        return this;
+    }
+
+    /**
+     * Write the documents to a bulk file instead of the "docs" array of the result
+     *
+     * @param exporter the exporter, or null
+     * @return this reconstructor
+     */
+    public DocumentReconstructor exporter(BulkFileExporter exporter) {
+        this.exporter = exporter;
+        return this;
+    }
+
+    /**
+     * Set the page size. The reconstruction stops after this number of documents,
+     * and {@link #nextDoc()} tells where to continue.
+     *
+     * @param size the number of documents, or 0 for no limit
+     * @return this reconstructor
+     */
+    public DocumentReconstructor size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * The document number where the last reconstruction should be continued,
+     * because the page is full or the deadline expired
+     *
+     * @return the next document number, or -1 if the range is complete
+     */
+    public int nextDoc() {
+        return nextDoc;
     }
 
     /**
-     * Reconstruct an index shard
+     * Set the memory accounting. The growing output is reserved after each document.
+     *
+     * @param accounting the memory accounting
+     * @return this reconstructor
+     */
+    public DocumentReconstructor accounting(MemoryAccounting accounting) {
+        this.accounting = accounting;
+        return this;
+    }
+
+    /**
+     * Reconstruct an index shard. If documents are given, only these are reconstructed.
+     * Otherwise the documents of the selection are reconstructed, by default the live documents.
      *
      * @return reconstructed document
      * @throws Exception
@@ -69,76 +296,681 @@ public class DocumentReconstructor {
     public XContentBuilder reconstruct(int shardId) throws IOException {
         XContentBuilder builder = jsonBuilder();
         builder.startObject()
-                .field("shardId", shardId)
-                .field("numDeletions", reader.numDeletedDocs());
-        builder.startArray("docs");
-        FieldInfos fieldInfos = reader.getFieldInfos();
-        Bits live = MultiFields.getLiveDocs(reader);
-        for (int docNum = 0; docNum < reader.maxDoc(); docNum++) {
-            Document doc = reader.document(docNum);
-            if (live != null && live.get(docNum)) {
-                continue; // not deleted
-            }
-            builder.startObject().startArray("fields");
-            if (fieldInfos != null) {
-                for (FieldInfo fi : fieldInfos) {
-                    String name = fi.name;
-                    IndexableField[] fs = doc.getFields(name);
-                    if (fs != null && fs.length > 0) {
-                        for (IndexableField f : fs) {
-                            IndexableFieldToXContent x = new IndexableFieldToXContent().field(f);
-                            x.toXContent(builder, ToXContent.EMPTY_PARAMS);
-                        }
+                .field("shardId", shardId);
+        reconstruct(builder);
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * Reconstruct the documents of the range into an open object
+     *
+     * @param builder the builder
+     * @return the builder
+     * @throws IOException
+     */
+    public XContentBuilder reconstruct(XContentBuilder builder) throws IOException {
+        if (selection != DocumentSelection.LIVE && docs == null && parts > 1 && reader.hasDeletions()) {
+            // deleted documents stay in a copy until its segments are merged, and the copies
+            // merge independently, so the parts of the copies would not add up
+            throw new ElasticsearchIllegalArgumentException("deleted documents can not be split over copies");
+        }
+        builder.field("numDeletions", reader.numDeletedDocs());
+        if (exporter == null) {
+            builder.startArray("docs");
+        }
+        int maxDoc = to >= 0 ? Math.min(to, reader.maxDoc()) : reader.maxDoc();
+        int windowSize = size > 0 ? Math.min(window, size) : window;
+        int parallelism = pool != null ? pool.getParallelism() : 1;
+        WindowIterator windows = new WindowIterator(from, maxDoc, windowSize);
+        boolean timedOut = false;
+        long reservedBytes = 0L;
+        int count = 0;
+        nextDoc = -1;
+        List<Window> batch = new ArrayList<Window>(parallelism);
+        TermOccurrenceBuffer[] buffers = new TermOccurrenceBuffer[parallelism];
+        ColumnBuffer[] columnBuffers = new ColumnBuffer[parallelism];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new TermOccurrenceBuffer();
+            columnBuffers[i] = new ColumnBuffer();
+        }
+        long reservedWindowBytes = 0L;
+        long windowBytes = 0L;
+        int windowCount = 0;
+        while (windows.hasNext() && nextDoc < 0) {
+            if (size > 0 && count == size) {
+                nextDoc = windows.next().start();
+                break;
+            }
+            if (deadline.isExpired()) {
+                timedOut = true;
+                nextDoc = windows.next().start();
+                break;
+            }
+            // do not scatter more windows than the page can take
+            int batchSize = parallelism;
+            if (size > 0) {
+                batchSize = Math.min(batchSize, Math.max(1, (size - count + windowSize - 1) / windowSize));
+            }
+            batch.clear();
+            while (windows.hasNext() && batch.size() < batchSize) {
+                batch.add(windows.next().buffer(buffers[batch.size()], columnBuffers[batch.size()]));
+            }
+            if (pool != null && batch.size() > 1) {
+                ForkJoinTasks.invokeAll(pool, batch);
+            } else {
+                try {
+                    for (Window w : batch) {
+                        w.invoke();
                     }
+                } catch (ForkJoinTasks.TaskIOException e) {
+                    throw e.getCause();
+                }
+            }
+            long bytes = 0L;
+            for (int i = 0; i < buffers.length; i++) {
+                long used = buffers[i].ramBytesUsed() + columnBuffers[i].ramBytesUsed();
+                windowBytes = Math.max(windowBytes, used);
+                bytes += used;
+            }
+            accounting.reserve(bytes - reservedWindowBytes, "reconstruct window");
+            reservedWindowBytes = bytes;
+            for (Window w : batch) {
+                TermOccurrenceBuffer terms = w.getRawResult();
+                if (terms == null) {
+                    // the window is incomplete, it will be the next one
+                    timedOut = true;
+                    nextDoc = w.start();
+                    break;
+                }
+                windowCount++;
+                AtomicReader leafReader = w.leaf.reader();
+                FieldInfos fieldInfos = leafReader.getFieldInfos();
+                for (int slot = 0; slot < w.length; slot++) {
+                    int doc = w.docs[slot];
+                    if (size > 0 && count == size) {
+                        nextDoc = w.leaf.docBase + doc;
+                        break;
+                    }
+                    count++;
+                    if (exporter != null) {
+                        exporter.write(leafReader.document(doc), fieldInfos, terms, w.columns, slot);
+                        continue;
+                    }
+                    emit(builder, leafReader, fieldInfos, w.leaf.docBase + doc, doc, terms, w.columns, slot);
+                    long outputBytes = outputBytes(builder);
+                    accounting.reserve(outputBytes - reservedBytes, "reconstruct");
+                    reservedBytes = outputBytes;
+                }
+                if (nextDoc >= 0) {
+                    break;
+                }
+            }
+        }
+        if (exporter == null) {
+            builder.endArray();
+        }
+        builder.field("count", count);
+        builder.field("windows", windowCount);
+        builder.field("windowBytes", windowBytes);
+        if (timedOut) {
+            builder.field("timedOut", true);
+        }
+        if (nextDoc >= 0) {
+            builder.field("nextDoc", nextDoc);
+        }
+        builder.field("paths", new TreeMap<String, Object>(paths));
+        builder.field("peakEstimatedBytes", accounting.peak());
+        return builder;
+    }
+
+    private void emit(XContentBuilder builder, AtomicReader leafReader, FieldInfos fieldInfos,
+                      int docNum, int leafDoc, TermOccurrenceBuffer terms, ColumnBuffer columns,
+                      int slot) throws IOException {
+        Document doc = leafReader.document(leafDoc);
+        builder.startObject()
+                .field("doc", docNum)
+                .startArray("fields");
+        if (fieldInfos != null) {
+            for (FieldInfo fi : fieldInfos) {
+                IndexableField[] fs = doc.getFields(fi.name);
+                if (fs != null && fs.length > 0) {
+                    for (IndexableField f : fs) {
+                        IndexableFieldToXContent x = new IndexableFieldToXContent().field(f);
+                        x.toXContent(builder, ToXContent.EMPTY_PARAMS);
+                    }
+                }
+            }
+        }
+        builder.endArray();
+        builder.startArray("terms");
+        for (int entry = terms.first(slot); entry != TermOccurrenceBuffer.NO_MORE_ENTRIES; entry = terms.next(entry)) {
+            int freq = terms.freq(entry);
+            builder.startObject()
+                    .field(Names.FIELD, fieldInfos.fieldInfo(terms.field(entry)).name)
+                    .utf8Field(Names.TEXT, terms.term(entry));
+            builder.startArray(Names.POSITIONS);
+            if (terms.hasOccurrences(entry)) {
+                for (int k = 0; k < freq; k++) {
+                    builder.value(terms.position(entry, k));
                 }
             }
             builder.endArray();
-            builder.startArray("terms");
-            if (fieldInfos != null) {
-                TermsEnum te = null;
-                DocsAndPositionsEnum dpe = null;
-                for (FieldInfo fi : fieldInfos) {
-                    Terms terms = MultiFields.getTerms(reader, fi.name);
-                    if (terms == null) { // no terms in this field
+            builder.startArray(Names.STARTS);
+            if (terms.hasOccurrences(entry)) {
+                for (int k = 0; k < freq; k++) {
+                    builder.value(terms.startOffset(entry, k));
+                }
+            }
+            builder.endArray();
+            builder.startArray(Names.ENDS);
+            if (terms.hasOccurrences(entry)) {
+                for (int k = 0; k < freq; k++) {
+                    builder.value(terms.endOffset(entry, k));
+                }
+            }
+            builder.endArray();
+            builder.field(Names.COUNT, freq)
+                    .endObject();
+        }
+        builder.endArray();
+        builder.startArray("docValues");
+        for (int column = 0; column < columns.columns(); column++) {
+            int type = columns.type(column);
+            int count = columns.count(column, slot);
+            if (type == ColumnBuffer.NORMS || count == 0) {
+                continue;
+            }
+            builder.startObject()
+                    .field(Names.FIELD, fieldInfos.fieldInfo(columns.field(column)).name)
+                    .field(Names.TYPE, ColumnBuffer.typeName(type))
+                    .startArray(Names.VALUES);
+            for (int k = 0; k < count; k++) {
+                if (type == ColumnBuffer.BINARY) {
+                    BytesRef value = columns.bytes(column, slot, k);
+                    builder.value(value.bytes, value.offset, value.length);
+                } else if (ColumnBuffer.hasBytes(type)) {
+                    builder.value(columns.bytes(column, slot, k).utf8ToString());
+                } else {
+                    builder.value(columns.value(column, slot, k));
+                }
+            }
+            builder.endArray()
+                    .endObject();
+        }
+        builder.endArray();
+        builder.startObject(Names.NORMS);
+        for (int column = 0; column < columns.columns(); column++) {
+            if (columns.type(column) == ColumnBuffer.NORMS && columns.count(column, slot) > 0) {
+                builder.field(fieldInfos.fieldInfo(columns.field(column)).name, columns.value(column, slot, 0));
+            }
+        }
+        builder.endObject();
+        builder.endObject();
+    }
+
+    /**
+     * Generates the windows of the selected documents lazily, in global document order.
+     * A window takes up to the window size of selected documents of one segment.
+     */
+    private class WindowIterator {
+
+        private final List<AtomicReaderContext> leaves = reader.leaves();
+
+        private final int maxDoc;
+
+        private final int windowSize;
+
+        // the next global document number, or the next index into the selected documents
+        private int pos;
+
+        private Window next;
+
+        WindowIterator(int from, int maxDoc, int windowSize) {
+            this.maxDoc = maxDoc;
+            this.windowSize = windowSize;
+            if (docs != null) {
+                while (pos < docs.length && docs[pos] < from) {
+                    pos++;
+                }
+            } else {
+                pos = from;
+            }
+        }
+
+        boolean hasNext() throws IOException {
+            if (next == null) {
+                next = docs != null ? nextOfDocs() : nextOfRange();
+            }
+            return next != null;
+        }
+
+        Window next() throws IOException {
+            hasNext();
+            Window w = next;
+            next = null;
+            return w;
+        }
+
+        private Window nextOfRange() throws IOException {
+            while (pos < maxDoc) {
+                AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(pos, leaves));
+                int leafTo = Math.min(maxDoc, leaf.docBase + leaf.reader().maxDoc()) - leaf.docBase;
+                Bits live = leaf.reader().getLiveDocs();
+                if (selection == DocumentSelection.DELETED && live == null) {
+                    // nothing deleted in this segment
+                    pos = leaf.docBase + leafTo;
+                    continue;
+                }
+                Bits partition = partition(leaf);
+                int[] slots = null;
+                int length = 0;
+                int doc = pos - leaf.docBase;
+                for (; doc < leafTo && length < windowSize; doc++) {
+                    if (isSelected(live, doc) && (partition == null || partition.get(doc))) {
+                        if (slots == null) {
+                            slots = new int[windowSize];
+                        }
+                        slots[length++] = doc;
+                    }
+                }
+                pos = leaf.docBase + doc;
+                if (length > 0) {
+                    return new Window(leaf, slots, length);
+                }
+            }
+            return null;
+        }
+
+        private Window nextOfDocs() throws IOException {
+            while (pos < docs.length && docs[pos] < maxDoc) {
+                AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(docs[pos], leaves));
+                int leafTo = Math.min(maxDoc, leaf.docBase + leaf.reader().maxDoc());
+                Bits partition = partition(leaf);
+                int[] slots = null;
+                int length = 0;
+                for (; pos < docs.length && docs[pos] < leafTo && length < windowSize; pos++) {
+                    int doc = docs[pos] - leaf.docBase;
+                    if (partition == null || partition.get(doc)) {
+                        if (slots == null) {
+                            slots = new int[windowSize];
+                        }
+                        slots[length++] = doc;
+                    }
+                }
+                if (length > 0) {
+                    return new Window(leaf, slots, length);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Scatters the terms of a window of a segment
+     */
+    private class Window extends RecursiveTask<TermOccurrenceBuffer> {
+
+        private final AtomicReaderContext leaf;
+
+        // the selected document numbers of the segment, ascending
+        private final int[] docs;
+
+        private final int length;
+
+        private TermOccurrenceBuffer buffer;
+
+        private ColumnBuffer columns;
+
+        Window(AtomicReaderContext leaf, int[] docs, int length) {
+            this.leaf = leaf;
+            this.docs = docs;
+            this.length = length;
+        }
+
+        int start() {
+            return leaf.docBase + docs[0];
+        }
+
+        Window buffer(TermOccurrenceBuffer buffer, ColumnBuffer columns) {
+            this.buffer = buffer;
+            this.columns = columns;
+            return this;
+        }
+
+        @Override
+        protected TermOccurrenceBuffer compute() {
+            AtomicReader leafReader = leaf.reader();
+            buffer.reset(length);
+            columns.reset(length);
+            try {
+                if (!scatterTerms(leafReader, leafReader.getFieldInfos(), docs, length, buffer)
+                        || !readColumns(leafReader, leafReader.getFieldInfos(), docs, length, columns)) {
+                    return null;
+                }
+                return buffer;
+            } catch (IOException e) {
+                throw new ForkJoinTasks.TaskIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Walk the postings of all fields once and scatter the terms of the selected
+     * documents into the buffer of the window. The postings are read without the
+     * live docs, because deleted documents keep their postings until they are merged away.
+     * The postings of a term are advanced from one selected document to the next.
+     * Fields with term vectors are read from the term vectors of the selected documents,
+     * documents without term vectors for such a field fall back to the postings.
+     *
+     * @param reader the segment reader
+     * @param fieldInfos the field infos
+     * @param docs the selected document numbers of the window, ascending
+     * @param length the number of selected documents
+     * @param buffer the buffer of the window
+     * @return true if complete, false if the deadline expired
+     * @throws IOException
+     */
+    private boolean scatterTerms(AtomicReader reader, FieldInfos fieldInfos, int[] docs, int length,
+                                 TermOccurrenceBuffer buffer) throws IOException {
+        if (fieldInfos == null) {
+            return true;
+        }
+        Fields[] vectors = fieldInfos.hasVectors() ? termVectors(reader, docs, length) : null;
+        long iterations = 0L;
+        TermsEnum te = null;
+        DocsEnum de = null;
+        DocsAndPositionsEnum dpe = null;
+        for (FieldInfo fi : fieldInfos) {
+            if (!fi.isIndexed()) {
+                continue;
+            }
+            // the slots whose terms are read from the postings, null for all slots
+            int[] slots = null;
+            int count = length;
+            if (fi.hasVectors()) {
+                int missing = 0;
+                for (int slot = 0; slot < length; slot++) {
+                    Terms terms = vectors[slot] != null ? vectors[slot].terms(fi.name) : null;
+                    if (terms == null) {
+                        // the flag is per segment, a document may still have no vectors for the field
+                        if (slots == null) {
+                            slots = new int[length];
+                        }
+                        slots[missing++] = slot;
                         continue;
                     }
+                    boolean hasOccurrences = terms.hasPositions() || terms.hasOffsets();
                     te = terms.iterator(te);
-                    while (te.next() != null) {
-                        DocsAndPositionsEnum newDpe = te.docsAndPositions(live, dpe, 0);
-                        if (newDpe == null) { // no position info for this field
+                    BytesRef term;
+                    while ((term = te.next()) != null) {
+                        if (deadline.isExpired(++iterations)) {
+                            return false;
+                        }
+                        if (hasOccurrences) {
+                            dpe = te.docsAndPositions(null, dpe, DocsAndPositionsEnum.FLAG_OFFSETS);
+                        } else {
+                            dpe = null;
+                        }
+                        int freq = (int) te.totalTermFreq();
+                        if (dpe != null && dpe.nextDoc() != DocsEnum.NO_MORE_DOCS) {
+                            freq = dpe.freq();
+                        }
+                        buffer.add(slot, fi.number, buffer.addTerm(term), freq, dpe != null);
+                        if (dpe != null) {
+                            for (int k = 0; k < freq; k++) {
+                                buffer.occurrence(dpe.nextPosition(), dpe.startOffset(), dpe.endOffset());
+                            }
+                        }
+                    }
+                }
+                if (missing < length) {
+                    path(fi.name, TERM_VECTORS);
+                }
+                if (missing == 0) {
+                    continue;
+                }
+                count = missing;
+            }
+            Terms terms = reader.terms(fi.name);
+            if (terms == null) { // no terms in this field
+                continue;
+            }
+            path(fi.name, POSTINGS);
+            boolean hasPositions = terms.hasPositions();
+            int flags = terms.hasOffsets() ? DocsAndPositionsEnum.FLAG_OFFSETS : 0;
+            te = terms.iterator(te);
+            BytesRef term;
+            while ((term = te.next()) != null) {
+                if (deadline.isExpired(++iterations)) {
+                    return false;
+                }
+                DocsEnum postings;
+                if (hasPositions) {
+                    dpe = te.docsAndPositions(null, dpe, flags);
+                    postings = dpe;
+                } else {
+                    de = te.docs(null, de, DocsEnum.FLAG_FREQS);
+                    postings = de;
+                }
+                int termIndex = -1;
+                int i = 0;
+                int docNum = postings.advance(docs[slots == null ? 0 : slots[0]]);
+                while (docNum != DocsEnum.NO_MORE_DOCS) {
+                    while (i < count && docs[slots == null ? i : slots[i]] < docNum) {
+                        i++;
+                    }
+                    if (i == count) {
+                        break;
+                    }
+                    int slot = slots == null ? i : slots[i];
+                    if (docs[slot] == docNum) {
+                        if (termIndex < 0) {
+                            termIndex = buffer.addTerm(term);
+                        }
+                        int freq = postings.freq();
+                        buffer.add(slot, fi.number, termIndex, freq, hasPositions);
+                        if (hasPositions) {
+                            for (int k = 0; k < freq; k++) {
+                                buffer.occurrence(dpe.nextPosition(), dpe.startOffset(), dpe.endOffset());
+                            }
+                        }
+                        if (++i == count) {
                             break;
                         }
-                        dpe = newDpe;
-                        int num = dpe.advance(docNum);
-                        if (num != docNum) { // either greater than or NO_MORE_DOCS
-                            continue; // no data for this term in this doc
+                    }
+                    docNum = postings.advance(docs[slots == null ? i : slots[i]]);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read the doc values and norms of the selected documents of a window, one field
+     * after the other, each in document order
+     *
+     * @param reader the segment reader
+     * @param fieldInfos the field infos
+     * @param docs the selected document numbers of the window, ascending
+     * @param length the number of selected documents
+     * @param columns the column buffer of the window
+     * @return true if complete, false if the deadline expired
+     * @throws IOException
+     */
+    private boolean readColumns(AtomicReader reader, FieldInfos fieldInfos, int[] docs, int length,
+                                ColumnBuffer columns) throws IOException {
+        if (fieldInfos == null) {
+            return true;
+        }
+        long iterations = 0L;
+        for (FieldInfo fi : fieldInfos) {
+            if (deadline.isExpired(iterations += length)) {
+                return false;
+            }
+            if (fi.hasDocValues()) {
+                Bits docsWithField = reader.getDocsWithField(fi.name);
+                switch (fi.getDocValuesType()) {
+                    case NUMERIC: {
+                        NumericDocValues values = reader.getNumericDocValues(fi.name);
+                        int column = columns.addColumn(fi.number, ColumnBuffer.NUMERIC);
+                        for (int slot = 0; slot < length; slot++) {
+                            if (docsWithField == null || docsWithField.get(docs[slot])) {
+                                columns.add(column, slot, values.get(docs[slot]));
+                            }
+                        }
+                        break;
+                    }
+                    case BINARY: {
+                        BinaryDocValues values = reader.getBinaryDocValues(fi.name);
+                        int column = columns.addColumn(fi.number, ColumnBuffer.BINARY);
+                        for (int slot = 0; slot < length; slot++) {
+                            if (docsWithField == null || docsWithField.get(docs[slot])) {
+                                columns.add(column, slot, columns.addBytes(values.get(docs[slot])));
+                            }
                         }
-                        String text = te.term().utf8ToString();
-                        List<Integer> positions = new ArrayList();
-                        List<Integer> starts = new ArrayList();
-                        List<Integer> ends = new ArrayList();
-                        for (int k = 0; k < dpe.freq(); k++) {
-                            int pos = dpe.nextPosition();
-                            positions.add(pos);
-                            starts.add(dpe.startOffset());
-                            ends.add(dpe.endOffset());
+                        break;
+                    }
+                    case SORTED: {
+                        SortedDocValues values = reader.getSortedDocValues(fi.name);
+                        int column = columns.addColumn(fi.number, ColumnBuffer.SORTED);
+                        for (int slot = 0; slot < length; slot++) {
+                            int ord = values.getOrd(docs[slot]);
+                            if (ord >= 0) {
+                                columns.add(column, slot, columns.addBytes(values.lookupOrd(ord)));
+                            }
+                        }
+                        break;
+                    }
+                    case SORTED_NUMERIC: {
+                        SortedNumericDocValues values = reader.getSortedNumericDocValues(fi.name);
+                        int column = columns.addColumn(fi.number, ColumnBuffer.SORTED_NUMERIC);
+                        for (int slot = 0; slot < length; slot++) {
+                            values.setDocument(docs[slot]);
+                            for (int k = 0; k < values.count(); k++) {
+                                columns.add(column, slot, values.valueAt(k));
+                            }
+                        }
+                        break;
+                    }
+                    case SORTED_SET: {
+                        SortedSetDocValues values = reader.getSortedSetDocValues(fi.name);
+                        int column = columns.addColumn(fi.number, ColumnBuffer.SORTED_SET);
+                        for (int slot = 0; slot < length; slot++) {
+                            values.setDocument(docs[slot]);
+                            for (long ord = values.nextOrd(); ord != SortedSetDocValues.NO_MORE_ORDS; ord = values.nextOrd()) {
+                                columns.add(column, slot, columns.addBytes(values.lookupOrd(ord)));
+                            }
                         }
-                        builder.startObject()
-                                .field("text", text)
-                                .field("positions", positions)
-                                .field("starts", starts)
-                                .field("ends", ends)
-                                .field("count", dpe.freq())
-                                .endObject();
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            if (fi.hasNorms()) {
+                NumericDocValues norms = reader.getNormValues(fi.name);
+                if (norms != null) {
+                    int column = columns.addColumn(fi.number, ColumnBuffer.NORMS);
+                    for (int slot = 0; slot < length; slot++) {
+                        columns.add(column, slot, norms.get(docs[slot]));
                     }
                 }
             }
-            builder.endArray();
-            builder.endObject();
         }
-        builder.endArray();
-        builder.endObject();
-        return builder;
+        return true;
+    }
+
+    /**
+     * Record the path of a field. Windows run in parallel, and a field read by
+     * both paths is reported as mixed.
+     */
+    private void path(String field, String path) {
+        String previous = paths.putIfAbsent(field, path);
+        while (previous != null && !previous.equals(path) && !previous.equals(MIXED)) {
+            if (paths.replace(field, previous, MIXED)) {
+                return;
+            }
+            previous = paths.get(field);
+        }
+    }
+
+    /**
+     * Load the term vectors of the selected documents of a window, once for all fields
+     */
+    private Fields[] termVectors(AtomicReader reader, int[] docs, int length) throws IOException {
+        Fields[] vectors = new Fields[length];
+        for (int slot = 0; slot < length; slot++) {
+            vectors[slot] = reader.getTermVectors(docs[slot]);
+        }
+        return vectors;
+    }
+
+    /**
+     * The documents of the part of a segment, found by one pass over the UID terms.
+     * Deleted documents keep their UID terms, so they belong to a part, too.
+     *
+     * @param leaf the segment
+     * @return the documents of the part, or null if the documents are not split
+     * @throws IOException
+     */
+    private Bits partition(AtomicReaderContext leaf) throws IOException {
+        if (parts <= 1) {
+            return null;
+        }
+        FixedBitSet bits = partitions[leaf.ord];
+        if (bits == null) {
+            AtomicReader leafReader = leaf.reader();
+            bits = new FixedBitSet(leafReader.maxDoc());
+            accounting.reserve(RamUsageEstimator.sizeOf(bits.getBits()), "reconstruct partition");
+            Terms terms = leafReader.terms(UidFieldMapper.NAME);
+            if (terms != null) {
+                TermsEnum te = terms.iterator(null);
+                DocsEnum de = null;
+                BytesRef uid;
+                while ((uid = te.next()) != null) {
+                    if ((StringHelper.murmurhash3_x86_32(uid, 0) & Integer.MAX_VALUE) % parts != part) {
+                        continue;
+                    }
+                    de = te.docs(null, de, DocsEnum.FLAG_NONE);
+                    for (int doc = de.nextDoc(); doc != DocsEnum.NO_MORE_DOCS; doc = de.nextDoc()) {
+                        bits.set(doc);
+                    }
+                }
+            }
+            partitions[leaf.ord] = bits;
+        }
+        return bits;
+    }
+
+    private boolean isSelected(Bits live, int docNum) {
+        switch (selection) {
+            case DELETED:
+                return live != null && !live.get(docNum);
+            case ALL:
+                return true;
+            default:
+                return live == null || live.get(docNum);
+        }
     }
 
+    private static long outputBytes(XContentBuilder builder) throws IOException {
+        if (builder.stream() instanceof BytesStream) {
+            builder.flush();
+            return ((BytesStream) builder.stream()).bytes().length();
+        }
+        return 0L;
+    }
+
+    static final class Names {
+        static final XContentBuilderString FIELD = new XContentBuilderString("field");
+        static final XContentBuilderString TEXT = new XContentBuilderString("text");
+        static final XContentBuilderString POSITIONS = new XContentBuilderString("positions");
+        static final XContentBuilderString STARTS = new XContentBuilderString("starts");
+        static final XContentBuilderString ENDS = new XContentBuilderString("ends");
+        static final XContentBuilderString COUNT = new XContentBuilderString("count");
+        static final XContentBuilderString TYPE = new XContentBuilderString("type");
+        static final XContentBuilderString VALUES = new XContentBuilderString("values");
+        static final XContentBuilderString NORMS = new XContentBuilderString("norms");
+    }
 }
@@ -0,0 +1,49 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+
+/**
+ * Which documents of a shard are reconstructed, by their deletion state
+ */
+public enum DocumentSelection {
+
+    /**
+     * The live documents, for recovering an index
+     */
+    LIVE("live"),
+
+    /**
+     * The deleted documents that are not merged away yet
+     */
+    DELETED("deleted"),
+
+    /**
+     * The live and the deleted documents
+     */
+    ALL("all");
+
+    private final String fieldName;
+
+    DocumentSelection(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * The name of the selection in requests
+     *
+     * @return the name
+     */
+    public String fieldName() {
+        return fieldName;
+    }
+
+    public static DocumentSelection fromString(String selection) {
+        for (DocumentSelection s : values()) {
+            if (s.fieldName.equals(selection)) {
+                return s;
+            }
+        }
+        throw new ElasticsearchIllegalArgumentException("unknown selection [" + selection
+                + "], expected [live], [deleted] or [all]");
+    }
+}
@@ -0,0 +1,98 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.elasticsearch.common.lease.Releasable;
+import org.elasticsearch.index.engine.Engine;
+
+/**
+ * A searcher that is pinned between the pages of a paged reconstruction, so all
+ * pages see the same point-in-time view of the shard. The context expires if it
+ * is not accessed within its keep-alive. While a page is read, the context is in
+ * use and does not expire.
+ */
+public class ReconstructContext implements Releasable {
+
+    private final long id;
+
+    private final String index;
+
+    private final int shardId;
+
+    private final Engine.Searcher searcher;
+
+    private volatile int[] docs;
+
+    private volatile long keepAlive;
+
+    private volatile long lastAccessTime;
+
+    private boolean inUse;
+
+    public ReconstructContext(long id, String index, int shardId, Engine.Searcher searcher) {
+        this.id = id;
+        this.index = index;
+        this.shardId = shardId;
+        this.searcher = searcher;
+    }
+
+    public long id() {
+        return id;
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public int shardId() {
+        return shardId;
+    }
+
+    public Engine.Searcher searcher() {
+        return searcher;
+    }
+
+    /**
+     * Keep the documents selected by a query, so the next pages reconstruct the same documents
+     *
+     * @param docs the global document numbers, ascending
+     */
+    public void docs(int[] docs) {
+        this.docs = docs;
+    }
+
+    /**
+     * The documents selected by a query
+     *
+     * @return the global document numbers, or null if no query was given
+     */
+    public int[] docs() {
+        return docs;
+    }
+
+    /**
+     * Mark the context as in use by a page, until it is accessed again
+     */
+    public synchronized void inUse() {
+        this.inUse = true;
+    }
+
+    /**
+     * Mark the context as accessed after a page, the keep-alive starts again
+     *
+     * @param now the current time in milliseconds
+     * @param keepAlive the keep-alive in milliseconds
+     */
+    public synchronized void accessed(long now, long keepAlive) {
+        this.lastAccessTime = now;
+        this.keepAlive = keepAlive;
+        this.inUse = false;
+    }
+
+    public synchronized boolean isExpired(long now) {
+        return !inUse && now - lastAccessTime > keepAlive;
+    }
+
+    @Override
+    public void close() {
+        searcher.close();
+    }
+}
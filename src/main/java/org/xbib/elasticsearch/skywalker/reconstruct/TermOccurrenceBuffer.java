@@ -0,0 +1,187 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefArray;
+import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.Arrays;
+
+/**
+ * The term occurrences of a window of documents, packed into growable int arrays.
+ *
+ * An entry is a term in a document, with its field number, the index of its term
+ * bytes, its frequency, and the offset of its occurrences. The occurrences are
+ * packed into one data array, three ints per occurrence: position, start offset,
+ * and end offset. The entries of a document are chained in the order they were
+ * added. The term bytes of the window are appended once to a byte block pool.
+ *
+ * A buffer is reset and reused for the next window, so after the arrays have
+ * grown to the size of a window, adding entries allocates nothing.
+ */
+class TermOccurrenceBuffer {
+
+    static final int NO_MORE_ENTRIES = -1;
+
+    private static final int NO_OCCURRENCES = -1;
+
+    private final Counter termBytes = Counter.newCounter();
+
+    private final BytesRefArray terms = new BytesRefArray(termBytes);
+
+    private final BytesRef spare = new BytesRef();
+
+    // per document of the window
+    private int[] head = new int[0];
+
+    private int[] tail = new int[0];
+
+    // per entry
+    private int[] next = new int[0];
+
+    private int[] fields = new int[0];
+
+    private int[] termIndexes = new int[0];
+
+    private int[] freqs = new int[0];
+
+    private int[] offsets = new int[0];
+
+    private int entries;
+
+    // position, start offset, end offset per occurrence
+    private int[] data = new int[0];
+
+    private int dataLength;
+
+    /**
+     * Reset the buffer for a new window
+     *
+     * @param windowSize the number of documents in the window
+     */
+    void reset(int windowSize) {
+        if (head.length < windowSize) {
+            head = new int[ArrayUtil.oversize(windowSize, RamUsageEstimator.NUM_BYTES_INT)];
+            tail = new int[head.length];
+        }
+        Arrays.fill(head, 0, windowSize, NO_MORE_ENTRIES);
+        Arrays.fill(tail, 0, windowSize, NO_MORE_ENTRIES);
+        entries = 0;
+        dataLength = 0;
+        terms.clear();
+    }
+
+    /**
+     * Add the bytes of a term
+     *
+     * @param term the term
+     * @return the index of the term bytes
+     */
+    int addTerm(BytesRef term) {
+        return terms.append(term);
+    }
+
+    /**
+     * Add a term to a document. If the field has positions, exactly freq occurrences
+     * must follow.
+     *
+     * @param doc the document number relative to the window
+     * @param field the field number
+     * @param termIndex the index of the term bytes
+     * @param freq the term frequency in the document
+     * @param withOccurrences true if occurrences follow
+     */
+    void add(int doc, int field, int termIndex, int freq, boolean withOccurrences) {
+        if (entries == next.length) {
+            int size = ArrayUtil.oversize(entries + 1, RamUsageEstimator.NUM_BYTES_INT);
+            next = Arrays.copyOf(next, size);
+            fields = Arrays.copyOf(fields, size);
+            termIndexes = Arrays.copyOf(termIndexes, size);
+            freqs = Arrays.copyOf(freqs, size);
+            offsets = Arrays.copyOf(offsets, size);
+        }
+        int entry = entries++;
+        next[entry] = NO_MORE_ENTRIES;
+        fields[entry] = field;
+        termIndexes[entry] = termIndex;
+        freqs[entry] = freq;
+        if (withOccurrences) {
+            offsets[entry] = dataLength;
+            data = ArrayUtil.grow(data, dataLength + 3 * freq);
+        } else {
+            offsets[entry] = NO_OCCURRENCES;
+        }
+        if (tail[doc] == NO_MORE_ENTRIES) {
+            head[doc] = entry;
+        } else {
+            next[tail[doc]] = entry;
+        }
+        tail[doc] = entry;
+    }
+
+    /**
+     * Add an occurrence to the last added entry
+     */
+    void occurrence(int position, int startOffset, int endOffset) {
+        data[dataLength++] = position;
+        data[dataLength++] = startOffset;
+        data[dataLength++] = endOffset;
+    }
+
+    int first(int doc) {
+        return head[doc];
+    }
+
+    int next(int entry) {
+        return next[entry];
+    }
+
+    int field(int entry) {
+        return fields[entry];
+    }
+
+    /**
+     * The term bytes of an entry. The returned bytes are only valid until the next call.
+     */
+    BytesRef term(int entry) {
+        return terms.get(spare, termIndexes[entry]);
+    }
+
+    int freq(int entry) {
+        return freqs[entry];
+    }
+
+    boolean hasOccurrences(int entry) {
+        return offsets[entry] != NO_OCCURRENCES;
+    }
+
+    int position(int entry, int k) {
+        return data[offsets[entry] + 3 * k];
+    }
+
+    int startOffset(int entry, int k) {
+        return data[offsets[entry] + 3 * k + 1];
+    }
+
+    int endOffset(int entry, int k) {
+        return data[offsets[entry] + 3 * k + 2];
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    /**
+     * The heap used by the arrays and the term bytes of this buffer
+     *
+     * @return the bytes
+     */
+    long ramBytesUsed() {
+        return RamUsageEstimator.sizeOf(head) + RamUsageEstimator.sizeOf(tail)
+                + RamUsageEstimator.sizeOf(next) + RamUsageEstimator.sizeOf(fields)
+                + RamUsageEstimator.sizeOf(termIndexes) + RamUsageEstimator.sizeOf(freqs)
+                + RamUsageEstimator.sizeOf(offsets) + RamUsageEstimator.sizeOf(data)
+                + termBytes.get();
+    }
+}
@@ -1,4 +1,3 @@
-
 package org.xbib.elasticsearch.skywalker.stats;
 
 /**
@@ -10,9 +9,22 @@ public class FieldTermCount implements Comparable<FieldTermCount> {
 
     private long termCount;
 
+    private boolean approximate;
+
     public FieldTermCount(String fieldname, long termCount) {
+        this(fieldname, termCount, false);
+    }
+
+    /**
+     * @param fieldname the field name
+     * @param termCount the number of unique terms in the field
+     * @param approximate true if the count is an upper bound summed up over segments
+     *                    and not an exact count of unique terms
+     */
+    public FieldTermCount(String fieldname, long termCount, boolean approximate) {
         this.fieldname = fieldname;
         this.termCount = termCount;
+        this.approximate = approximate;
     }
 
     public String getFieldname() {
@@ -23,13 +35,18 @@ public class FieldTermCount implements Comparable<FieldTermCount> {
         return termCount;
     }
 
+    public boolean isApproximate() {
+        return approximate;
+    }
+
     public int compareTo(FieldTermCount f2) {
         if (termCount > f2.termCount) {
             return -1;
         } else if (termCount < f2.termCount) {
             return 1;
         } else {
-            return 0;
+            // do not collapse fields with equal term counts in sorted sets
+            return fieldname.compareTo(f2.fieldname);
         }
     }
 }
@@ -0,0 +1,228 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.FieldFilter;
+import org.xbib.elasticsearch.skywalker.ForkJoinTasks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the unique terms of all fields by walking the segments of a reader
+ * in parallel on a bounded fork-join pool.
+ *
+ * Each segment uses Terms.size() if the codec knows the number of terms,
+ * and enumerates the terms only if it must. Fields that exist in more than
+ * one segment are merged either exactly, by enumerating the merged terms of
+ * the field, or estimated by the sum of the segment counts. The sum is an
+ * upper bound of the unique terms and is flagged as approximate.
+ *
+ * Segment counts can be cached by the core cache key of the segment, so
+ * after a refresh only the new segments are counted.
+ */
+public class FieldTermCounter {
+
+    private final IndexReader reader;
+
+    private final ForkJoinPool pool;
+
+    private final boolean exact;
+
+    private final FieldFilter filter;
+
+    private final SegmentStatsCache cache;
+
+    private Deadline deadline = Deadline.NONE;
+
+    private long numTerms;
+
+    public FieldTermCounter(IndexReader reader, ForkJoinPool pool, boolean exact) {
+        this(reader, pool, exact, FieldFilter.ALL);
+    }
+
+    public FieldTermCounter(IndexReader reader, ForkJoinPool pool, boolean exact, FieldFilter filter) {
+        this(reader, pool, exact, filter, null);
+    }
+
+    /**
+     * @param reader the reader
+     * @param pool the fork-join pool for walking the segments
+     * @param exact true if unique terms of fields spanning several segments must be counted exactly
+     * @param filter the field filter
+     * @param cache the cache for segment term counts, or null
+     */
+    public FieldTermCounter(IndexReader reader, ForkJoinPool pool, boolean exact, FieldFilter filter,
+                            SegmentStatsCache cache) {
+        this.reader = reader;
+        this.pool = pool;
+        this.exact = exact;
+        this.filter = filter;
+        this.cache = cache;
+    }
+
+    /**
+     * Set the deadline that is checked while terms are enumerated
+     *
+     * @param deadline the deadline
+     * @return this counter
+     */
+    public FieldTermCounter deadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public Set<FieldTermCount> count() throws IOException {
+        List<LeafTermCountTask> leafTasks = new ArrayList<LeafTermCountTask>();
+        for (AtomicReaderContext context : reader.leaves()) {
+            leafTasks.add(new LeafTermCountTask(context, filter, cache, deadline));
+        }
+        ForkJoinTasks.invokeAll(pool, leafTasks);
+        // field name -> counts of the segments containing the field
+        Map<String, List<Long>> segmentCounts = new HashMap<String, List<Long>>();
+        for (LeafTermCountTask task : leafTasks) {
+            for (Map.Entry<String, Long> entry : task.getRawResult().entrySet()) {
+                List<Long> counts = segmentCounts.get(entry.getKey());
+                if (counts == null) {
+                    counts = new ArrayList<Long>();
+                    segmentCounts.put(entry.getKey(), counts);
+                }
+                counts.add(entry.getValue());
+            }
+        }
+        Set<FieldTermCount> termCounts = new TreeSet<FieldTermCount>();
+        List<MergedTermCountTask> mergeTasks = new ArrayList<MergedTermCountTask>();
+        numTerms = 0L;
+        for (Map.Entry<String, List<Long>> entry : segmentCounts.entrySet()) {
+            List<Long> counts = entry.getValue();
+            if (counts.size() == 1) {
+                termCounts.add(new FieldTermCount(entry.getKey(), counts.get(0)));
+                numTerms += counts.get(0);
+            } else if (exact) {
+                mergeTasks.add(new MergedTermCountTask(entry.getKey()));
+            } else {
+                long sum = 0L;
+                for (Long count : counts) {
+                    sum += count;
+                }
+                termCounts.add(new FieldTermCount(entry.getKey(), sum, true));
+                numTerms += sum;
+            }
+        }
+        ForkJoinTasks.invokeAll(pool, mergeTasks);
+        for (MergedTermCountTask task : mergeTasks) {
+            termCounts.add(new FieldTermCount(task.field, task.getRawResult()));
+            numTerms += task.getRawResult();
+        }
+        return termCounts;
+    }
+
+    /**
+     * The total number of terms of the last count. If any field count is approximate,
+     * this number is approximate, too.
+     *
+     * @return the total number of terms
+     */
+    public long getNumTerms() {
+        return numTerms;
+    }
+
+    private static long countTerms(Terms terms, Deadline deadline) throws IOException {
+        if (terms == null) {
+            return 0L;
+        }
+        long size = terms.size();
+        if (size >= 0) {
+            return size;
+        }
+        // the codec does not know the number of terms, we must enumerate
+        long count = 0L;
+        TermsEnum te = terms.iterator(null);
+        while (te.next() != null) {
+            deadline.check(++count);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the terms per field in a single segment
+     */
+    private static class LeafTermCountTask extends RecursiveTask<Map<String, Long>> {
+
+        private final AtomicReaderContext context;
+
+        private final FieldFilter filter;
+
+        private final SegmentStatsCache cache;
+
+        private final Deadline deadline;
+
+        LeafTermCountTask(AtomicReaderContext context, FieldFilter filter, SegmentStatsCache cache,
+                          Deadline deadline) {
+            this.context = context;
+            this.filter = filter;
+            this.cache = cache;
+            this.deadline = deadline;
+        }
+
+        @Override
+        protected Map<String, Long> compute() {
+            Map<String, Long> counts = new HashMap<String, Long>();
+            try {
+                SegmentStatsCache.SegmentStats segmentStats = cache != null ? cache.get(context.reader()) : null;
+                Fields fields = context.reader().fields();
+                if (fields != null) {
+                    for (String field : fields) {
+                        if (!filter.accept(field)) {
+                            continue;
+                        }
+                        Long count = segmentStats != null ? segmentStats.termCount(field) : null;
+                        if (count == null) {
+                            count = countTerms(fields.terms(field), deadline);
+                            if (segmentStats != null) {
+                                segmentStats.termCount(field, count);
+                            }
+                        }
+                        counts.put(field, count);
+                    }
+                }
+            } catch (IOException e) {
+                throw new ForkJoinTasks.TaskIOException(e);
+            }
+            return counts;
+        }
+    }
+
+    /**
+     * Counts the unique terms of a field over all segments
+     */
+    private class MergedTermCountTask extends RecursiveTask<Long> {
+
+        private final String field;
+
+        MergedTermCountTask(String field) {
+            this.field = field;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                return countTerms(MultiFields.getTerms(reader, field), deadline);
+            } catch (IOException e) {
+                throw new ForkJoinTasks.TaskIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+/**
+ * Term stats summed up over shards. The error upper bound is the maximum
+ * number by which the ranking metric of this term may be underestimated,
+ * because the term was not among the top terms returned by some shards, or
+ * because the shards returned approximate stats for it.
+ */
+public class ReducedTermStats {
+
+    private final String field;
+    private final String text;
+    private long docFreq;
+    private long totalTermFreq;
+    private long errorUpperBound;
+    // sum of the error bounds of the shards that returned this term
+    private long presentErrorBound;
+
+    // sum of the errors of the term stats returned by the shards
+    private long termErrorBound;
+
+    public ReducedTermStats(String field, String text, long docFreq, long totalTermFreq) {
+        this(field, text, docFreq, totalTermFreq, 0L);
+    }
+
+    /**
+     * @param field the field
+     * @param text the term text
+     * @param docFreq the document frequency
+     * @param totalTermFreq the total term frequency
+     * @param termErrorBound the error upper bound of the metric of these stats, if they
+     *                       were already reduced from incomplete lists
+     */
+    public ReducedTermStats(String field, String text, long docFreq, long totalTermFreq, long termErrorBound) {
+        this.field = field;
+        this.text = text;
+        this.docFreq = docFreq;
+        this.totalTermFreq = totalTermFreq;
+        this.termErrorBound = termErrorBound;
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public long docFreq() {
+        return docFreq;
+    }
+
+    public long totalTermFreq() {
+        return totalTermFreq;
+    }
+
+    public long errorUpperBound() {
+        return errorUpperBound;
+    }
+
+    public long value(TermStatsMetric metric) {
+        return metric == TermStatsMetric.DOC_FREQ ? docFreq : totalTermFreq;
+    }
+
+    void merge(ReducedTermStats other, long shardErrorBound) {
+        this.docFreq += other.docFreq;
+        this.totalTermFreq += other.totalTermFreq;
+        this.presentErrorBound += shardErrorBound;
+        this.termErrorBound += other.termErrorBound;
+    }
+
+    void presentErrorBound(long presentErrorBound) {
+        this.presentErrorBound = presentErrorBound;
+    }
+
+    void computeErrorUpperBound(long totalErrorBound) {
+        this.errorUpperBound = totalErrorBound - presentErrorBound + termErrorBound;
+    }
+
+    public String toString() {
+        return field + ":" + text + ":" + docFreq + ":" + totalTermFreq + ":" + errorUpperBound;
+    }
+}
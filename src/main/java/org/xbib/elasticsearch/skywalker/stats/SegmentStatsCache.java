@@ -0,0 +1,248 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.index.AtomicReader;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalCause;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.cache.Weigher;
+import org.elasticsearch.common.lucene.SegmentReaderUtils;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-level cache of segment statistics, keyed by the core cache key of a segment.
+ *
+ * The term dictionary of a segment never changes, deletions do not alter term
+ * statistics, so the term counts and top term candidates of a segment stay valid
+ * until the segment core is closed. Entries are removed by a core closed listener.
+ *
+ * Top term candidates depend on the request options, so there may be many of them
+ * per segment. They are held in a shared LRU cache that is bounded by their estimated
+ * bytes, and the cached bytes are reserved on the circuit breaker. Candidates that
+ * do not fit under the breaker limit are not cached.
+ */
+public class SegmentStatsCache {
+
+    private final ConcurrentMap<Object, SegmentStats> segments = ConcurrentCollections.newConcurrentMap();
+
+    private final Cache<TopTermsKey, CachedTopTerms> topTerms;
+
+    private final MemoryCircuitBreaker breaker;
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric misses = new CounterMetric();
+
+    private final CounterMetric evictions = new CounterMetric();
+
+    private final AtomicReader.CoreClosedListener listener = new AtomicReader.CoreClosedListener() {
+        @Override
+        public void onClose(Object ownerCoreCacheKey) {
+            SegmentStats stats = segments.remove(ownerCoreCacheKey);
+            if (stats != null) {
+                for (Object options : stats.topTermsOptions) {
+                    topTerms.invalidate(new TopTermsKey(ownerCoreCacheKey, options));
+                }
+            }
+        }
+    };
+
+    /**
+     * @param maxTopTermsSize the maximum estimated bytes of the cached top term candidates
+     * @param breaker the breaker on which the cached top term candidates are reserved, or null
+     */
+    public SegmentStatsCache(ByteSizeValue maxTopTermsSize, MemoryCircuitBreaker breaker) {
+        this.breaker = breaker;
+        this.topTerms = CacheBuilder.newBuilder()
+                .maximumWeight(maxTopTermsSize.bytes())
+                .weigher(new Weigher<TopTermsKey, CachedTopTerms>() {
+                    @Override
+                    public int weigh(TopTermsKey key, CachedTopTerms value) {
+                        return (int) Math.min(Integer.MAX_VALUE, value.bytes);
+                    }
+                })
+                .removalListener(new RemovalListener<TopTermsKey, CachedTopTerms>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<TopTermsKey, CachedTopTerms> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.inc();
+                        }
+                        SegmentStats stats = segments.get(notification.getKey().coreKey);
+                        if (stats != null && notification.getCause() != RemovalCause.REPLACED) {
+                            stats.topTermsOptions.remove(notification.getKey().options);
+                        }
+                        if (SegmentStatsCache.this.breaker != null) {
+                            SegmentStatsCache.this.breaker.addWithoutBreaking(-notification.getValue().bytes);
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * The statistics of a segment. If the reader is not a segment reader, the statistics
+     * are not cached, because there is no way to tell when the segment is closed.
+     *
+     * @param reader the segment reader
+     * @return the statistics of the segment
+     */
+    public SegmentStats get(AtomicReader reader) {
+        Object key = reader.getCoreCacheKey();
+        SegmentStats stats = segments.get(key);
+        if (stats != null) {
+            return stats;
+        }
+        stats = new SegmentStats(key);
+        SegmentStats existing = segments.putIfAbsent(key, stats);
+        if (existing != null) {
+            return existing;
+        }
+        if (!SegmentReaderUtils.registerCoreListener(reader, listener)) {
+            segments.remove(key);
+        }
+        return stats;
+    }
+
+    public void clear() {
+        segments.clear();
+        topTerms.invalidateAll();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("segments", segments.size());
+        m.put("hits", hits.count());
+        m.put("misses", misses.count());
+        m.put("topTermsEntries", topTerms.size());
+        m.put("topTermsEvictions", evictions.count());
+        return m;
+    }
+
+    /**
+     * The cached statistics of a single segment
+     */
+    public class SegmentStats {
+
+        private final Object coreKey;
+
+        private final ConcurrentMap<String, Long> termCounts = ConcurrentCollections.newConcurrentMap();
+
+        // the options of the cached top term candidates, for invalidation when the core closes
+        private final Set<Object> topTermsOptions = ConcurrentCollections.newConcurrentSet();
+
+        SegmentStats(Object coreKey) {
+            this.coreKey = coreKey;
+        }
+
+        /**
+         * The number of unique terms of a field in this segment
+         *
+         * @param field the field
+         * @return the number of terms, or null if not cached
+         */
+        public Long termCount(String field) {
+            Long count = termCounts.get(field);
+            if (count != null) {
+                hits.inc();
+            } else {
+                misses.inc();
+            }
+            return count;
+        }
+
+        public void termCount(String field, long count) {
+            termCounts.put(field, count);
+        }
+
+        /**
+         * The top term candidates of this segment
+         *
+         * @param options the collector options, must implement equals() and hashCode()
+         * @return the collector with the drained top terms, or null if not cached
+         */
+        public TopTermsCollector topTerms(Object options) {
+            CachedTopTerms cached = topTerms.getIfPresent(new TopTermsKey(coreKey, options));
+            if (cached != null) {
+                hits.inc();
+                return cached.collector;
+            }
+            misses.inc();
+            return null;
+        }
+
+        /**
+         * Cache the top term candidates of this segment, unless their bytes do not fit
+         * under the breaker limit
+         *
+         * @param options the collector options
+         * @param collector the collector with the drained top terms
+         */
+        public void topTerms(Object options, TopTermsCollector collector) {
+            long bytes = collector.allocatedBytes();
+            if (breaker != null) {
+                try {
+                    breaker.addEstimateBytesAndMaybeBreak(bytes, "skywalker segment top terms");
+                } catch (CircuitBreakingException e) {
+                    return;
+                }
+            }
+            topTermsOptions.add(options);
+            topTerms.put(new TopTermsKey(coreKey, options), new CachedTopTerms(collector, bytes));
+            if (!segments.containsKey(coreKey)) {
+                // the core was closed meanwhile
+                topTerms.invalidate(new TopTermsKey(coreKey, options));
+            }
+        }
+    }
+
+    private static class TopTermsKey {
+
+        private final Object coreKey;
+
+        private final Object options;
+
+        TopTermsKey(Object coreKey, Object options) {
+            this.coreKey = coreKey;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TopTermsKey)) {
+                return false;
+            }
+            TopTermsKey other = (TopTermsKey) o;
+            return coreKey == other.coreKey && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(coreKey) + options.hashCode();
+        }
+    }
+
+    private static class CachedTopTerms {
+
+        private final TopTermsCollector collector;
+
+        private final long bytes;
+
+        CachedTopTerms(TopTermsCollector collector, long bytes) {
+            this.collector = collector;
+            this.bytes = bytes;
+        }
+    }
+}
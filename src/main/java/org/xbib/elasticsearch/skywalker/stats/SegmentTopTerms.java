@@ -0,0 +1,230 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.FieldFilter;
+import org.xbib.elasticsearch.skywalker.ForkJoinTasks;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Top terms of a reader, combined from the top term candidates of its segments.
+ *
+ * Each segment is asked for more candidates than needed, and the candidates are
+ * reduced like shard results, so the top terms carry an error upper bound. The
+ * candidates of a segment are cached by its core cache key, so after a refresh
+ * only the new segments are scanned.
+ */
+public class SegmentTopTerms {
+
+    private final IndexReader reader;
+
+    private final ForkJoinPool pool;
+
+    private final SegmentStatsCache cache;
+
+    private final int size;
+
+    private final int fieldSize;
+
+    private final TermStatsMetric[] metrics;
+
+    private final FieldFilter filter;
+
+    private Deadline deadline = Deadline.NONE;
+
+    private MemoryAccounting accounting = MemoryAccounting.NONE;
+
+    private TermStatsReducer topTerms;
+
+    private Map<String, TermStatsReducer[]> fieldTopTerms;
+
+    private int scannedSegments;
+
+    /**
+     * @param reader the reader
+     * @param pool the fork-join pool for walking the segments
+     * @param cache the cache for segment top term candidates, or null
+     * @param size the number of top terms over all fields
+     * @param fieldSize the number of top terms per field, or 0 for none
+     * @param metrics the metrics for ranking the top terms per field
+     * @param filter the field filter
+     */
+    public SegmentTopTerms(IndexReader reader, ForkJoinPool pool, SegmentStatsCache cache,
+                           int size, int fieldSize, TermStatsMetric[] metrics, FieldFilter filter) {
+        this.reader = reader;
+        this.pool = pool;
+        this.cache = cache;
+        this.size = size;
+        this.fieldSize = fieldSize;
+        this.metrics = metrics;
+        this.filter = filter;
+    }
+
+    /**
+     * Set the deadline that is checked while terms are collected
+     *
+     * @param deadline the deadline
+     * @return this
+     */
+    public SegmentTopTerms deadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set the memory accounting for the collectors of the scanned segments
+     *
+     * @param accounting the memory accounting
+     * @return this
+     */
+    public SegmentTopTerms accounting(MemoryAccounting accounting) {
+        this.accounting = accounting;
+        return this;
+    }
+
+    public SegmentTopTerms collect() throws IOException {
+        int segmentSize = TermStatsReducer.shardSize(size);
+        int segmentFieldSize = fieldSize > 0 ? TermStatsReducer.shardSize(fieldSize) : 0;
+        Object options = Arrays.asList(segmentSize, segmentFieldSize, Arrays.asList(metrics), filter);
+        List<LeafTopTermsTask> tasks = new ArrayList<LeafTopTermsTask>();
+        for (AtomicReaderContext context : reader.leaves()) {
+            tasks.add(new LeafTopTermsTask(context, options, segmentSize, segmentFieldSize));
+        }
+        ForkJoinTasks.invokeAll(pool, tasks);
+        topTerms = new TermStatsReducer(size, TermStatsMetric.DOC_FREQ);
+        fieldTopTerms = new HashMap<String, TermStatsReducer[]>();
+        scannedSegments = 0;
+        for (LeafTopTermsTask task : tasks) {
+            if (task.scanned) {
+                scannedSegments++;
+            }
+            TopTermsCollector collector = task.getRawResult();
+            topTerms.addShard(toReducedTermStats(null, collector.topTerms()), segmentSize);
+            for (Map.Entry<String, Map<TermStatsMetric, TermStats[]>> entry : collector.fieldTopTerms().entrySet()) {
+                TermStatsReducer[] reducers = fieldTopTerms.get(entry.getKey());
+                if (reducers == null) {
+                    reducers = new TermStatsReducer[metrics.length];
+                    for (int i = 0; i < metrics.length; i++) {
+                        reducers[i] = new TermStatsReducer(fieldSize, metrics[i]);
+                    }
+                    fieldTopTerms.put(entry.getKey(), reducers);
+                }
+                for (TermStatsReducer reducer : reducers) {
+                    TermStats[] stats = entry.getValue().get(reducer.metric());
+                    if (stats != null) {
+                        reducer.addShard(toReducedTermStats(entry.getKey(), stats), segmentFieldSize);
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * The top terms over all fields, ranked by document frequency
+     *
+     * @return the reducer holding the top terms
+     */
+    public TermStatsReducer topTerms() {
+        return topTerms;
+    }
+
+    /**
+     * The top terms per field, one reducer per metric
+     *
+     * @return the reducers per field
+     */
+    public Map<String, TermStatsReducer[]> fieldTopTerms() {
+        return fieldTopTerms;
+    }
+
+    public int segments() {
+        return reader.leaves().size();
+    }
+
+    public int scannedSegments() {
+        return scannedSegments;
+    }
+
+    private static List<ReducedTermStats> toReducedTermStats(String field, TermStats[] stats) {
+        // the reducer modifies the term stats, so the cached candidates are copied
+        List<ReducedTermStats> list = new ArrayList<ReducedTermStats>(stats.length);
+        for (TermStats ts : stats) {
+            list.add(new ReducedTermStats(field != null ? field : ts.field(), ts.text(),
+                    ts.docFreq(), ts.totalTermFreq()));
+        }
+        return list;
+    }
+
+    /**
+     * Collects the top term candidates of a single segment, or takes them from the cache
+     */
+    private class LeafTopTermsTask extends RecursiveTask<TopTermsCollector> {
+
+        private final AtomicReaderContext context;
+
+        private final Object options;
+
+        private final int segmentSize;
+
+        private final int segmentFieldSize;
+
+        private boolean scanned;
+
+        LeafTopTermsTask(AtomicReaderContext context, Object options, int segmentSize, int segmentFieldSize) {
+            this.context = context;
+            this.options = options;
+            this.segmentSize = segmentSize;
+            this.segmentFieldSize = segmentFieldSize;
+        }
+
+        @Override
+        protected TopTermsCollector compute() {
+            SegmentStatsCache.SegmentStats segmentStats = cache != null ? cache.get(context.reader()) : null;
+            TopTermsCollector collector = segmentStats != null ? segmentStats.topTerms(options) : null;
+            if (collector != null) {
+                return collector;
+            }
+            collector = new TopTermsCollector(segmentSize, segmentFieldSize, metrics).deadline(deadline)
+                    .accounting(accounting);
+            try {
+                Fields fields = context.reader().fields();
+                if (fields != null) {
+                    TermsEnum te = null;
+                    for (String field : fields) {
+                        if (!filter.accept(field)) {
+                            continue;
+                        }
+                        Terms terms = fields.terms(field);
+                        if (terms != null) {
+                            te = terms.iterator(te);
+                            collector.collect(field, te);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new ForkJoinTasks.TaskIOException(e);
+            }
+            // drain the queue before the collector is shared
+            collector.topTerms();
+            scanned = true;
+            if (segmentStats != null) {
+                segmentStats.topTerms(options, collector);
+            }
+            return collector;
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class TermStats {
     private String field;
     private BytesRef termtext;
     private int docFreq;
+    private long totalTermFreq;
 
     public TermStats text(BytesRef text) {
         this.termtext =  text;
@@ -21,6 +22,15 @@ public class TermStats {
         return termtext.utf8ToString();
     }
 
+    /**
+     * The term bytes. The term bytes of queue entries are reused for new terms.
+     *
+     * @return the term bytes
+     */
+    public BytesRef bytes() {
+        return termtext;
+    }
+
     public TermStats field(String field) {
         this.field = field;
         return this;
@@ -39,6 +49,15 @@ public class TermStats {
         return docFreq;
     }
 
+    public TermStats totalTermFreq(long totalTermFreq) {
+        this.totalTermFreq = totalTermFreq;
+        return this;
+    }
+
+    public long totalTermFreq() {
+        return totalTermFreq;
+    }
+
     public String toString() {
         return field + ":" + termtext.utf8ToString() + ":" + docFreq;
     }
@@ -0,0 +1,51 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+
+/**
+ *  Term stats metrics for ranking terms
+ */
+public enum TermStatsMetric {
+
+    DOC_FREQ("docFreq"),
+
+    TOTAL_TERM_FREQ("totalTermFreq");
+
+    private final String fieldName;
+
+    TermStatsMetric(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * The name of the metric in requests and responses
+     *
+     * @return the name
+     */
+    public String fieldName() {
+        return fieldName;
+    }
+
+    public long value(TermStats termStats) {
+        return this == DOC_FREQ ? termStats.docFreq() : termStats.totalTermFreq();
+    }
+
+    /**
+     * Parse a ranking, which is either a metric name or "both"
+     *
+     * @param ranking the ranking
+     * @return the metrics for the ranking
+     */
+    public static TermStatsMetric[] parseRanking(String ranking) {
+        if ("both".equals(ranking)) {
+            return values();
+        }
+        for (TermStatsMetric metric : values()) {
+            if (metric.fieldName.equals(ranking)) {
+                return new TermStatsMetric[]{metric};
+            }
+        }
+        throw new ElasticsearchIllegalArgumentException("unknown ranking [" + ranking
+                + "], expected [docFreq], [totalTermFreq] or [both]");
+    }
+}
@@ -1,6 +1,7 @@
 
 package org.xbib.elasticsearch.skywalker.stats;
 
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.PriorityQueue;
 
 /**
@@ -8,12 +9,47 @@ import org.apache.lucene.util.PriorityQueue;
  */
 public class TermStatsQueue extends PriorityQueue<TermStats> {
 
+    private final TermStatsMetric metric;
+
     public TermStatsQueue(int size) {
-        super(size);
+        this(size, false, TermStatsMetric.DOC_FREQ);
+    }
+
+    /**
+     * Create a term stats queue.
+     *
+     * @param size the queue size
+     * @param prePopulate if true, the queue is filled with sentinel term stats having
+     *                    a negative document frequency, so the top entry can always be
+     *                    overwritten and updated without allocating new entries
+     */
+    public TermStatsQueue(int size, boolean prePopulate) {
+        this(size, prePopulate, TermStatsMetric.DOC_FREQ);
+    }
+
+    /**
+     * Create a term stats queue that ranks by a metric.
+     *
+     * @param size the queue size
+     * @param prePopulate if true, the queue is filled with sentinel term stats
+     * @param metric the metric for ranking the terms
+     */
+    public TermStatsQueue(int size, boolean prePopulate, TermStatsMetric metric) {
+        super(size, prePopulate);
+        this.metric = metric;
+    }
+
+    public TermStatsMetric metric() {
+        return metric;
+    }
+
+    @Override
+    protected TermStats getSentinelObject() {
+        return new TermStats().text(new BytesRef()).docFreq(-1).totalTermFreq(-1L);
     }
 
     @Override
     protected boolean lessThan(TermStats termInfoA, TermStats termInfoB) {
-        return termInfoA.docFreq() < termInfoB.docFreq();
+        return metric.value(termInfoA) < metric.value(termInfoB);
     }
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the top terms of many shards into a global top terms list by summing up
+ * document frequencies and total term frequencies, the same way the terms aggregation
+ * reduces shard buckets.
+ *
+ * Shards are asked for more terms than needed (see {@link #shardSize(int)}). A shard
+ * that returned a full list may hold more terms with a metric up to the value of its
+ * last returned term, so that value is the shard's error bound. The error upper bound
+ * of a reduced term is the sum of the error bounds of the shards that did not return it.
+ * Shards that returned fewer terms than asked for are complete and have no error.
+ *
+ * Shard lists may themselves be reduced from incomplete lists, like the top terms of
+ * a shard that are reduced from segment candidates. The error upper bound of such a
+ * list is added to the error bound of the shard, and the error of each returned term
+ * is added to the error of the reduced term.
+ */
+public class TermStatsReducer {
+
+    private final int size;
+
+    private final TermStatsMetric metric;
+
+    private final Map<String, Map<String, ReducedTermStats>> terms;
+
+    private long errorUpperBound;
+
+    private int shards;
+
+    public TermStatsReducer(int size, TermStatsMetric metric) {
+        this.size = size;
+        this.metric = metric;
+        this.terms = new HashMap<String, Map<String, ReducedTermStats>>();
+    }
+
+    /**
+     * The number of terms to request from each shard for a given number of top terms.
+     *
+     * @param size the number of top terms
+     * @return the number of terms to request from each shard
+     */
+    public static int shardSize(int size) {
+        return Math.max(size, (int) (size * 1.5 + 10));
+    }
+
+    /**
+     * Add the top terms of a shard.
+     *
+     * @param shardTerms the shard top terms, highest metric first
+     * @param shardSize the number of terms the shard was asked for
+     */
+    public void addShard(List<ReducedTermStats> shardTerms, int shardSize) {
+        addShard(shardTerms, shardSize, 0L);
+    }
+
+    /**
+     * Add the approximate top terms of a shard.
+     *
+     * @param shardTerms the shard top terms, highest metric first, with their own error bounds
+     * @param shardSize the number of terms the shard was asked for
+     * @param shardErrorUpperBound the maximum metric of a term that is missing from the shard list
+     *                             because the list was reduced from incomplete lists
+     */
+    public void addShard(List<ReducedTermStats> shardTerms, int shardSize, long shardErrorUpperBound) {
+        long shardErrorBound = shardErrorUpperBound + (shardTerms.size() < shardSize || shardTerms.isEmpty() ? 0L :
+                shardTerms.get(shardTerms.size() - 1).value(metric));
+        for (ReducedTermStats term : shardTerms) {
+            Map<String, ReducedTermStats> fieldTerms = terms.get(term.field());
+            if (fieldTerms == null) {
+                fieldTerms = new HashMap<String, ReducedTermStats>();
+                terms.put(term.field(), fieldTerms);
+            }
+            ReducedTermStats reduced = fieldTerms.get(term.text());
+            if (reduced == null) {
+                term.presentErrorBound(shardErrorBound);
+                fieldTerms.put(term.text(), term);
+            } else {
+                reduced.merge(term, shardErrorBound);
+            }
+        }
+        errorUpperBound += shardErrorBound;
+        shards++;
+    }
+
+    /**
+     * The reduced top terms, highest metric first
+     *
+     * @return the top terms
+     */
+    public List<ReducedTermStats> reduce() {
+        List<ReducedTermStats> list = new ArrayList<ReducedTermStats>();
+        for (Map<String, ReducedTermStats> fieldTerms : terms.values()) {
+            for (ReducedTermStats term : fieldTerms.values()) {
+                term.computeErrorUpperBound(errorUpperBound);
+                list.add(term);
+            }
+        }
+        Collections.sort(list, new Comparator<ReducedTermStats>() {
+            @Override
+            public int compare(ReducedTermStats a, ReducedTermStats b) {
+                long va = a.value(metric);
+                long vb = b.value(metric);
+                if (va != vb) {
+                    return va < vb ? 1 : -1;
+                }
+                int c = a.field().compareTo(b.field());
+                return c != 0 ? c : a.text().compareTo(b.text());
+            }
+        });
+        return list.size() > size ? new ArrayList<ReducedTermStats>(list.subList(0, size)) : list;
+    }
+
+    public TermStatsMetric metric() {
+        return metric;
+    }
+
+    /**
+     * The maximum metric value of a term that is missing from the reduced top terms
+     *
+     * @return the error upper bound
+     */
+    public long errorUpperBound() {
+        return errorUpperBound;
+    }
+
+    public int shards() {
+        return shards;
+    }
+}
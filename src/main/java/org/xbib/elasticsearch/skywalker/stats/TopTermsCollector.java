@@ -0,0 +1,212 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.xbib.elasticsearch.skywalker.Deadline;
+import org.xbib.elasticsearch.skywalker.MemoryAccounting;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the top terms in a single pass over the term dictionary. There is
+ * one global queue ranked by document frequency, and optionally a bounded
+ * queue per field and metric, so one scan answers every field at once.
+ *
+ * Terms are checked against the current queue minimum before anything is
+ * copied, and the term bytes of the overflowing entry are reused, so only
+ * terms longer than any seen before cause an allocation.
+ */
+public class TopTermsCollector {
+
+    private static final TermStats[] EMPTY_STATS = new TermStats[0];
+
+    private final TermStatsQueue queue;
+
+    private final int fieldSize;
+
+    private final TermStatsMetric[] metrics;
+
+    private final Map<String, Map<TermStatsMetric, TermStats[]>> fieldTopTerms;
+
+    private TermStats[] topTerms;
+
+    private long allocatedBytes;
+
+    private Deadline deadline = Deadline.NONE;
+
+    private MemoryAccounting accounting = MemoryAccounting.NONE;
+
+    private long iterations;
+
+    /**
+     * @param size the number of top terms over all fields
+     * @param fieldSize the number of top terms per field, or 0 for no per-field top terms
+     * @param metrics the metrics for ranking the per-field top terms
+     */
+    public TopTermsCollector(int size, int fieldSize, TermStatsMetric[] metrics) {
+        this.queue = new TermStatsQueue(size, true, TermStatsMetric.DOC_FREQ);
+        this.allocatedBytes = queueBytes(size);
+        this.fieldSize = fieldSize;
+        this.metrics = metrics;
+        this.fieldTopTerms = new LinkedHashMap<String, Map<TermStatsMetric, TermStats[]>>();
+    }
+
+    /**
+     * Set the deadline that is checked while terms are collected
+     *
+     * @param deadline the deadline
+     * @return this collector
+     */
+    public TopTermsCollector deadline(Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Set the memory accounting that the allocations of this collector are reserved on.
+     * The initial queue is reserved right away.
+     *
+     * @param accounting the memory accounting
+     * @return this collector
+     */
+    public TopTermsCollector accounting(MemoryAccounting accounting) {
+        this.accounting = accounting;
+        accounting.reserve(allocatedBytes, "top terms");
+        return this;
+    }
+
+    /**
+     * Collect the terms of a field.
+     *
+     * @param field the field name
+     * @param termsEnum the terms of the field
+     * @throws IOException
+     * @throws org.xbib.elasticsearch.skywalker.DeadlineExceededException if the deadline has expired
+     */
+    public void collect(String field, TermsEnum termsEnum) throws IOException {
+        TermStatsQueue[] fieldQueues = null;
+        if (fieldSize > 0) {
+            fieldQueues = new TermStatsQueue[metrics.length];
+            for (int i = 0; i < metrics.length; i++) {
+                allocate(queueBytes(fieldSize));
+                fieldQueues[i] = new TermStatsQueue(fieldSize, true, metrics[i]);
+            }
+        }
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            deadline.check(++iterations);
+            int docFreq = termsEnum.docFreq();
+            long totalTermFreq = termsEnum.totalTermFreq();
+            if (totalTermFreq < 0) {
+                // frequencies are omitted, each document counts once
+                totalTermFreq = docFreq;
+            }
+            offer(queue, field, term, docFreq, totalTermFreq);
+            if (fieldQueues != null) {
+                for (TermStatsQueue fieldQueue : fieldQueues) {
+                    offer(fieldQueue, field, term, docFreq, totalTermFreq);
+                }
+            }
+        }
+        if (fieldQueues != null) {
+            Map<TermStatsMetric, TermStats[]> m = new LinkedHashMap<TermStatsMetric, TermStats[]>();
+            for (TermStatsQueue fieldQueue : fieldQueues) {
+                m.put(fieldQueue.metric(), drain(fieldQueue));
+            }
+            fieldTopTerms.put(field, m);
+        }
+    }
+
+    /**
+     * The top terms over all fields, highest document frequency first
+     *
+     * @return the top terms
+     */
+    public TermStats[] topTerms() {
+        if (topTerms == null) {
+            topTerms = drain(queue);
+        }
+        return topTerms;
+    }
+
+    /**
+     * The top terms per field and metric, highest first
+     *
+     * @return the top terms per field
+     */
+    public Map<String, Map<TermStatsMetric, TermStats[]>> fieldTopTerms() {
+        return fieldTopTerms;
+    }
+
+    /**
+     * The bytes allocated for queue entries, term buffers and results.
+     * It depends on the number of requested terms and the term lengths,
+     * but not on the number of terms in the index.
+     *
+     * @return the allocated bytes
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private void offer(TermStatsQueue tiq, String field, BytesRef term, int docFreq, long totalTermFreq) {
+        TermStats top = tiq.top();
+        if (top == null) {
+            return;
+        }
+        TermStatsMetric metric = tiq.metric();
+        long value = metric == TermStatsMetric.DOC_FREQ ? docFreq : totalTermFreq;
+        if (value <= metric.value(top)) {
+            return;
+        }
+        BytesRef text = top.bytes();
+        if (text.bytes.length < term.length) {
+            int length = ArrayUtil.oversize(term.length, 1);
+            allocate(RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + length));
+            text.bytes = new byte[length];
+        }
+        System.arraycopy(term.bytes, term.offset, text.bytes, 0, term.length);
+        text.offset = 0;
+        text.length = term.length;
+        top.field(field).docFreq(docFreq).totalTermFreq(totalTermFreq);
+        tiq.updateTop();
+    }
+
+    private TermStats[] drain(TermStatsQueue tiq) {
+        // drop the sentinels that were never overwritten
+        while (tiq.size() > 0 && tiq.top().docFreq() < 0) {
+            tiq.pop();
+        }
+        if (tiq.size() == 0) {
+            return EMPTY_STATS;
+        }
+        allocate(RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) tiq.size() * RamUsageEstimator.NUM_BYTES_OBJECT_REF));
+        TermStats[] result = new TermStats[tiq.size()];
+        // we want highest first so we read the queue and populate the array
+        // starting at the end and work backwards
+        int count = tiq.size() - 1;
+        while (tiq.size() != 0) {
+            result[count] = tiq.pop();
+            count--;
+        }
+        return result;
+    }
+
+    private void allocate(long bytes) {
+        accounting.reserve(bytes, "top terms");
+        allocatedBytes += bytes;
+    }
+
+    private static long queueBytes(int size) {
+        long heap = RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) (size + 1) * RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        long entry = RamUsageEstimator.shallowSizeOfInstance(TermStats.class)
+                + RamUsageEstimator.shallowSizeOfInstance(BytesRef.class);
+        return heap + size * entry;
+    }
+}
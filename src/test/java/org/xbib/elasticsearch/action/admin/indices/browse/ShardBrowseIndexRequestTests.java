@@ -0,0 +1,40 @@
+package org.xbib.elasticsearch.action.admin.indices.browse;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.unit.TimeValue;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ShardBrowseIndexRequestTests {
+
+    @Test
+    public void testDeadlineTravelsAsRemainingTime() throws Exception {
+        BrowseIndexRequest request = new BrowseIndexRequest("test").query("*:*").defaultField("_all")
+                .timeout(TimeValue.timeValueMinutes(1));
+        ShardBrowseIndexRequest shardRequest = new ShardBrowseIndexRequest("test", 0, request);
+        long before = System.currentTimeMillis();
+        ShardBrowseIndexRequest read = roundTrip(shardRequest);
+        long after = System.currentTimeMillis();
+        // the end is rebuilt on the clock of the receiving node, within the remaining budget
+        assertTrue(read.deadline() > before, "deadline " + read.deadline() + " before " + before);
+        assertTrue(read.deadline() <= after + 60000L);
+        assertTrue(read.deadline() <= shardRequest.deadline() + (after - before));
+    }
+
+    @Test
+    public void testNoDeadline() throws Exception {
+        BrowseIndexRequest request = new BrowseIndexRequest("test").query("*:*").defaultField("_all");
+        assertEquals(roundTrip(new ShardBrowseIndexRequest("test", 0, request)).deadline(), -1L);
+    }
+
+    private static ShardBrowseIndexRequest roundTrip(ShardBrowseIndexRequest request) throws Exception {
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        ShardBrowseIndexRequest read = new ShardBrowseIndexRequest();
+        read.readFrom(new BytesStreamInput(out.bytes()));
+        return read;
+    }
+}
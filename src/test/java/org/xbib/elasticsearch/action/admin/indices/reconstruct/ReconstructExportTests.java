@@ -0,0 +1,95 @@
+package org.xbib.elasticsearch.action.admin.indices.reconstruct;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.xbib.elasticsearch.plugin.skywalker.AbstractNodeTest;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentSelection;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ReconstructExportTests extends AbstractNodeTest {
+
+    private final Path exportPath;
+
+    public ReconstructExportTests() throws Exception {
+        exportPath = Files.createTempDirectory("skywalker-export");
+        putDefaultSettings(ImmutableSettings.settingsBuilder()
+                .put("skywalker.reconstruct.export.path", exportPath.toString()));
+    }
+
+    @AfterMethod
+    public void deleteExports() throws Exception {
+        deleteRecursively(exportPath.toFile());
+    }
+
+    @Test
+    public void testExportWritesLiveDocuments() throws Exception {
+        createIndexWithDeletion();
+        Set<String> ids = export(new ReconstructIndexRequest("export").export(true));
+        assertEquals(ids.size(), 9);
+        assertFalse(ids.contains("3"));
+    }
+
+    @Test
+    public void testExportWritesDeletedDocumentsWhenSelected() throws Exception {
+        createIndexWithDeletion();
+        Set<String> ids = export(new ReconstructIndexRequest("export").export(true).select(DocumentSelection.DELETED));
+        assertEquals(ids.size(), 1);
+        assertTrue(ids.contains("3"));
+    }
+
+    private void createIndexWithDeletion() {
+        client("1").admin().indices().prepareCreate("export")
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.number_of_replicas", 0))
+                .addMapping("docs", "{\"docs\":{\"_source\":{\"enabled\":false}}}")
+                .execute().actionGet();
+        for (int i = 0; i < 10; i++) {
+            client("1").prepareIndex("export", "docs", Integer.toString(i))
+                    .setSource("{\"content\":\"document " + i + "\"}").execute().actionGet();
+        }
+        client("1").admin().indices().prepareRefresh("export").execute().actionGet();
+        client("1").prepareDelete("export", "docs", "3").setRefresh(true).execute().actionGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> export(ReconstructIndexRequest request) throws Exception {
+        ReconstructIndexResponse response = client("1").admin().indices()
+                .execute(ReconstructIndexAction.INSTANCE, request).actionGet();
+        assertEquals(response.getFailedShards(), 0);
+        assertEquals(response.shards().size(), 1);
+        Map<String, Object> result = XContentHelper.convertToMap(response.shards().get(0).getReconstructedBytes(), false).v2();
+        assertEquals(result.get("numDeletions"), 1);
+        Map<String, Object> export = (Map<String, Object>) result.get("export");
+        List<String> lines = Files.readAllLines(new File((String) export.get("file")).toPath(), StandardCharsets.UTF_8);
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < lines.size(); i += 2) {
+            Map<String, Object> action = XContentHelper.convertToMap(lines.get(i).getBytes(StandardCharsets.UTF_8), false).v2();
+            ids.add((String) ((Map<String, Object>) action.get("index")).get("_id"));
+            // the source is rebuilt from the terms
+            assertTrue(lines.get(i + 1).contains("document"), lines.get(i + 1));
+        }
+        assertEquals(((Number) export.get("docs")).intValue(), ids.size());
+        return ids;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteRecursively(f);
+            }
+        }
+        file.delete();
+    }
+}
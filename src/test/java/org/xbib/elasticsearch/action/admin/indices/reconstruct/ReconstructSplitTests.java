@@ -0,0 +1,92 @@
+package org.xbib.elasticsearch.action.admin.indices.reconstruct;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.testng.annotations.Test;
+import org.xbib.elasticsearch.plugin.skywalker.AbstractNodeTest;
+import org.xbib.elasticsearch.skywalker.reconstruct.DocumentSelection;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class ReconstructSplitTests extends AbstractNodeTest {
+
+    @Test
+    public void testSplitShardReturnsEveryDocument() throws Exception {
+        int numDocs = 50;
+        createReplicatedIndex(numDocs);
+        Set<String> uids = split(new ReconstructIndexRequest("split").shardId(0).copies(ReconstructCopies.SPLIT));
+        assertEquals(uids.size(), numDocs);
+    }
+
+    @Test
+    public void testSplitShardWithDeletionReturnsEveryLiveDocument() throws Exception {
+        int numDocs = 50;
+        createReplicatedIndex(numDocs);
+        client("1").prepareDelete("split", "docs", "3").setRefresh(true).execute().actionGet();
+        // all shards of the index, each split over its copies
+        Set<String> uids = split(new ReconstructIndexRequest("split").copies(ReconstructCopies.SPLIT));
+        assertEquals(uids.size(), numDocs - 1);
+        assertFalse(uids.contains("docs#3"));
+    }
+
+    @Test
+    public void testDeletedDocumentsCanNotBeSplit() throws Exception {
+        createReplicatedIndex(10);
+        client("1").prepareDelete("split", "docs", "3").setRefresh(true).execute().actionGet();
+        ReconstructIndexResponse response = client("1").admin().indices().execute(ReconstructIndexAction.INSTANCE,
+                new ReconstructIndexRequest("split").shardId(0).copies(ReconstructCopies.SPLIT)
+                        .select(DocumentSelection.DELETED)).actionGet();
+        assertEquals(response.getFailedShards(), 2);
+        assertTrue(response.getShardFailures()[0].reason().contains("deleted documents can not be split"));
+    }
+
+    /**
+     * Reconstruct a split shard and check that the parts of the copies are disjoint
+     *
+     * @return the UIDs of the reconstructed documents
+     */
+    @SuppressWarnings("unchecked")
+    private Set<String> split(ReconstructIndexRequest request) throws Exception {
+        ReconstructIndexResponse response = client("1").admin().indices()
+                .execute(ReconstructIndexAction.INSTANCE, request).actionGet();
+        assertEquals(response.getFailedShards(), 0);
+        assertEquals(response.shards().size(), 2);
+        Set<String> uids = new HashSet<String>();
+        Set<Object> parts = new HashSet<Object>();
+        int count = 0;
+        for (ShardReconstructIndexResponse shard : response.shards()) {
+            Map<String, Object> result = XContentHelper.convertToMap(shard.getReconstructedBytes(), false).v2();
+            assertEquals(result.get("parts"), 2);
+            parts.add(result.get("part"));
+            for (Map<String, Object> doc : (List<Map<String, Object>>) result.get("docs")) {
+                count++;
+                for (Map<String, Object> term : (List<Map<String, Object>>) doc.get("terms")) {
+                    if ("_uid".equals(term.get("field"))) {
+                        uids.add((String) term.get("text"));
+                    }
+                }
+            }
+        }
+        assertEquals(parts.size(), 2);
+        assertEquals(count, uids.size());
+        return uids;
+    }
+
+    private void createReplicatedIndex(int numDocs) {
+        startNode("2");
+        client("1").admin().indices().prepareCreate("split")
+                .setSettings(ImmutableSettings.settingsBuilder()
+                        .put("index.number_of_shards", 1)
+                        .put("index.number_of_replicas", 1))
+                .execute().actionGet();
+        for (int i = 0; i < numDocs; i++) {
+            client("1").prepareIndex("split", "docs", Integer.toString(i))
+                    .setSource("{\"content\":\"document " + i + "\"}").execute().actionGet();
+        }
+        client("1").admin().cluster().prepareHealth("split").setWaitForGreenStatus().execute().actionGet();
+        client("1").admin().indices().prepareRefresh("split").execute().actionGet();
+    }
+}
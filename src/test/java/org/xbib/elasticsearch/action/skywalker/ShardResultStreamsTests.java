@@ -0,0 +1,67 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.HandlesStreamInput;
+import org.elasticsearch.common.io.stream.HandlesStreamOutput;
+import org.testng.annotations.Test;
+import org.xbib.elasticsearch.skywalker.stats.ReducedTermStats;
+import org.xbib.elasticsearch.skywalker.stats.TermStatsMetric;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ShardResultStreamsTests {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoundTrip() throws IOException {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("numDocs", 42);
+        result.put("tookInMillis", 7L);
+        result.put("timedOut", true);
+        result.put("indexVersion", null);
+        result.put("completedPhases", Arrays.asList("files", "topterms"));
+        List<IndexFileEntry> files = new ArrayList<IndexFileEntry>();
+        files.add(new IndexFileEntry("_0.cfs", "compound file"));
+        files.add(new IndexFileEntry("_1.cfs", "compound file", 1234L, null));
+        result.put("indexFiles", files);
+        List<TermStatsEntry> terms = new ArrayList<TermStatsEntry>();
+        terms.add(new TermStatsEntry("content", new ReducedTermStats("content", "fox", 3L, 5L), TermStatsMetric.DOC_FREQ));
+        terms.add(new TermStatsEntry("content", new ReducedTermStats("content", "quick", 2L, 2L), TermStatsMetric.DOC_FREQ));
+        result.put("topterms", terms);
+
+        BytesStreamOutput bytes = new BytesStreamOutput();
+        HandlesStreamOutput out = new HandlesStreamOutput(bytes);
+        ShardResultStreams.writeMap(out, result);
+        Map<String, Object> read = ShardResultStreams.readMap(new HandlesStreamInput(new BytesStreamInput(bytes.bytes())));
+
+        assertEquals(read.get("numDocs"), 42);
+        assertEquals(read.get("tookInMillis"), 7L);
+        assertEquals(read.get("timedOut"), true);
+        assertTrue(read.containsKey("indexVersion"));
+        assertEquals(read.get("completedPhases"), Arrays.asList("files", "topterms"));
+        List<IndexFileEntry> readFiles = (List<IndexFileEntry>) read.get("indexFiles");
+        assertEquals(readFiles.get(0).name(), "_0.cfs");
+        assertEquals(readFiles.get(0).length(), -1L);
+        assertEquals(readFiles.get(1).length(), 1234L);
+        assertNull(readFiles.get(1).checksum());
+        // repeated strings are read as one instance
+        assertSame(readFiles.get(0).function(), readFiles.get(1).function());
+        List<TermStatsEntry> readTerms = (List<TermStatsEntry>) read.get("topterms");
+        assertEquals(readTerms.size(), 2);
+        assertEquals(readTerms.get(1).text(), "quick");
+        assertEquals(readTerms.get(1).docFreq(), 2L);
+        assertEquals(readTerms.get(0).errorMetric(), TermStatsMetric.DOC_FREQ);
+        assertSame(readTerms.get(0).field(), readTerms.get(1).field());
+    }
+}
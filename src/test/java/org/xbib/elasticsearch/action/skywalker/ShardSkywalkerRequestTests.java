@@ -0,0 +1,40 @@
+package org.xbib.elasticsearch.action.skywalker;
+
+import org.elasticsearch.common.io.stream.BytesStreamInput;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class ShardSkywalkerRequestTests {
+
+    @Test
+    public void testCacheOptionsSurviveSerialization() throws Exception {
+        ShardSkywalkerRequest request = new ShardSkywalkerRequest("test", 0, new SkywalkerRequest("test"));
+        assertEquals(roundTrip(request).cacheOptions(), request.cacheOptions());
+        request = new ShardSkywalkerRequest("test", 0, new SkywalkerRequest("test").includeFields("content*"));
+        assertEquals(roundTrip(request).cacheOptions(), request.cacheOptions());
+    }
+
+    @Test
+    public void testCacheOptionsIgnoreLiveSections() throws Exception {
+        SkywalkerRequest all = new SkywalkerRequest("test");
+        SkywalkerRequest reader = new SkywalkerRequest("test").sections(SkywalkerRequest.Section.FIELDINFOS,
+                SkywalkerRequest.Section.TERMCOUNTS, SkywalkerRequest.Section.TOPTERMS);
+        SkywalkerRequest topTerms = new SkywalkerRequest("test").sections(SkywalkerRequest.Section.SEGMENTS,
+                SkywalkerRequest.Section.TOPTERMS);
+        assertEquals(new ShardSkywalkerRequest("test", 0, all).cacheOptions(),
+                new ShardSkywalkerRequest("test", 0, reader).cacheOptions());
+        assertFalse(new ShardSkywalkerRequest("test", 0, all).cacheOptions()
+                .equals(new ShardSkywalkerRequest("test", 0, topTerms).cacheOptions()));
+    }
+
+    private static ShardSkywalkerRequest roundTrip(ShardSkywalkerRequest request) throws Exception {
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        ShardSkywalkerRequest read = new ShardSkywalkerRequest();
+        read.readFrom(new BytesStreamInput(out.bytes()));
+        return read;
+    }
+}
@@ -0,0 +1,40 @@
+package org.xbib.elasticsearch.skywalker;
+
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ShardResultCacheTests {
+
+    @Test
+    public void testNewerVersionInvalidates() {
+        ShardResultCache cache = new ShardResultCache(10);
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("numTerms", 42L);
+        cache.put("uuid", 0, "options", "v1", result);
+
+        Map<String, Object> cached = cache.get("uuid", 0, "options", "v1");
+        assertEquals(cached, result);
+        // the cache hands out copies
+        cached.clear();
+        assertEquals(cache.get("uuid", 0, "options", "v1"), result);
+        // other options or shards do not match
+        assertNull(cache.get("uuid", 0, "other", "v1"));
+        assertNull(cache.get("uuid", 1, "options", "v1"));
+        // a recreated index with the same name has another UUID
+        assertNull(cache.get("other-uuid", 0, "options", "v1"));
+
+        // a refreshed reader invalidates the entry
+        assertNull(cache.get("uuid", 0, "options", "v2"));
+        assertNull(cache.get("uuid", 0, "options", "v1"));
+        Map<String, Object> stats = cache.stats();
+        assertEquals(stats.get("size"), 0L);
+        assertEquals(stats.get("hits"), 2L);
+        assertEquals(stats.get("misses"), 5L);
+        assertEquals(stats.get("invalidations"), 1L);
+    }
+}
@@ -0,0 +1,67 @@
+package org.xbib.elasticsearch.skywalker.collectors;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+
+public class AllHitsCollectorTests {
+
+    private int current;
+
+    @Test
+    public void testSortScoredHitsByDocId() throws IOException {
+        AllHitsCollector collector = new AllHitsCollector(true, true);
+        collector.setScorer(new NoScoringScorer() {
+            @Override
+            public float score() {
+                return docID();
+            }
+
+            @Override
+            public int docID() {
+                return current;
+            }
+        });
+        int[] docs = {7, 3, 11, 0, 5};
+        for (int doc : docs) {
+            current = doc;
+            collector.collect(doc);
+        }
+        assertEquals(collector.getTotalHits(), 5);
+        assertEquals(collector.getDocId(0), 7);
+        collector.sortByDocId();
+        int[] sorted = {0, 3, 5, 7, 11};
+        for (int i = 0; i < sorted.length; i++) {
+            assertEquals(collector.getDocId(i), sorted[i]);
+            assertEquals(collector.getScore(i), (float) sorted[i]);
+        }
+        DocIdSetIterator it = collector.iterator();
+        assertEquals(it.advance(4), 5);
+        assertEquals(it.nextDoc(), 7);
+        assertEquals(it.nextDoc(), 11);
+        assertEquals(it.nextDoc(), DocIdSetIterator.NO_MORE_DOCS);
+    }
+
+    @Test
+    public void testBitSetHits() throws IOException {
+        AllHitsCollector collector = new AllHitsCollector(16);
+        collector.collect(9);
+        collector.collect(2);
+        collector.collect(9);
+        assertEquals(collector.getTotalHits(), 2);
+        assertEquals(collector.getDocId(0), 2);
+        assertEquals(collector.getDocId(1), 9);
+        assertEquals(collector.getScore(1), 1.0f);
+        collector.collect(4);
+        assertEquals(collector.getDocId(1), 4);
+        DocIdSetIterator it = collector.iterator();
+        assertEquals(it.nextDoc(), 2);
+        assertEquals(it.nextDoc(), 4);
+        assertEquals(it.nextDoc(), 9);
+        collector.reset();
+        assertEquals(collector.getTotalHits(), 0);
+    }
+}
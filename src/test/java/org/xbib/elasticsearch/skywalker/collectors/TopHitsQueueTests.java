@@ -0,0 +1,46 @@
+package org.xbib.elasticsearch.skywalker.collectors;
+
+import org.apache.lucene.search.TopDocs;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TopHitsQueueTests {
+
+    @Test
+    public void testKeepTopScores() {
+        TopHitsQueue queue = new TopHitsQueue(3);
+        float[] scores = {0.5f, 2.0f, 1.0f, 3.0f, 0.1f, 2.0f};
+        for (int doc = 0; doc < scores.length; doc++) {
+            queue.add(doc, scores[doc]);
+        }
+        TopDocs topDocs = queue.topDocs(scores.length);
+        assertEquals(topDocs.totalHits, 6);
+        assertEquals(topDocs.scoreDocs.length, 3);
+        assertEquals(topDocs.scoreDocs[0].doc, 3);
+        // equal scores are ranked by doc id
+        assertEquals(topDocs.scoreDocs[1].doc, 1);
+        assertEquals(topDocs.scoreDocs[2].doc, 5);
+        assertEquals(topDocs.getMaxScore(), 3.0f);
+    }
+
+    @Test
+    public void testUnscoredHitsKeepFirstDocs() {
+        TopHitsQueue queue = new TopHitsQueue(1000000);
+        for (int doc = 9; doc >= 0; doc--) {
+            queue.add(doc, 1.0f);
+        }
+        assertEquals(queue.size(), 10);
+        TopDocs topDocs = queue.topDocs(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(topDocs.scoreDocs[i].doc, i);
+        }
+        queue = new TopHitsQueue(2);
+        for (int doc = 9; doc >= 0; doc--) {
+            queue.add(doc, 1.0f);
+        }
+        topDocs = queue.topDocs(10);
+        assertEquals(topDocs.scoreDocs[0].doc, 0);
+        assertEquals(topDocs.scoreDocs[1].doc, 1);
+    }
+}
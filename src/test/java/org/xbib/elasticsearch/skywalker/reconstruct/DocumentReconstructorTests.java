@@ -0,0 +1,347 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class DocumentReconstructorTests {
+
+    private static final int NUM_DOCS = 100;
+
+    @Test
+    public void testWindowsReconstructLikeSingleDocuments() throws Exception {
+        RAMDirectory directory = index(NUM_DOCS);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+        List<Map<String, Object>> baseline = docs(new DocumentReconstructor(reader).window(1).reconstruct(0));
+        assertEquals(baseline.size(), NUM_DOCS);
+        // the terms of each document as read by a document at a time from the index
+        for (Map<String, Object> doc : baseline) {
+            int docNum = (Integer) doc.get("doc");
+            assertEquals(terms(doc), documentTerms(reader, docNum), "document " + docNum);
+        }
+        assertEquals(docs(new DocumentReconstructor(reader).window(7).reconstruct(0)), baseline);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(docs(new DocumentReconstructor(reader).pool(pool).window(5).reconstruct(0)), baseline);
+        } finally {
+            pool.shutdown();
+        }
+        // the terms keep their positions and offsets, from the postings and from the term vectors
+        Map<String, Object> term = term(baseline.get(42), "content", "fox");
+        assertEquals(term.get("positions"), list(1, 3));
+        assertEquals(term.get("starts"), list(6, 13));
+        assertEquals(term.get("ends"), list(9, 16));
+        term = term(baseline.get(42), "vectors", "fox");
+        assertEquals(term.get("positions"), list(1, 3));
+        assertEquals(term.get("starts"), list(6, 13));
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testPagesNeitherSkipNorRepeatDocuments() throws Exception {
+        RAMDirectory directory = index(NUM_DOCS);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        List<Integer> seen = new ArrayList<Integer>();
+        int from = 0;
+        int pages = 0;
+        while (from >= 0) {
+            DocumentReconstructor reconstructor = new DocumentReconstructor(reader).window(4).range(from, -1).size(13);
+            List<Map<String, Object>> page = docs(reconstructor.reconstruct(0));
+            assertTrue(page.size() <= 13);
+            for (Map<String, Object> doc : page) {
+                seen.add((Integer) doc.get("doc"));
+            }
+            from = reconstructor.nextDoc();
+            pages++;
+        }
+        assertEquals(pages, (NUM_DOCS + 12) / 13);
+        assertEquals(seen, range(0, NUM_DOCS));
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testPartitionsAreDisjointAndComplete() throws Exception {
+        RAMDirectory directory = index(NUM_DOCS);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        int parts = 3;
+        boolean[] seen = new boolean[NUM_DOCS];
+        for (int part = 0; part < parts; part++) {
+            List<Map<String, Object>> docs = docs(new DocumentReconstructor(reader).partition(part, parts).reconstruct(0));
+            assertFalse(docs.isEmpty());
+            for (Map<String, Object> doc : docs) {
+                int docNum = (Integer) doc.get("doc");
+                assertFalse(seen[docNum], "document " + docNum + " in more than one part");
+                seen[docNum] = true;
+            }
+        }
+        for (int docNum = 0; docNum < NUM_DOCS; docNum++) {
+            assertTrue(seen[docNum], "document " + docNum + " in no part");
+        }
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testSelectionOfDeletedDocuments() throws Exception {
+        RAMDirectory directory = index(NUM_DOCS);
+        IndexWriter writer = writer(directory);
+        writer.deleteDocuments(new Term(UidFieldMapper.NAME, "doc#42"));
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        assertTrue(reader.hasDeletions());
+        List<Integer> live = range(0, NUM_DOCS);
+        live.remove(Integer.valueOf(42));
+        assertEquals(docNums(new DocumentReconstructor(reader).reconstruct(0)), live);
+        assertEquals(docNums(new DocumentReconstructor(reader).select(DocumentSelection.DELETED).reconstruct(0)), list(42));
+        assertEquals(docNums(new DocumentReconstructor(reader).select(DocumentSelection.ALL).reconstruct(0)),
+                range(0, NUM_DOCS));
+        // the live documents of the copies are the same, so they can be split
+        List<Integer> parts = new ArrayList<Integer>();
+        for (int part = 0; part < 2; part++) {
+            parts.addAll(docNums(new DocumentReconstructor(reader).partition(part, 2).reconstruct(0)));
+        }
+        Collections.sort(parts);
+        assertEquals(parts, live);
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDocumentsWithoutVectorsFallBackToPostings() throws Exception {
+        FieldType vectors = new FieldType(TextField.TYPE_NOT_STORED);
+        vectors.setStoreTermVectors(true);
+        vectors.setStoreTermVectorPositions(true);
+        vectors.setStoreTermVectorOffsets(true);
+        vectors.freeze();
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = writer(directory);
+        Document doc = new Document();
+        doc.add(new Field("content", "quick fox", vectors));
+        writer.addDocument(doc);
+        // the same field in the same segment, but without vectors
+        doc = new Document();
+        doc.add(new TextField("content", "lazy dog", Field.Store.NO));
+        writer.addDocument(doc);
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        Map<String, Object> result = result(new DocumentReconstructor(reader).reconstruct(0));
+        // the field is read from the term vectors for one document and from the postings for the other
+        assertEquals(((Map) result.get("paths")).get("content"), "term_vectors+postings");
+        List<Map<String, Object>> docs = (List<Map<String, Object>>) result.get("docs");
+        assertEquals(docs.size(), 2);
+        assertNotNull(term(docs.get(0), "content", "quick"));
+        Map<String, Object> term = term(docs.get(1), "content", "dog");
+        assertNotNull(term);
+        assertEquals(term.get("positions"), list(1));
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testVectorOffsetsWithoutPositions() throws Exception {
+        FieldType vectors = new FieldType(TextField.TYPE_NOT_STORED);
+        vectors.setStoreTermVectors(true);
+        vectors.setStoreTermVectorOffsets(true);
+        vectors.freeze();
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = writer(directory);
+        Document doc = new Document();
+        doc.add(new Field("content", "quick fox quick", vectors));
+        writer.addDocument(doc);
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        Map<String, Object> result = result(new DocumentReconstructor(reader).reconstruct(0));
+        assertEquals(((Map) result.get("paths")).get("content"), "term_vectors");
+        List<Map<String, Object>> docs = (List<Map<String, Object>>) result.get("docs");
+        Map<String, Object> term = term(docs.get(0), "content", "quick");
+        assertNotNull(term);
+        assertEquals(term.get("starts"), list(0, 10));
+        assertEquals(term.get("ends"), list(5, 15));
+        reader.close();
+        directory.close();
+    }
+
+    /**
+     * Index documents over several segments, with a field read from the postings
+     * and a field read from the term vectors. The UIDs are used for partitioning.
+     */
+    static RAMDirectory index(int numDocs) throws Exception {
+        FieldType postings = new FieldType(TextField.TYPE_NOT_STORED);
+        postings.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        postings.freeze();
+        FieldType vectors = new FieldType(TextField.TYPE_NOT_STORED);
+        vectors.setStoreTermVectors(true);
+        vectors.setStoreTermVectorPositions(true);
+        vectors.setStoreTermVectorOffsets(true);
+        vectors.freeze();
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = writer(directory);
+        for (int i = 0; i < numDocs; i++) {
+            String text = "doc" + i + " fox w" + (i % 7) + " fox";
+            Document doc = new Document();
+            doc.add(new StringField(UidFieldMapper.NAME, "doc#" + i, Field.Store.YES));
+            doc.add(new Field("content", text, postings));
+            doc.add(new Field("vectors", text, vectors));
+            writer.addDocument(doc);
+            if (i % 30 == 29) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        return directory;
+    }
+
+    static IndexWriter writer(RAMDirectory directory) throws Exception {
+        return new IndexWriter(directory, new IndexWriterConfig(Lucene.VERSION, new WhitespaceAnalyzer(Lucene.VERSION)));
+    }
+
+    static Map<String, Object> result(XContentBuilder builder) {
+        return XContentHelper.convertToMap(builder.bytes(), false).v2();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Map<String, Object>> docs(XContentBuilder builder) {
+        return (List<Map<String, Object>>) result(builder).get("docs");
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> term(Map<String, Object> doc, String field, String text) {
+        for (Map<String, Object> term : (List<Map<String, Object>>) doc.get("terms")) {
+            if (field.equals(term.get("field")) && text.equals(term.get("text"))) {
+                return term;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The terms of a reconstructed document by field and text
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Map<String, Object>> terms(Map<String, Object> doc) {
+        Map<String, Map<String, Object>> terms = new TreeMap<String, Map<String, Object>>();
+        for (Map<String, Object> term : (List<Map<String, Object>>) doc.get("terms")) {
+            terms.put(term.get("field") + ":" + term.get("text"), term);
+        }
+        return terms;
+    }
+
+    /**
+     * The terms of a document, read without the reconstructor: from the term vectors
+     * of the document if it has them for a field, else by advancing the postings of
+     * every term of the field to the document.
+     */
+    static Map<String, Map<String, Object>> documentTerms(IndexReader reader, int docNum) throws Exception {
+        Map<String, Map<String, Object>> terms = new TreeMap<String, Map<String, Object>>();
+        AtomicReaderContext leaf = reader.leaves().get(ReaderUtil.subIndex(docNum, reader.leaves()));
+        AtomicReader leafReader = leaf.reader();
+        int doc = docNum - leaf.docBase;
+        Fields vectors = leafReader.getTermVectors(doc);
+        for (FieldInfo fi : leafReader.getFieldInfos()) {
+            if (!fi.isIndexed()) {
+                continue;
+            }
+            Terms fieldTerms = vectors != null ? vectors.terms(fi.name) : null;
+            boolean fromVectors = fieldTerms != null;
+            if (!fromVectors) {
+                fieldTerms = leafReader.terms(fi.name);
+            }
+            if (fieldTerms == null) {
+                continue;
+            }
+            boolean hasOccurrences = fieldTerms.hasPositions() || (fromVectors && fieldTerms.hasOffsets());
+            TermsEnum te = fieldTerms.iterator(null);
+            BytesRef text;
+            while ((text = te.next()) != null) {
+                DocsEnum de = hasOccurrences ?
+                        te.docsAndPositions(null, null, DocsAndPositionsEnum.FLAG_OFFSETS) :
+                        te.docs(null, null, DocsEnum.FLAG_FREQS);
+                if (fromVectors ? de.nextDoc() == DocsEnum.NO_MORE_DOCS : de.advance(doc) != doc) {
+                    continue;
+                }
+                int freq = de.freq();
+                List<Integer> positions = new ArrayList<Integer>();
+                List<Integer> starts = new ArrayList<Integer>();
+                List<Integer> ends = new ArrayList<Integer>();
+                for (int k = 0; hasOccurrences && k < freq; k++) {
+                    DocsAndPositionsEnum dpe = (DocsAndPositionsEnum) de;
+                    positions.add(dpe.nextPosition());
+                    starts.add(dpe.startOffset());
+                    ends.add(dpe.endOffset());
+                }
+                Map<String, Object> term = new LinkedHashMap<String, Object>();
+                term.put("field", fi.name);
+                term.put("text", text.utf8ToString());
+                term.put("positions", positions);
+                term.put("starts", starts);
+                term.put("ends", ends);
+                term.put("count", freq);
+                terms.put(fi.name + ":" + text.utf8ToString(), term);
+            }
+        }
+        return terms;
+    }
+
+    static List<Integer> docNums(XContentBuilder builder) {
+        List<Integer> docNums = new ArrayList<Integer>();
+        for (Map<String, Object> doc : docs(builder)) {
+            docNums.add((Integer) doc.get("doc"));
+        }
+        return docNums;
+    }
+
+    static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    static List<Integer> list(Integer... values) {
+        return Arrays.asList(values);
+    }
+}
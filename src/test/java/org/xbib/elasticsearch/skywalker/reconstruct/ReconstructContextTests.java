@@ -0,0 +1,24 @@
+package org.xbib.elasticsearch.skywalker.reconstruct;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ReconstructContextTests {
+
+    @Test
+    public void testContextInUseDoesNotExpire() {
+        ReconstructContext context = new ReconstructContext(1L, "test", 0, null);
+        context.accessed(0L, 100L);
+        assertFalse(context.isExpired(100L));
+        assertTrue(context.isExpired(101L));
+        // a page that runs longer than the keep-alive
+        context.inUse();
+        assertFalse(context.isExpired(1000L));
+        // the keep-alive starts again after the page
+        context.accessed(1000L, 100L);
+        assertFalse(context.isExpired(1100L));
+        assertTrue(context.isExpired(1101L));
+    }
+}
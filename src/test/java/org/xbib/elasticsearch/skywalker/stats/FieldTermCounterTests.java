@@ -0,0 +1,94 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.common.lucene.Lucene;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FieldTermCounterTests {
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    private ForkJoinPool pool;
+
+    @BeforeMethod
+    public void create() throws Exception {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory,
+                new IndexWriterConfig(Lucene.VERSION, new WhitespaceAnalyzer(Lucene.VERSION)));
+        // "content" spans two segments sharing the term "b", "title" is in one segment
+        writer.addDocument(doc("content", "a b"));
+        writer.commit();
+        writer.addDocument(doc("content", "b c"));
+        writer.addDocument(doc("title", "x y"));
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterMethod
+    public void close() throws Exception {
+        pool.shutdown();
+        reader.close();
+        directory.close();
+    }
+
+    @Test
+    public void testExactMerge() throws Exception {
+        assertEquals(reader.leaves().size(), 2);
+        FieldTermCounter counter = new FieldTermCounter(reader, pool, true);
+        Set<FieldTermCount> counts = counter.count();
+        FieldTermCount content = find(counts, "content");
+        assertEquals(content.getTermCount(), 3L);
+        assertFalse(content.isApproximate());
+        assertEquals(find(counts, "title").getTermCount(), 2L);
+        assertEquals(counter.getNumTerms(), 5L);
+    }
+
+    @Test
+    public void testApproximateMerge() throws Exception {
+        FieldTermCounter counter = new FieldTermCounter(reader, pool, false);
+        Set<FieldTermCount> counts = counter.count();
+        // the sum of the segment counts is an upper bound, the shared term is counted twice
+        FieldTermCount content = find(counts, "content");
+        assertEquals(content.getTermCount(), 4L);
+        assertTrue(content.isApproximate());
+        // a field of a single segment is always exact
+        FieldTermCount title = find(counts, "title");
+        assertEquals(title.getTermCount(), 2L);
+        assertFalse(title.isApproximate());
+        assertEquals(counter.getNumTerms(), 6L);
+    }
+
+    private static Document doc(String field, String text) {
+        Document doc = new Document();
+        doc.add(new TextField(field, text, Field.Store.NO));
+        return doc;
+    }
+
+    private static FieldTermCount find(Set<FieldTermCount> counts, String field) {
+        for (FieldTermCount count : counts) {
+            if (count.getFieldname().equals(field)) {
+                return count;
+            }
+        }
+        throw new AssertionError("no count for field " + field);
+    }
+}
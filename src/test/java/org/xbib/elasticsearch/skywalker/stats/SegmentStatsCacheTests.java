@@ -0,0 +1,64 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.testng.annotations.Test;
+
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class SegmentStatsCacheTests {
+
+    private static final TermStatsMetric[] METRICS = {TermStatsMetric.DOC_FREQ};
+
+    @Test
+    public void testTopTermsAreBoundedAndAccounted() throws Exception {
+        RAMDirectory directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory,
+                new IndexWriterConfig(Lucene.VERSION, new WhitespaceAnalyzer(Lucene.VERSION)));
+        Document doc = new Document();
+        doc.add(new TextField("content", "the quick fox", Field.Store.NO));
+        writer.addDocument(doc);
+        writer.close();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        AtomicReader segment = reader.leaves().get(0).reader();
+
+        long bytes = new TopTermsCollector(100, 0, METRICS).allocatedBytes();
+        MemoryCircuitBreaker breaker = new MemoryCircuitBreaker(new ByteSizeValue(1, ByteSizeUnit.MB), 1.0,
+                Loggers.getLogger(SegmentStatsCacheTests.class));
+        SegmentStatsCache cache = new SegmentStatsCache(new ByteSizeValue(4 * bytes), breaker);
+        SegmentStatsCache.SegmentStats stats = cache.get(segment);
+        for (int i = 0; i < 20; i++) {
+            // a client varying the options must not grow the cache without limit
+            stats.topTerms(i, new TopTermsCollector(100, 0, METRICS));
+        }
+        Map<String, Object> m = cache.stats();
+        assertTrue(((Number) m.get("topTermsEntries")).longValue() <= 4);
+        assertTrue(((Number) m.get("topTermsEvictions")).longValue() >= 16);
+        assertEquals(breaker.getUsed(), ((Number) m.get("topTermsEntries")).longValue() * bytes);
+        assertNotNull(stats.topTerms(19));
+        assertNull(stats.topTerms(0));
+
+        // closing the segment core releases the cached candidates
+        reader.close();
+        assertEquals(((Number) cache.stats().get("topTermsEntries")).longValue(), 0L);
+        assertEquals(breaker.getUsed(), 0L);
+        directory.close();
+    }
+}
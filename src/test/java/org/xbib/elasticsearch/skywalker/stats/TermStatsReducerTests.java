@@ -0,0 +1,79 @@
+package org.xbib.elasticsearch.skywalker.stats;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+
+public class TermStatsReducerTests {
+
+    @Test
+    public void testReduceWithErrorBounds() {
+        TermStatsReducer reducer = new TermStatsReducer(2, TermStatsMetric.DOC_FREQ);
+        // a full shard list, the shard may hold more terms with docFreq up to 5
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("content", "a", 10, 12),
+                new ReducedTermStats("content", "b", 5, 5)), 2);
+        // a complete shard list
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("content", "b", 8, 9),
+                new ReducedTermStats("content", "c", 7, 7)), 3);
+        List<ReducedTermStats> terms = reducer.reduce();
+        assertEquals(terms.size(), 2);
+        assertEquals(terms.get(0).text(), "b");
+        assertEquals(terms.get(0).docFreq(), 13L);
+        assertEquals(terms.get(0).totalTermFreq(), 14L);
+        assertEquals(terms.get(0).errorUpperBound(), 0L);
+        assertEquals(terms.get(1).text(), "a");
+        assertEquals(terms.get(1).docFreq(), 10L);
+        assertEquals(terms.get(1).errorUpperBound(), 0L);
+        assertEquals(reducer.errorUpperBound(), 5L);
+        assertEquals(reducer.shards(), 2);
+    }
+
+    @Test
+    public void testMissingTermErrorBound() {
+        TermStatsReducer reducer = new TermStatsReducer(3, TermStatsMetric.TOTAL_TERM_FREQ);
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("f", "x", 3, 30),
+                new ReducedTermStats("f", "y", 2, 20)), 2);
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("f", "z", 4, 25),
+                new ReducedTermStats("f", "x", 1, 15)), 2);
+        List<ReducedTermStats> terms = reducer.reduce();
+        assertEquals(terms.get(0).text(), "x");
+        assertEquals(terms.get(0).totalTermFreq(), 45L);
+        assertEquals(terms.get(0).errorUpperBound(), 0L);
+        // z was not returned by the first shard, which may hold it with up to 20
+        assertEquals(terms.get(1).text(), "z");
+        assertEquals(terms.get(1).errorUpperBound(), 20L);
+        assertEquals(terms.get(2).text(), "y");
+        assertEquals(terms.get(2).errorUpperBound(), 15L);
+    }
+
+    @Test
+    public void testApproximateShardErrorBounds() {
+        TermStatsReducer reducer = new TermStatsReducer(3, TermStatsMetric.DOC_FREQ);
+        // a shard list reduced from segment candidates, terms missing from it may have up to 4
+        // more than the last returned term, and b may be undercounted by 2
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("f", "a", 10, 10, 0),
+                new ReducedTermStats("f", "b", 6, 6, 2)), 2, 4);
+        // an exact and complete shard list
+        reducer.addShard(Arrays.asList(
+                new ReducedTermStats("f", "b", 5, 5),
+                new ReducedTermStats("f", "c", 3, 3)), 3, 0);
+        List<ReducedTermStats> terms = reducer.reduce();
+        assertEquals(reducer.errorUpperBound(), 10L);
+        assertEquals(terms.get(0).text(), "b");
+        assertEquals(terms.get(0).docFreq(), 11L);
+        assertEquals(terms.get(0).errorUpperBound(), 2L);
+        assertEquals(terms.get(1).text(), "a");
+        assertEquals(terms.get(1).errorUpperBound(), 0L);
+        // c is missing from the first shard, which may hold it with up to 6 + 4
+        assertEquals(terms.get(2).text(), "c");
+        assertEquals(terms.get(2).errorUpperBound(), 10L);
+    }
+}